@@ -0,0 +1,80 @@
+package com.ronanski11.mrate.controller;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ronanski11.mrate.model.MigrationState;
+import com.ronanski11.mrate.model.UserStats;
+import com.ronanski11.mrate.model.dto.SlowQuery;
+import com.ronanski11.mrate.security.RequireAdmin;
+import com.ronanski11.mrate.service.SharedWatchlistConsistencyChecker;
+import com.ronanski11.mrate.service.SharedWatchlistStorageMigrator;
+import com.ronanski11.mrate.service.SlowQueryLog;
+import com.ronanski11.mrate.service.UserStatsService;
+import com.ronanski11.mrate.service.migration.MigrationRunner;
+
+@RestController
+@RequestMapping("/api/admin")
+@RequireAdmin
+public class AdminController {
+
+	@Autowired
+	SharedWatchlistStorageMigrator migrator;
+
+	@Autowired
+	MigrationRunner migrationRunner;
+
+	@Autowired
+	SlowQueryLog slowQueryLog;
+
+	@Autowired
+	UserStatsService userStats;
+
+	@Autowired
+	SharedWatchlistConsistencyChecker consistencyChecker;
+
+	@GetMapping("/migrations")
+	public ResponseEntity<List<MigrationState>> getMigrations() {
+		return ResponseEntity.ok(migrationRunner.getStates());
+	}
+
+	@GetMapping("/slow-queries")
+	public ResponseEntity<List<SlowQuery>> getSlowQueries(@RequestParam(defaultValue = "100") int limit) {
+		return ResponseEntity.ok(slowQueryLog.getSlowQueries(Math.max(1, limit)));
+	}
+
+	@PostMapping("/user-stats/{userId}/reconcile")
+	public ResponseEntity<UserStats> reconcileUserStats(@PathVariable String userId) {
+		return ResponseEntity.ok(userStats.reconcile(userId));
+	}
+
+	@PostMapping("/shared-watchlist/{watchlistId}/bucketed")
+	public ResponseEntity<?> migrateToBuckets(
+			@PathVariable String watchlistId,
+			@RequestParam(required = false) Integer buckets) {
+		migrator.migrate(watchlistId, buckets);
+		return ResponseEntity.ok().build();
+	}
+
+	@PostMapping("/shared-watchlist/{watchlistId}/check")
+	public ResponseEntity<Map<String, Long>> checkSharedWatchlist(@PathVariable String watchlistId) {
+		return ResponseEntity.ok(Map.of("repaired", consistencyChecker.check(watchlistId)));
+	}
+
+	@PostMapping("/shared-watchlist/bucketed")
+	public ResponseEntity<List<String>> migrateLargeToBuckets(
+			@RequestParam(defaultValue = "1000") int minMovies,
+			@RequestParam(required = false) Integer buckets) {
+		return ResponseEntity.accepted().body(migrator.migrateLarge(minMovies, buckets));
+	}
+
+}
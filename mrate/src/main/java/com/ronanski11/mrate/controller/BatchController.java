@@ -0,0 +1,32 @@
+package com.ronanski11.mrate.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ronanski11.mrate.model.dto.BatchOperation;
+import com.ronanski11.mrate.model.dto.BatchResult;
+import com.ronanski11.mrate.security.AuthenticationService;
+import com.ronanski11.mrate.service.BatchService;
+
+@RestController
+@RequestMapping("/api/batch")
+public class BatchController {
+	
+	@Autowired
+	BatchService service;
+	
+	@Autowired
+	AuthenticationService auth;
+	
+	@PostMapping()
+	public ResponseEntity<List<BatchResult>> execute(@RequestBody List<BatchOperation> operations) {
+		return ResponseEntity.ok(service.execute(auth.getUsername(), operations));
+	}
+
+}
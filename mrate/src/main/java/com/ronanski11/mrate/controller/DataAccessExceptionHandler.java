@@ -0,0 +1,38 @@
+package com.ronanski11.mrate.controller;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import com.ronanski11.mrate.service.DatabaseUnavailableException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Database timeouts and connection failures become 503 with Retry-After
+ * rather than 500, so clients back off while the breaker recovers.
+ */
+@Slf4j
+@RestControllerAdvice
+public class DataAccessExceptionHandler {
+
+	@Value("${mrate.mongo.breaker.open-duration:PT10S}")
+	private Duration retryAfter;
+
+	@ExceptionHandler({ DatabaseUnavailableException.class, DataAccessResourceFailureException.class, QueryTimeoutException.class })
+	public ResponseEntity<ProblemDetail> handleUnavailable(RuntimeException e) {
+		log.debug("Database unavailable: {}", e.getMessage());
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter.toSeconds()))
+				.body(ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, "Database temporarily unavailable"));
+	}
+
+}
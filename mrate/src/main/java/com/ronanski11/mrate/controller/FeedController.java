@@ -0,0 +1,31 @@
+package com.ronanski11.mrate.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ronanski11.mrate.model.dto.FeedPage;
+import com.ronanski11.mrate.security.AuthenticationService;
+import com.ronanski11.mrate.service.FeedService;
+
+@RestController
+@RequestMapping("/api/feed")
+public class FeedController {
+
+	@Autowired
+	AuthenticationService auth;
+
+	@Autowired
+	FeedService service;
+
+	@GetMapping()
+	public ResponseEntity<FeedPage> getFeed(
+			@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "20") int size) {
+		return ResponseEntity.ok(service.getFeed(auth.getId(), cursor, Math.max(1, Math.min(size, 100))));
+	}
+
+}
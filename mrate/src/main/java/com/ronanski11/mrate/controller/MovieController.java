@@ -0,0 +1,35 @@
+package com.ronanski11.mrate.controller;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ronanski11.mrate.model.MovieMetadata;
+import com.ronanski11.mrate.service.MovieMetadataService;
+
+@RestController
+@RequestMapping("/api/movies")
+public class MovieController {
+
+	@Autowired
+	MovieMetadataService service;
+
+	@GetMapping("/metadata")
+	public ResponseEntity<Map<String, MovieMetadata>> getMetadata(@RequestParam List<String> ids) {
+		return ResponseEntity.ok(service.getMetadata(ids));
+	}
+
+	@PostMapping("/metadata")
+	public ResponseEntity<Map<String, MovieMetadata>> hydrate(@RequestBody List<String> ids) {
+		return ResponseEntity.ok(service.getMetadata(ids));
+	}
+
+}
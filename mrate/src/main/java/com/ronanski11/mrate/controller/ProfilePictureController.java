@@ -0,0 +1,58 @@
+package com.ronanski11.mrate.controller;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ronanski11.mrate.service.ImageStore.StoredImage;
+import com.ronanski11.mrate.service.ProfilePictureService;
+import com.ronanski11.mrate.service.ProfilePictureService.Picture;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+@RestController
+@RequestMapping("/api/profile-pics")
+public class ProfilePictureController {
+
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+	@Autowired
+	ProfilePictureService service;
+
+	@GetMapping("/{id}")
+	public ResponseEntity<Resource> getProfilePic(@PathVariable String id,
+			@RequestParam(required = false) Integer size, HttpServletRequest request) {
+		Picture picture = service.open(id, size);
+		StoredImage image = picture.image();
+
+		// If-None-Match and Range are answered by Spring from the ETag and the Resource body
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+				.eTag(image.key())
+				.cacheControl(picture.fallback()
+						? CacheControl.maxAge(Duration.ofMinutes(1)).cachePublic()
+						: CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable())
+				.contentType(MediaTypeFactory.getMediaType(image.key()).orElse(MediaType.APPLICATION_OCTET_STREAM));
+
+		// Full reads of local files are handed to Tomcat's sendfile so the bytes never pass through the JVM
+		if (image.file() != null && request.getHeader(HttpHeaders.RANGE) == null
+				&& Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute("org.apache.tomcat.sendfile.filename", image.file().toString());
+			request.setAttribute("org.apache.tomcat.sendfile.start", 0L);
+			request.setAttribute("org.apache.tomcat.sendfile.end", image.length());
+			return response.header(HttpHeaders.ACCEPT_RANGES, "bytes").contentLength(image.length()).build();
+		}
+		return response.body(image.resource());
+	}
+
+}
@@ -1,19 +1,31 @@
 package com.ronanski11.mrate.controller;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.RatingEvent;
+import com.ronanski11.mrate.model.dto.ScorePoint;
 import com.ronanski11.mrate.security.AuthenticationService;
+import com.ronanski11.mrate.service.RatingHistoryService;
 import com.ronanski11.mrate.service.RatingService;
+import com.ronanski11.mrate.service.SharedWatchlistService;
+import com.ronanski11.mrate.util.FieldSelection;
 
 @RestController
 @RequestMapping("/api/rating")
@@ -24,6 +36,12 @@ public class RatingController {
 	
 	@Autowired
 	RatingService service;
+
+	@Autowired
+	RatingHistoryService history;
+
+	@Autowired
+	SharedWatchlistService sharedWatchlists;
 	
 	@PostMapping()
 	public ResponseEntity<Rating> createRating(@RequestBody Rating rating) {
@@ -36,8 +54,34 @@ public class RatingController {
 	}
 	
 	@GetMapping("/all")
-	public ResponseEntity<List<Rating>> getAllRated() {
-		return ResponseEntity.ok(service.getAllRated(auth.getId()));
+	public ResponseEntity<MappingJacksonValue> getAllRated(@RequestParam(required = false) String fields) {
+		FieldSelection selection = FieldSelection.parse(fields, Rating.class);
+		return ResponseEntity.ok(selection.wrap(service.getAllRated(auth.getId(), selection)));
+	}
+	
+	@GetMapping("/history")
+	public ResponseEntity<List<RatingEvent>> getTimeline(
+			@RequestParam(required = false) String userId,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+			@RequestParam(defaultValue = "100") int limit) {
+		String self = auth.getId();
+		// Other users' history is visible to admins and to members of a shared watchlist with them
+		if (userId != null && !userId.equals(self) && !auth.isAdmin() && !sharedWatchlists.shareWatchlist(self, userId)) {
+			throw new ResponseStatusException(HttpStatus.FORBIDDEN, "No access to this user's history");
+		}
+		return ResponseEntity.ok(history.getTimeline(userId == null ? self : userId, from, to,
+				Math.max(1, Math.min(limit, 1000))));
+	}
+	
+	@GetMapping("/history/movie/{imdbId}")
+	public ResponseEntity<List<ScorePoint>> getMovieSeries(
+			@PathVariable String imdbId,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+			@RequestParam(defaultValue = "week") String interval) {
+		LocalDate end = to == null ? LocalDate.now() : to;
+		return ResponseEntity.ok(history.getMovieSeries(imdbId, from == null ? end.minusYears(1) : from, end, interval));
 	}
 	
 }
@@ -0,0 +1,31 @@
+package com.ronanski11.mrate.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ronanski11.mrate.model.dto.Recommendation;
+import com.ronanski11.mrate.security.AuthenticationService;
+import com.ronanski11.mrate.service.RecommendationService;
+
+@RestController
+@RequestMapping("/api/recommendations")
+public class RecommendationController {
+
+	@Autowired
+	AuthenticationService auth;
+
+	@Autowired
+	RecommendationService service;
+
+	@GetMapping()
+	public ResponseEntity<List<Recommendation>> getRecommendations(@RequestParam(defaultValue = "20") int limit) {
+		return ResponseEntity.ok(service.recommend(auth.getId(), Math.max(1, Math.min(limit, 100))));
+	}
+
+}
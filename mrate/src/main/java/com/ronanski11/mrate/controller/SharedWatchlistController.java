@@ -1,23 +1,38 @@
 package com.ronanski11.mrate.controller;
 
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.ronanski11.mrate.model.Rating;
 import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.SharedWatchlistEntry;
+import com.ronanski11.mrate.model.dto.BulkMovieChange;
+import com.ronanski11.mrate.model.dto.Compatibility;
+import com.ronanski11.mrate.model.dto.SharedWatchlistPage;
+import com.ronanski11.mrate.model.dto.SyncDelta;
 import com.ronanski11.mrate.security.AuthenticationService;
 import com.ronanski11.mrate.security.model.RequiresWatchlistAccess;
+import com.ronanski11.mrate.service.CompatibilityService;
+import com.ronanski11.mrate.service.SharedWatchlistEventBroadcaster;
 import com.ronanski11.mrate.service.SharedWatchlistService;
+import com.ronanski11.mrate.util.FieldSelection;
 
 @RestController
 @RequestMapping("/api/shared-watchlist")
@@ -29,9 +44,21 @@ public class SharedWatchlistController {
     @Autowired
     private AuthenticationService auth;
     
+    @Autowired
+    private SharedWatchlistEventBroadcaster events;
+    
+    @Autowired
+    private CompatibilityService compatibility;
+    
     @GetMapping
-    public ResponseEntity<List<SharedWatchlist>> getUserSharedWatchlists() {
-        return ResponseEntity.ok(service.getUserSharedWatchlists(auth.getId()));
+    public ResponseEntity<?> getUserSharedWatchlists(
+            @RequestParam(required = false) String view,
+            @RequestParam(required = false) String fields) {
+        if ("summary".equals(view)) {
+            return ResponseEntity.ok(service.getUserSharedWatchlistSummaries(auth.getId()));
+        }
+        FieldSelection selection = FieldSelection.parse(fields, SharedWatchlist.class);
+        return ResponseEntity.ok(selection.wrap(service.getUserSharedWatchlists(auth.getId(), selection)));
     }
     
     @PostMapping
@@ -41,8 +68,45 @@ public class SharedWatchlistController {
     
     @GetMapping("/{watchlistId}")
     @RequiresWatchlistAccess
-    public ResponseEntity<SharedWatchlist> getSharedWatchlist(@PathVariable String watchlistId) {
-        return ResponseEntity.ok(service.getSharedWatchlist(watchlistId));
+    public ResponseEntity<MappingJacksonValue> getSharedWatchlist(
+            @PathVariable String watchlistId,
+            @RequestParam(required = false) String fields) {
+        FieldSelection selection = FieldSelection.parse(fields, SharedWatchlist.class);
+        return ResponseEntity.ok(selection.wrap(service.getSharedWatchlist(watchlistId, selection)));
+    }
+    
+    @GetMapping("/{watchlistId}/movies")
+    @RequiresWatchlistAccess
+    public ResponseEntity<SharedWatchlistPage> getSharedWatchlistPage(
+            @PathVariable String watchlistId,
+            @RequestParam(defaultValue = "addedDate") String sort,
+            @RequestParam(defaultValue = "DESC") Direction direction,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(service.getSharedWatchlistPage(watchlistId, auth.getId(), sort, direction,
+                Math.max(page, 0), Math.max(1, Math.min(size, 100))));
+    }
+    
+    @GetMapping("/{watchlistId}/compatibility")
+    @RequiresWatchlistAccess
+    public ResponseEntity<List<Compatibility>> getWatchlistCompatibility(@PathVariable String watchlistId) {
+        return ResponseEntity.ok(compatibility.getWatchlistCompatibility(auth.getId(), watchlistId));
+    }
+    
+    @GetMapping("/{watchlistId}/sync")
+    @RequiresWatchlistAccess
+    public ResponseEntity<SyncDelta<SharedWatchlistEntry>> syncSharedWatchlist(
+            @PathVariable String watchlistId,
+            @RequestParam(required = false) String since) {
+        return ResponseEntity.ok(service.syncSharedWatchlist(watchlistId, since));
+    }
+    
+    @GetMapping(path = "/{watchlistId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @RequiresWatchlistAccess
+    public SseEmitter subscribeToSharedWatchlist(
+            @PathVariable String watchlistId,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        return events.subscribe(watchlistId, auth.getId(), lastEventId);
     }
     
     @PutMapping("/{watchlistId}")
@@ -96,6 +160,20 @@ public class SharedWatchlistController {
         return ResponseEntity.ok().build();
     }
     
+    @PostMapping("/{watchlistId}/movies")
+    @RequiresWatchlistAccess
+    public ResponseEntity<Map<String, String>> changeMovies(
+            @PathVariable String watchlistId,
+            @RequestBody BulkMovieChange change) {
+        return ResponseEntity.ok(service.changeMovies(watchlistId, change.getAdd(), change.getRemove(), auth.getUsername()));
+    }
+    
+    @PostMapping("/{watchlistId}/movies/copy-from-watchlist")
+    @RequiresWatchlistAccess
+    public ResponseEntity<Map<String, String>> copyFromWatchlist(@PathVariable String watchlistId) {
+        return ResponseEntity.ok(service.copyFromWatchlist(watchlistId, auth.getId(), auth.getUsername()));
+    }
+    
     @PostMapping("/{watchlistId}/movie/{imdbId}/rating")
     @RequiresWatchlistAccess
     public ResponseEntity<?> rateMovie(
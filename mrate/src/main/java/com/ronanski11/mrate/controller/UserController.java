@@ -1,9 +1,19 @@
 package com.ronanski11.mrate.controller;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -11,25 +21,59 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.ronanski11.mrate.model.dto.Compatibility;
 import com.ronanski11.mrate.model.dto.UserDTO;
+import com.ronanski11.mrate.model.dto.UserPage;
+import com.ronanski11.mrate.model.dto.UserSummary;
 import com.ronanski11.mrate.security.AuthenticationService;
 import com.ronanski11.mrate.security.RequireAdmin;
+import com.ronanski11.mrate.service.CompatibilityService;
+import com.ronanski11.mrate.service.ProfilePictureService;
 import com.ronanski11.mrate.service.UserService;
+import com.ronanski11.mrate.service.UserStatsService;
+import com.ronanski11.mrate.service.UsernameIndex;
 
 @RestController
 @RequestMapping("/api/users")
 public class UserController {
     
+    private static final int MAX_BATCH_IDS = 100;
+    
+    private static final int MAX_PAGE_SIZE = 1000;
+    
+    @Value("${mrate.users.max-age:PT1M}")
+    private Duration maxAge;
+    
     @Autowired
     private UserService service;
     
     @Autowired
     private AuthenticationService auth;
     
+    @Autowired
+    private CompatibilityService compatibility;
+    
+    @Autowired
+    private UsernameIndex usernameIndex;
+    
+    @Autowired
+    private ProfilePictureService profilePictures;
+    
+    @Autowired
+    private UserStatsService userStats;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
     @GetMapping("/me")
-    public ResponseEntity<UserDTO> getCurrentUser() {
-        return ResponseEntity.ok(service.getUserById(auth.getId()));
+    public ResponseEntity<UserDTO> getCurrentUser(@RequestParam(required = false) List<String> include) {
+        return ResponseEntity.ok(withIncludes(service.getUserById(auth.getId()), include));
     }
     
     @PutMapping("/me/password")
@@ -40,26 +84,81 @@ public class UserController {
         return ResponseEntity.ok().build();
     }
     
-    // @PutMapping("/me/profile-pic")
-    public ResponseEntity<UserDTO> updateProfilePic(@RequestParam String profilePicId) {
-    	// TODO
-        return null;
+    @PutMapping(value = "/me/profile-pic", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<UserDTO> updateProfilePic(@RequestParam MultipartFile file) {
+        return ResponseEntity.ok(profilePictures.upload(auth.getId(), file));
+    }
+    
+    @GetMapping("/search")
+    public ResponseEntity<List<UserSummary>> searchUsers(
+            @RequestParam String prefix,
+            @RequestParam(defaultValue = "10") int limit) {
+        if (prefix.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Prefix must not be empty");
+        }
+        return ResponseEntity.ok(usernameIndex.search(prefix, Math.max(1, Math.min(limit, 50))));
+    }
+    
+    @GetMapping(params = "ids")
+    public ResponseEntity<List<UserDTO>> getUsers(@RequestParam List<String> ids) {
+        if (ids.size() > MAX_BATCH_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_BATCH_IDS + " ids can be requested at once");
+        }
+        return cacheable(service.getUsers(ids));
     }
     
     @GetMapping("/{id}")
-    public ResponseEntity<UserDTO> getUserById(@PathVariable String id) {
-        return ResponseEntity.ok(service.getUserById(id));
+    public ResponseEntity<UserDTO> getUserById(
+            @PathVariable String id,
+            @RequestParam(required = false) List<String> include) {
+        return cacheable(withIncludes(service.getUserById(id), include));
+    }
+    
+    @GetMapping("/{id}/compatibility")
+    public ResponseEntity<Compatibility> getCompatibility(@PathVariable String id) {
+        return ResponseEntity.ok(compatibility.getCompatibility(auth.getId(), id));
     }
     
     @GetMapping("/username/{username}")
     public ResponseEntity<UserDTO> getUserByUsername(@PathVariable String username) {
-        return ResponseEntity.ok(service.getUserByUsername(username));
+        return cacheable(service.getUserByUsername(username));
     }
     
     @GetMapping
     @RequireAdmin
-    public ResponseEntity<List<UserDTO>> getAllUsers() {
-        return ResponseEntity.ok(service.getAllUsers());
+    public ResponseEntity<UserPage> getAllUsers(
+            @RequestParam(required = false) String role,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate joinedFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate joinedTo,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(service.getUsers(role, joinedFrom, joinedTo, after, Math.max(1, Math.min(limit, MAX_PAGE_SIZE))));
+    }
+    
+    // Runs on an async thread after the request thread returns, so it is not held to the request's database budget
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @RequireAdmin
+    public ResponseEntity<StreamingResponseBody> streamAllUsers(
+            @RequestParam(required = false) String role,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate joinedFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate joinedTo,
+            @RequestParam(required = false) String after) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(out -> {
+                    try {
+                        service.streamUsers(role, joinedFrom, joinedTo, after, user -> {
+                            try {
+                                out.write(objectMapper.writeValueAsBytes(user));
+                                out.write('\n');
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                });
     }
     
     @PutMapping("/{id}/role")
@@ -76,4 +175,25 @@ public class UserController {
         service.deleteUser(id);
         return ResponseEntity.ok().build();
     }
+    
+    // Spring answers If-None-Match with 304 from the ETag, so it is taken from the JSON the client actually receives
+    private <T> ResponseEntity<T> cacheable(T body) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ResponseEntity.ok()
+                .eTag(DigestUtils.md5DigestAsHex(json))
+                .cacheControl(CacheControl.maxAge(maxAge).cachePrivate())
+                .body(body);
+    }
+    
+    private UserDTO withIncludes(UserDTO user, List<String> include) {
+        if (include != null && include.contains("stats")) {
+            user.setStats(userStats.getStats(user.getId()));
+        }
+        return user;
+    }
 }
\ No newline at end of file
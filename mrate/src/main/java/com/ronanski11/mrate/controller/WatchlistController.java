@@ -4,6 +4,7 @@ import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -13,8 +14,10 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.ronanski11.mrate.model.Watchlist;
 import com.ronanski11.mrate.model.WatchlistEntry;
+import com.ronanski11.mrate.model.dto.SyncDelta;
 import com.ronanski11.mrate.security.AuthenticationService;
 import com.ronanski11.mrate.service.WatchlistService;
+import com.ronanski11.mrate.util.FieldSelection;
 
 @RestController
 @RequestMapping("/api/watchlist")
@@ -32,8 +35,14 @@ public class WatchlistController {
 	}
 	
 	@GetMapping("/full")
-	public ResponseEntity<Watchlist> getFullWatchlist() {
-		return ResponseEntity.ok(service.getFullWatchlist(auth.getId()));
+	public ResponseEntity<MappingJacksonValue> getFullWatchlist(@RequestParam(required = false) String fields) {
+		FieldSelection selection = FieldSelection.parse(fields, Watchlist.class);
+		return ResponseEntity.ok(selection.wrap(service.getFullWatchlist(auth.getId(), selection)));
+	}
+	
+	@GetMapping("/sync")
+	public ResponseEntity<SyncDelta<WatchlistEntry>> syncWatchlist(@RequestParam(required = false) String since) {
+		return ResponseEntity.ok(service.syncWatchlist(auth.getId(), since));
 	}
 	
 	@PostMapping("/{imdbId}")
@@ -0,0 +1,33 @@
+package com.ronanski11.mrate.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A cache entry to drop on every instance. Kept in a capped collection that
+ * all instances tail. Events without a cache only carry the sequence number,
+ * telling the others that the sender lost events it could not publish.
+ */
+@Document
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheInvalidation {
+
+	@Id
+	private String id;
+
+	// Instance that published the event, and its count of events so far
+	private String node;
+
+	private long seq;
+
+	private String cache;
+
+	private String key;
+
+}
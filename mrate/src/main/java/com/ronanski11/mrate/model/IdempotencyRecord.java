@@ -0,0 +1,45 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of a client operation under its idempotency key. Records expire a
+ * day after the operation was first received, which bounds how late a client
+ * may replay it.
+ */
+@Document
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyRecord {
+
+	public static final String PENDING = "PENDING";
+
+	public static final String COMPLETED = "COMPLETED";
+
+	// userId:key, so keys only need to be unique per client user
+	@Id
+	private String id;
+
+	private String state;
+
+	private Integer status;
+
+	private String message;
+
+	@Indexed(expireAfter = "1d")
+	private LocalDateTime createdAt;
+
+	public static String id(String userId, String key) {
+		return userId + ":" + key;
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Data;
+
+/**
+ * Progress of one numbered migration. The runner holding the lease is the only
+ * one allowed to advance the checkpoint; an expired lease can be taken over
+ * and the migration resumes after {@code lastId}.
+ */
+@Document
+@Data
+public class MigrationState {
+
+	public static final String RUNNING = "RUNNING";
+
+	public static final String COMPLETED = "COMPLETED";
+
+	public static final String FAILED = "FAILED";
+
+	@Id
+	private Integer version;
+
+	private String description;
+
+	private String collection;
+
+	private String status;
+
+	private Object lastId;
+
+	private long processed;
+
+	private long modified;
+
+	private long batches;
+
+	private Long estimatedTotal;
+
+	private Double lastBatchMillis;
+
+	private String owner;
+
+	private LocalDateTime leaseUntil;
+
+	private LocalDateTime startedAt;
+
+	private LocalDateTime completedAt;
+
+	private String lastError;
+
+}
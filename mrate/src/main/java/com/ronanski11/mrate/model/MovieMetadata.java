@@ -0,0 +1,39 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Data;
+
+@Document
+@Data
+public class MovieMetadata {
+
+	@Id
+	private String imdbId;
+
+	private String title;
+
+	private String year;
+
+	private String rated;
+
+	private String runtime;
+
+	private String genre;
+
+	private String director;
+
+	private String actors;
+
+	private String plot;
+
+	private String poster;
+
+	private String imdbRating;
+
+	private LocalDateTime fetchedAt;
+
+}
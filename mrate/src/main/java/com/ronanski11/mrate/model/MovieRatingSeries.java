@@ -0,0 +1,44 @@
+package com.ronanski11.mrate.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Data;
+
+/**
+ * Ratings given to a movie in one month, summed per day of the month. Ids sort
+ * by movie and then month, so a date range is a single _id range scan.
+ */
+@Document
+@Data
+public class MovieRatingSeries {
+
+	@Id
+	private String id;
+
+	private String imdbId;
+
+	// Keyed by two-digit day of month
+	private Map<String, DailyScore> days = new HashMap<>();
+
+	// History claims counted in days but not yet released, so a retried claim is not counted twice
+	private List<String> claims;
+
+	public static String id(String imdbId, String month) {
+		return imdbId + ":" + month;
+	}
+
+	@Data
+	public static class DailyScore {
+
+		private int count;
+
+		private double sum;
+
+	}
+
+}
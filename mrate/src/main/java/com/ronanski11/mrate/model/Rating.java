@@ -1,14 +1,27 @@
 package com.ronanski11.mrate.model;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.ronanski11.mrate.util.FieldSelection;
+
 import lombok.Data;
 
 @Document
 @Data
+@CompoundIndexes({
+		@CompoundIndex(name = "userId_lastUpdated", def = "{'userId': 1, 'lastUpdated': -1, '_id': -1}"),
+		@CompoundIndex(name = "userId_imdbId", def = "{'userId': 1, 'imdbId': 1}", unique = true)
+})
+@JsonFilter(FieldSelection.FILTER)
 public class Rating {
 
 	@Id
@@ -22,4 +35,32 @@ public class Rating {
 	
 	private LocalDateTime lastUpdated;
 
+	// Outbox marker: set with the rating, removed once it has been copied into the watchlists
+	@JsonIgnore
+	@Indexed(sparse = true)
+	private Boolean propagationPending;
+
+	// Failed propagations of the pending value, each doubling the wait before the next; at the
+	// limit the rating is parked as propagationFailed
+	@JsonIgnore
+	private Integer propagationAttempts;
+
+	@JsonIgnore
+	private LocalDateTime propagationRetryAt;
+
+	@JsonIgnore
+	@Indexed(sparse = true)
+	private Boolean propagationFailed;
+
+	// Changes not yet appended to the rating history, see RatingHistoryService
+	@JsonIgnore
+	private List<RatingChange> pendingChanges;
+
+	@JsonIgnore
+	private RatingHistoryClaim historyClaim;
+
+	// The value last counted in the user's stats, so propagation can apply the difference
+	@JsonIgnore
+	private Double propagatedRating;
+
 }
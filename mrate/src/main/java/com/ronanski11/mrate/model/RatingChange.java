@@ -0,0 +1,18 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RatingChange {
+
+	private Double rating;
+
+	private LocalDateTime at;
+
+}
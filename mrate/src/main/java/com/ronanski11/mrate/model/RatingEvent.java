@@ -0,0 +1,41 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.TimeSeries;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One rating as it was given, kept in a time-series collection bucketed by
+ * user. A single user's events are sparse, so buckets span hours.
+ */
+@Document("ratingEvents")
+@TimeSeries(timeField = "at", metaField = "userId", granularity = Granularity.HOURS)
+@CompoundIndex(name = "userId_at", def = "{'userId': 1, 'at': -1}")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RatingEvent {
+
+	@Id
+	@JsonIgnore
+	private String id;
+
+	private String userId;
+
+	private String imdbId;
+
+	private Double rating;
+
+	private LocalDateTime at;
+
+}
@@ -0,0 +1,27 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Changes of a rating taken out of its pending changes by the node appending
+ * them to the history. Stays on the rating until the history is written, so a
+ * failed run can be finished by the next one once the claim has expired.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RatingHistoryClaim {
+
+	// Not named id, which would be mapped to _id
+	private String key;
+
+	private LocalDateTime at;
+
+	private List<RatingChange> changes;
+
+}
@@ -9,10 +9,15 @@ import java.util.Map;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.ronanski11.mrate.util.FieldSelection;
+
 import lombok.Data;
 
 @Document
 @Data
+@JsonFilter(FieldSelection.FILTER)
 public class SharedWatchlist {
 
 	@Id
@@ -28,6 +33,19 @@ public class SharedWatchlist {
 
 	private Map<String, SharedWatchlistEntry> movies = new HashMap<>();
 
+	private Map<String, LocalDateTime> removedMovies = new HashMap<>();
+
+	private Integer movieCount;
+
+	private StorageMode storageMode;
+
+	private Integer bucketCount;
+
 	private LocalDateTime lastUpdated;
 
+	@JsonIgnore
+	public boolean isBucketed() {
+		return storageMode == StorageMode.BUCKETED;
+	}
+
 }
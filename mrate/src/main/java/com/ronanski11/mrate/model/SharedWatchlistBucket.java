@@ -0,0 +1,42 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Data;
+
+/**
+ * One slice of the entries of a bucketed shared watchlist. Entries are assigned
+ * to a bucket by hashing the imdb id, and every bucket has the same
+ * {@code movies}/{@code removedMovies} layout as an embedded watchlist.
+ */
+@Document
+@Data
+public class SharedWatchlistBucket {
+
+	@Id
+	private String id;
+
+	@Indexed
+	private String watchlistId;
+
+	private Map<String, SharedWatchlistEntry> movies = new HashMap<>();
+
+	private Map<String, LocalDateTime> removedMovies = new HashMap<>();
+
+	private LocalDateTime lastUpdated;
+
+	public static String id(String watchlistId, int bucket) {
+		return watchlistId + ":" + bucket;
+	}
+
+	public static int bucketOf(String imdbId, int bucketCount) {
+		return Math.floorMod(imdbId.hashCode(), bucketCount);
+	}
+
+}
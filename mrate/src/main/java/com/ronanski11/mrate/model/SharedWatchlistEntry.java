@@ -1,7 +1,9 @@
 package com.ronanski11.mrate.model;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import lombok.Data;
@@ -17,4 +19,16 @@ public class SharedWatchlistEntry {
 
 	private Map<String, Double> ratings = new HashMap<>();
 
+	private Integer ratingCount;
+
+	private Double averageRating;
+
+	private Double minRating;
+
+	private Double maxRating;
+
+	private List<String> unratedUserIds = new ArrayList<>();
+
+	private LocalDateTime lastModified;
+
 }
@@ -0,0 +1,11 @@
+package com.ronanski11.mrate.model;
+
+/**
+ * Where the entries of a shared watchlist are stored: embedded in the
+ * watchlist document, or spread over {@link SharedWatchlistBucket} documents.
+ */
+public enum StorageMode {
+
+	EMBEDDED, BUCKETED
+
+}
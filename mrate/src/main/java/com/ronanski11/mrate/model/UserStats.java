@@ -0,0 +1,46 @@
+package com.ronanski11.mrate.model;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Data;
+
+/**
+ * Profile statistics of a user, kept up to date with increments as ratings
+ * propagate and watchlist entries change, and periodically recomputed from
+ * the source collections by {@code UserStatsService}.
+ */
+@Document
+@Data
+public class UserStats {
+
+	@Id
+	private String userId;
+
+	private int ratingCount;
+
+	@JsonIgnore
+	private double ratingSum;
+
+	// Number of ratings per whole score, keyed by the score rounded down
+	private Map<String, Integer> distribution = new HashMap<>();
+
+	private int watchlistSize;
+
+	private int watchedCount;
+
+	private LocalDateTime lastUpdated;
+
+	private LocalDateTime lastReconciled;
+
+	public Double getAverage() {
+		return ratingCount == 0 ? null : ratingSum / ratingCount;
+	}
+
+}
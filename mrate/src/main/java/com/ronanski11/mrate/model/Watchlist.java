@@ -1,15 +1,20 @@
 package com.ronanski11.mrate.model;
 
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.ronanski11.mrate.util.FieldSelection;
+
 import lombok.Data;
 
 @Document
 @Data
+@JsonFilter(FieldSelection.FILTER)
 public class Watchlist {
 	
     @Id
@@ -18,5 +23,7 @@ public class Watchlist {
     private String userId;
     
     private Map<String, WatchlistEntry> movies = new HashMap<>();
+    
+    private Map<String, LocalDateTime> removedMovies = new HashMap<>();
 
 }
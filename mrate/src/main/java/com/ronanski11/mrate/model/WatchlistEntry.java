@@ -13,4 +13,6 @@ public class WatchlistEntry {
     
     private Double rating;
     
+    private LocalDateTime lastModified;
+    
 }
@@ -0,0 +1,31 @@
+package com.ronanski11.mrate.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchOperation {
+
+	public static final String RATE = "rate";
+
+	public static final String TOGGLE_WATCHLIST = "toggleWatchlist";
+
+	public static final String ADD_TO_SHARED_WATCHLIST = "addToSharedWatchlist";
+
+	public static final String REMOVE_FROM_SHARED_WATCHLIST = "removeFromSharedWatchlist";
+
+	// Client-generated, unique per user
+	private String key;
+
+	private String type;
+
+	private String imdbId;
+
+	private Double rating;
+
+	private String sharedWatchlistId;
+
+}
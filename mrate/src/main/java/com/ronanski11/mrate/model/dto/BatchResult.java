@@ -0,0 +1,21 @@
+package com.ronanski11.mrate.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResult {
+
+	private String key;
+
+	private int status;
+
+	private String message;
+
+	// True if the key had already been applied and this is the stored outcome
+	private boolean replayed;
+
+}
@@ -0,0 +1,29 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Movies to add to and remove from a shared watchlist in one request. The
+ * response maps every id to one of the outcome constants.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkMovieChange {
+
+	public static final String ADDED = "added";
+	public static final String ALREADY_PRESENT = "already-present";
+	public static final String REMOVED = "removed";
+	public static final String NOT_PRESENT = "not-present";
+	public static final String INVALID = "invalid";
+
+	private List<String> add = new ArrayList<>();
+
+	private List<String> remove = new ArrayList<>();
+
+}
@@ -0,0 +1,24 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeedItem {
+
+	private String ratingId;
+
+	private String userId;
+
+	private String imdbId;
+
+	private Double rating;
+
+	private LocalDateTime lastUpdated;
+
+}
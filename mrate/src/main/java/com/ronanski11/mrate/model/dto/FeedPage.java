@@ -0,0 +1,21 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeedPage {
+
+	private List<FeedItem> items;
+
+	/**
+	 * Opaque cursor for the next page, null when the feed is exhausted.
+	 */
+	private String nextCursor;
+
+}
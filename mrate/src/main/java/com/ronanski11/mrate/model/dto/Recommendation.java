@@ -0,0 +1,16 @@
+package com.ronanski11.mrate.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Recommendation {
+
+	private String imdbId;
+
+	private double score;
+
+}
@@ -0,0 +1,20 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScorePoint {
+
+	private LocalDate start;
+
+	private int count;
+
+	private Double average;
+
+}
@@ -0,0 +1,40 @@
+package com.ronanski11.mrate.model.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SharedWatchlistEvent {
+
+	public static final String MOVIE_ADDED = "movie-added";
+	public static final String MOVIE_REMOVED = "movie-removed";
+	public static final String MOVIE_RATED = "movie-rated";
+	public static final String MEMBER_ADDED = "member-added";
+	public static final String MEMBER_REMOVED = "member-removed";
+
+	@JsonIgnore
+	private long id;
+
+	@JsonIgnore
+	private String type;
+
+	private String imdbId;
+
+	private String userId;
+
+	private Double rating;
+
+	private Long at;
+
+	public static SharedWatchlistEvent of(String type, String imdbId, String userId, Double rating) {
+		return new SharedWatchlistEvent(0, type, imdbId, userId, rating, System.currentTimeMillis());
+	}
+
+}
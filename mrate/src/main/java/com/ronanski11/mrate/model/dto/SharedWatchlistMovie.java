@@ -0,0 +1,18 @@
+package com.ronanski11.mrate.model.dto;
+
+import com.ronanski11.mrate.model.SharedWatchlistEntry;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SharedWatchlistMovie {
+
+	private String imdbId;
+
+	private SharedWatchlistEntry entry;
+
+}
@@ -0,0 +1,22 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SharedWatchlistPage {
+
+	private List<SharedWatchlistMovie> content;
+
+	private long total;
+
+	private int page;
+
+	private int size;
+
+}
@@ -0,0 +1,24 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SharedWatchlistSummary {
+
+	private String id;
+
+	private String name;
+
+	private Integer memberCount;
+
+	private Integer movieCount;
+
+	private LocalDateTime lastUpdated;
+
+}
@@ -0,0 +1,31 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SlowQuery {
+
+	private LocalDateTime at;
+
+	private String command;
+
+	private String collection;
+
+	private String shape;
+
+	private double durationMillis;
+
+	private String caller;
+
+	private boolean failed;
+
+	private Map<String, Object> plan;
+
+}
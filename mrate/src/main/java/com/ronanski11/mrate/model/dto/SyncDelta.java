@@ -0,0 +1,21 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+
+@Data
+public class SyncDelta<E> {
+
+	private Map<String, E> changed = new HashMap<>();
+
+	private List<String> removed = new ArrayList<>();
+
+	private boolean full;
+
+	private String token;
+
+}
@@ -3,7 +3,9 @@ package com.ronanski11.mrate.model.dto;
 import java.time.LocalDate;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.ronanski11.mrate.model.Role;
+import com.ronanski11.mrate.model.UserStats;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -11,7 +13,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class UserDTO {
@@ -28,4 +30,7 @@ public class UserDTO {
 
 	private LocalDate joined;
 
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private UserStats stats;
+
 }
\ No newline at end of file
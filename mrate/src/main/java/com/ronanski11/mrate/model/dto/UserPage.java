@@ -0,0 +1,21 @@
+package com.ronanski11.mrate.model.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPage {
+
+	private List<UserDTO> items;
+
+	/**
+	 * Cursor for the next page, null on the last page.
+	 */
+	private String nextCursor;
+
+}
@@ -0,0 +1,18 @@
+package com.ronanski11.mrate.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserSummary {
+
+	private String id;
+
+	private String username;
+
+	private String profilePicId;
+
+}
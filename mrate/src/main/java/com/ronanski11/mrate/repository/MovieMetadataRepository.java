@@ -0,0 +1,11 @@
+package com.ronanski11.mrate.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.ronanski11.mrate.model.MovieMetadata;
+
+@Repository
+public interface MovieMetadataRepository extends MongoRepository<MovieMetadata, String>{
+
+}
@@ -2,11 +2,13 @@ package com.ronanski11.mrate.repository;
 
 import java.util.List;
 
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.dto.SharedWatchlistSummary;
 
 @Repository
 public interface SharedWatchlistRepository extends MongoRepository<SharedWatchlist, String>{
@@ -14,4 +16,13 @@ public interface SharedWatchlistRepository extends MongoRepository<SharedWatchli
 	@Query(value = "{ 'userIds': ?0 }")
 	List<SharedWatchlist> findByUserId(String id);
 
+	// movieCount is only missing on lists written before it was tracked
+	@Aggregation(pipeline = {
+			"{ '$match': { 'userIds': ?0 } }",
+			"{ '$project': { 'name': 1, 'lastUpdated': 1, "
+					+ "'memberCount': { '$size': { '$ifNull': ['$userIds', []] } }, "
+					+ "'movieCount': { '$ifNull': ['$movieCount', { '$size': { '$objectToArray': { '$ifNull': ['$movies', {}] } } }] } } }"
+	})
+	List<SharedWatchlistSummary> findSummariesByUserId(String id);
+
 }
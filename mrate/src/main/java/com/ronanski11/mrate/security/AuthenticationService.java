@@ -56,6 +56,10 @@ public class AuthenticationService {
 	}
 	
 	public String getId() {
+		// The JWT filter authenticates with the User document itself
+		if (SecurityContextHolder.getContext().getAuthentication().getPrincipal() instanceof User user) {
+			return user.getId();
+		}
 	    return userRepository.findByUsername(getUsername()).get().getId();
 	}
 
@@ -63,6 +67,16 @@ public class AuthenticationService {
 		UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
 		return userDetails.getUsername();
 	}
+
+	/**
+	 * The authenticated user as loaded for this request.
+	 */
+	public User getUser() {
+		if (SecurityContextHolder.getContext().getAuthentication().getPrincipal() instanceof User user) {
+			return user;
+		}
+		return userRepository.findByUsername(getUsername()).get();
+	}
 	
 	public boolean isAdmin() {
 		return userRepository.findByUsername(getUsername()).get().getRole().equals(Role.ADMIN);
@@ -1,6 +1,7 @@
 package com.ronanski11.mrate.security;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -11,6 +12,10 @@ import org.springframework.security.web.authentication.WebAuthenticationDetailsS
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.service.StaleFallback;
+import com.ronanski11.mrate.service.UserCache;
+
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -24,6 +29,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter{
 	private final JwtService jwtService;
 	
 	private final UserDetailsService userDetailsService;
+	
+	private final StaleFallback stale;
 
 	@Override
 	protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain)
@@ -38,7 +45,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter{
 		jwt = authHeader.substring(7);
 		username = jwtService.extractUsername(jwt);
 		if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-			UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
+			// A token for a known user is still honoured while the database is down
+			UserDetails userDetails = stale.read(UserCache.STALE_PRINCIPALS, username,
+					() -> userDetailsService.loadUserByUsername(username), JwtAuthenticationFilter::withoutCredentials);
 			if (jwtService.isTokenValid(jwt, userDetails)) {
 				UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
 				authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
@@ -48,4 +57,20 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter{
 		filterChain.doFilter(request, response);
 	}
 
+	/**
+	 * What is kept of a principal for stale answers: identity, role and the
+	 * shared watchlists it may access, but not the password hash.
+	 */
+	private static UserDetails withoutCredentials(UserDetails userDetails) {
+		if (userDetails instanceof User user) {
+			return User.builder()
+					.id(user.getId())
+					.username(user.getUsername())
+					.role(user.getRole())
+					.sharedWatchlists(user.getSharedWatchlists() == null ? null : List.copyOf(user.getSharedWatchlists()))
+					.build();
+		}
+		return null;
+	}
+
 }
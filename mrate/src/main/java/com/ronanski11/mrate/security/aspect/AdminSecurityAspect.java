@@ -17,7 +17,7 @@ public class AdminSecurityAspect {
     @Autowired
     private AuthenticationService auth;
 
-    @Around("@within(com.ronanski11.mrate.security.aspect.RequireAdmin) || @annotation(com.ronanski11.mrate.security.apesct.RequireAdmin)")
+    @Around("@within(com.ronanski11.mrate.security.RequireAdmin) || @annotation(com.ronanski11.mrate.security.RequireAdmin)")
     public Object checkAdminAccess(ProceedingJoinPoint joinPoint) throws Throwable {
         if (!auth.isAdmin()) {
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Admin access required");
@@ -0,0 +1,45 @@
+package com.ronanski11.mrate.security.aspect;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import com.mongodb.client.MongoDatabase;
+import com.ronanski11.mrate.service.MongoCircuitBreaker;
+
+/**
+ * Every MongoTemplate, repository and GridFS operation starts by asking the
+ * database factory for the database, which makes it the one place to guard
+ * the whole data layer. Operations issued while serving a request also get
+ * their own time budget, covering server selection, pool checkout and the
+ * round trip, so a slow database cannot hold Tomcat threads indefinitely.
+ * Background jobs keep the client defaults.
+ */
+@Aspect
+@Component
+public class MongoCircuitBreakerAspect {
+
+	@Autowired
+	private MongoCircuitBreaker breaker;
+
+	@Value("${mrate.mongo.request-timeout:PT2S}")
+	private Duration requestTimeout;
+
+	@Around("execution(* org.springframework.data.mongodb.MongoDatabaseFactory.getMongoDatabase(..))")
+	public Object guard(ProceedingJoinPoint joinPoint) throws Throwable {
+		breaker.acquire();
+		MongoDatabase database = (MongoDatabase) joinPoint.proceed();
+		if (RequestContextHolder.getRequestAttributes() == null) {
+			return database;
+		}
+		return database.withTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.ronanski11.mrate.security.configuration;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.ronanski11.mrate.service.MongoCommandAccounting;
+import com.ronanski11.mrate.service.MongoCommandAccounting.Scope;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter.MeterProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Accounts the Mongo commands each request issues, including the user lookups
+ * done by the security filters. Counts go to per-route histograms and, when
+ * enabled, to response headers. Requests that repeat the same command on the
+ * same collection many times are logged as likely N+1 patterns.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class DatabaseAccountingFilter extends OncePerRequestFilter {
+
+	public static final String COMMANDS_HEADER = "X-Db-Commands";
+
+	public static final String BYTES_HEADER = "X-Db-Bytes";
+
+	private final boolean header;
+
+	private final int repeatThreshold;
+
+	private final MeterProvider<DistributionSummary> commands;
+
+	private final MeterProvider<DistributionSummary> bytes;
+
+	public DatabaseAccountingFilter(MeterRegistry registry,
+			@Value("${mrate.db-accounting.header:false}") boolean header,
+			@Value("${mrate.db-accounting.repeat-threshold:10}") int repeatThreshold) {
+		this.header = header;
+		this.repeatThreshold = repeatThreshold;
+		this.commands = DistributionSummary.builder("mrate.request.db.commands")
+				.publishPercentiles(0.5, 0.99)
+				.withRegistry(registry);
+		this.bytes = DistributionSummary.builder("mrate.request.db.bytes")
+				.baseUnit("bytes")
+				.publishPercentiles(0.5, 0.99)
+				.withRegistry(registry);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		Scope scope = MongoCommandAccounting.begin();
+		try {
+			filterChain.doFilter(request, header ? new HeaderWritingResponse(response, scope) : response);
+		} finally {
+			scope.close();
+			if (header && !response.isCommitted()) {
+				writeHeaders(response, scope);
+			}
+			record(request, scope);
+		}
+	}
+
+	private void record(HttpServletRequest request, Scope scope) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+		commands.withTags("method", request.getMethod(), "uri", uri).record(scope.commands());
+		bytes.withTags("method", request.getMethod(), "uri", uri, "direction", "sent").record(scope.bytesSent());
+		bytes.withTags("method", request.getMethod(), "uri", uri, "direction", "received").record(scope.bytesReceived());
+		if (scope.mostRepeatedCount() >= repeatThreshold) {
+			log.warn("Possible N+1 in {} {}: {} issued {} times ({} commands in total)", request.getMethod(), uri,
+					scope.mostRepeated(), scope.mostRepeatedCount(), scope.commands());
+		}
+	}
+
+	private static void writeHeaders(HttpServletResponse response, Scope scope) {
+		response.setHeader(COMMANDS_HEADER, Integer.toString(scope.commands()));
+		response.setHeader(BYTES_HEADER, scope.bytesSent() + "/" + scope.bytesReceived());
+	}
+
+	/**
+	 * Adds the headers as the body is about to be written, which is the last
+	 * moment headers can still be set. Commands issued while streaming the body
+	 * are only reflected in the metrics.
+	 */
+	private static class HeaderWritingResponse extends HttpServletResponseWrapper {
+
+		private final Scope scope;
+
+		private boolean written;
+
+		HeaderWritingResponse(HttpServletResponse response, Scope scope) {
+			super(response);
+			this.scope = scope;
+		}
+
+		private void beforeCommit() {
+			if (!written && !isCommitted()) {
+				written = true;
+				writeHeaders(this, scope);
+			}
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			beforeCommit();
+			return super.getOutputStream();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			beforeCommit();
+			return super.getWriter();
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			beforeCommit();
+			super.flushBuffer();
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			beforeCommit();
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			beforeCommit();
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			beforeCommit();
+			super.sendRedirect(location);
+		}
+
+	}
+
+}
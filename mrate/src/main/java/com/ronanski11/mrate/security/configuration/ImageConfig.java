@@ -0,0 +1,33 @@
+package com.ronanski11.mrate.security.configuration;
+
+import java.nio.file.Path;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+
+import com.ronanski11.mrate.service.FileSystemImageStore;
+import com.ronanski11.mrate.service.GridFsImageStore;
+import com.ronanski11.mrate.service.ImageStore;
+
+@Configuration
+public class ImageConfig {
+
+	// Resolved at runtime for the same reason as the metadata provider, see MetadataConfig
+	@Bean
+	public ImageStore imageStore(
+			@Value("${mrate.images.store:gridfs}") String store,
+			@Value("${mrate.images.filesystem.path:data/images}") String path,
+			GridFsTemplate gridFs) {
+		switch (store) {
+		case "gridfs":
+			return new GridFsImageStore(gridFs);
+		case "filesystem":
+			return new FileSystemImageStore(Path.of(path));
+		default:
+			throw new IllegalStateException("Unknown image store: " + store);
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.ronanski11.mrate.security.configuration;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+@Configuration
+public class JacksonConfig {
+
+	// Documents carrying @JsonFilter serialize in full unless a FieldSelection overrides the filter
+	@Bean
+	public Jackson2ObjectMapperBuilderCustomizer fieldSelectionFilter() {
+		return builder -> builder.filters(new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll()));
+	}
+
+}
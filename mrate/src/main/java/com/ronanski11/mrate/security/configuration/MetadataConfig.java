@@ -0,0 +1,52 @@
+package com.ronanski11.mrate.security.configuration;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ronanski11.mrate.service.FixtureMetadataProvider;
+import com.ronanski11.mrate.service.MovieMetadataProvider;
+import com.ronanski11.mrate.service.OmdbMetadataProvider;
+
+@Configuration
+public class MetadataConfig {
+
+	// Resolved at runtime rather than through conditional beans so the choice survives AOT processing
+	@Bean
+	public MovieMetadataProvider movieMetadataProvider(
+			@Value("${mrate.metadata.provider:omdb}") String provider,
+			@Value("${mrate.metadata.omdb.url:https://www.omdbapi.com/}") String omdbUrl,
+			@Value("${mrate.metadata.omdb.api-key:}") String apiKey,
+			@Value("${mrate.metadata.omdb.concurrency:4}") int concurrency,
+			@Value("${mrate.metadata.omdb.connect-timeout:PT2S}") Duration connectTimeout,
+			@Value("${mrate.metadata.omdb.read-timeout:PT5S}") Duration readTimeout,
+			@Value("${mrate.metadata.omdb.batch-timeout:PT8S}") Duration batchTimeout,
+			@Value("${mrate.metadata.fixture:classpath:movie-metadata.json}") Resource fixture,
+			RestClient.Builder restClientBuilder,
+			ObjectMapper mapper) {
+		switch (provider) {
+		case "fixture":
+			return new FixtureMetadataProvider(fixture, mapper);
+		case "omdb":
+			SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+			requestFactory.setConnectTimeout(connectTimeout);
+			requestFactory.setReadTimeout(readTimeout);
+			return new OmdbMetadataProvider(restClientBuilder.baseUrl(omdbUrl).requestFactory(requestFactory).build(), apiKey,
+					Executors.newFixedThreadPool(concurrency, r -> {
+						Thread thread = new Thread(r, "omdb-fetch");
+						thread.setDaemon(true);
+						return thread;
+					}), batchTimeout);
+		default:
+			throw new IllegalStateException("Unknown metadata provider: " + provider);
+		}
+	}
+
+}
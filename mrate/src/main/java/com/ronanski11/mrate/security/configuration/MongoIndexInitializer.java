@@ -0,0 +1,75 @@
+package com.ronanski11.mrate.security.configuration;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.TimeSeries;
+import org.springframework.stereotype.Component;
+
+import com.ronanski11.mrate.model.IdempotencyRecord;
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.RatingEvent;
+import com.ronanski11.mrate.model.SharedWatchlistBucket;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates the indexes declared on entity classes once the application is up.
+ * Runs in the background instead of through auto-index-creation so startup
+ * does not block on, or fail without, the database.
+ */
+@Slf4j
+@Component
+public class MongoIndexInitializer {
+
+	static final List<Class<?>> INDEXED = List.of(Rating.class, SharedWatchlistBucket.class, RatingEvent.class,
+			IdempotencyRecord.class);
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void createIndexes() {
+		Thread creator = new Thread(() -> {
+			MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(
+					mongoTemplate.getConverter().getMappingContext());
+			for (Class<?> type : INDEXED) {
+				try {
+					ensureCollection(type);
+					IndexOperations indexOps = mongoTemplate.indexOps(type);
+					resolver.resolveIndexFor(type).forEach(indexOps::ensureIndex);
+				} catch (RuntimeException e) {
+					log.warn("Could not create indexes for {}: {}", type.getSimpleName(), e.getMessage());
+				}
+			}
+		}, "mongo-index-initializer");
+		creator.setDaemon(true);
+		creator.start();
+	}
+
+	/**
+	 * Creates collections that need options, such as time-series collections,
+	 * before anything is written to them. A plain insert would otherwise create
+	 * them as regular collections.
+	 */
+	public void ensureCollection(Class<?> type) {
+		if (!type.isAnnotationPresent(TimeSeries.class) || mongoTemplate.collectionExists(type)) {
+			return;
+		}
+		try {
+			mongoTemplate.createCollection(type);
+		} catch (DataAccessException e) {
+			// Created concurrently by another node or thread
+			if (!mongoTemplate.collectionExists(type)) {
+				throw e;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.ronanski11.mrate.security.configuration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mongodb.core.MongoDatabaseFactorySupport;
+import org.springframework.data.mongodb.core.MongoExceptionTranslator;
+
+import com.mongodb.MongoOperationTimeoutException;
+import com.ronanski11.mrate.service.MongoCircuitBreaker;
+import com.ronanski11.mrate.service.MongoCommandAccounting;
+import com.ronanski11.mrate.service.SlowQueryLog;
+
+@Configuration
+public class MongoMonitoringConfig {
+
+	@Bean
+	public MongoClientSettingsBuilderCustomizer commandListenerCustomizer(SlowQueryLog slowQueryLog,
+			MongoCommandAccounting accounting, MongoCircuitBreaker breaker) {
+		return builder -> builder.addCommandListener(slowQueryLog).addCommandListener(accounting)
+				.addCommandListener(breaker)
+				.applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(breaker))
+				.applyToClusterSettings(cluster -> cluster.addClusterListener(breaker));
+	}
+
+	/**
+	 * Bounds for background work; request threads get a tighter budget per
+	 * operation from MongoCircuitBreakerAspect.
+	 */
+	@Bean
+	public MongoClientSettingsBuilderCustomizer timeoutCustomizer(
+			@Value("${mrate.mongo.connect-timeout:PT2S}") Duration connectTimeout,
+			@Value("${mrate.mongo.server-selection-timeout:PT5S}") Duration serverSelectionTimeout,
+			@Value("${mrate.mongo.pool-wait-timeout:PT5S}") Duration poolWaitTimeout) {
+		return builder -> builder
+				.applyToSocketSettings(socket -> socket.connectTimeout(connectTimeout.toMillis(), TimeUnit.MILLISECONDS))
+				.applyToClusterSettings(cluster -> cluster.serverSelectionTimeout(serverSelectionTimeout.toMillis(), TimeUnit.MILLISECONDS))
+				.applyToConnectionPoolSettings(pool -> pool.maxWaitTime(poolWaitTimeout.toMillis(), TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * An operation that runs out of its budget fails with the driver's
+	 * MongoOperationTimeoutException, which Spring Data leaves uncategorized.
+	 * It is translated to a QueryTimeoutException so stale reads and the 503
+	 * handler treat it like any other timeout.
+	 */
+	@Bean
+	public static BeanPostProcessor timeoutExceptionTranslator() {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) {
+				if (bean instanceof MongoDatabaseFactorySupport<?> factory) {
+					factory.setExceptionTranslator(new MongoExceptionTranslator() {
+						@Override
+						public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+							if (ex instanceof MongoOperationTimeoutException) {
+								return new QueryTimeoutException(ex.getMessage(), ex);
+							}
+							return super.translateExceptionIfPossible(ex);
+						}
+					});
+				}
+				return bean;
+			}
+		};
+	}
+
+}
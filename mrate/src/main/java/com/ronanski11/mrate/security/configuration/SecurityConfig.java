@@ -4,6 +4,7 @@ import java.util.Arrays;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -16,6 +17,7 @@ import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import com.ronanski11.mrate.security.JwtAuthenticationFilter;
 
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 
 @Configuration
@@ -30,7 +32,13 @@ public class SecurityConfig {
 	@SuppressWarnings("removal")
 	@Bean
 	public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
-		http.csrf().disable().authorizeHttpRequests().requestMatchers("/api/auth/**").permitAll().anyRequest().authenticated()
+		http.csrf().disable().authorizeHttpRequests()
+		// SSE responses complete on an ASYNC dispatch that no longer carries the JWT
+		.dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+		.requestMatchers("/api/auth/**").permitAll()
+		// Loaded by <img> tags, which cannot send the bearer token
+		.requestMatchers(HttpMethod.GET, "/api/profile-pics/**").permitAll()
+		.anyRequest().authenticated()
 		.and()
 		.sessionManagement()
 		.sessionCreationPolicy(SessionCreationPolicy.STATELESS)
@@ -0,0 +1,27 @@
+package com.ronanski11.mrate.security.configuration;
+
+import java.lang.reflect.Method;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+
+@Configuration
+public class StartupConfig {
+
+	// With lazy initialization a bean that is never injected is never created,
+	// so its @Scheduled methods would silently not run
+	@Bean
+	static LazyInitializationExcludeFilter scheduledBeansAreEager() {
+		return (beanName, beanDefinition, beanType) -> !MethodIntrospector.selectMethods(beanType,
+				(MethodIntrospector.MetadataLookup<Boolean>) StartupConfig::isScheduled).isEmpty();
+	}
+
+	private static Boolean isScheduled(Method method) {
+		return AnnotatedElementUtils.hasAnnotation(method, Scheduled.class) ? Boolean.TRUE : null;
+	}
+
+}
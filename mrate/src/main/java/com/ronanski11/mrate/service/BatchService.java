@@ -0,0 +1,315 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.ronanski11.mrate.model.IdempotencyRecord;
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.model.dto.BatchOperation;
+import com.ronanski11.mrate.model.dto.BatchResult;
+import com.ronanski11.mrate.model.dto.BulkMovieChange;
+import com.ronanski11.mrate.repository.UserRepository;
+import com.ronanski11.mrate.util.ImdbIds;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Applies operations queued by an offline client. Every operation carries a
+ * client key; the first request to claim a key applies the operation and
+ * stores its outcome, later requests with the same key get the stored outcome
+ * back without applying anything. Operations are grouped by the document they
+ * change, so a batch costs one write for its ratings, one for the watchlist
+ * and one per shared watchlist rather than one per operation.
+ */
+@Slf4j
+@Service
+public class BatchService {
+
+	private static final int MAX_KEY_LENGTH = 128;
+
+	private static final int DUPLICATE_KEY = 11000;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	UserRepository uRepo;
+
+	@Autowired
+	RatingService ratingService;
+
+	@Autowired
+	WatchlistService watchlistService;
+
+	@Autowired
+	SharedWatchlistService sharedWatchlistService;
+
+	@Value("${mrate.batch.max-operations:500}")
+	int maxOperations;
+
+	// A claim older than this belongs to a request that died before completing it
+	@Value("${mrate.batch.claim-timeout:PT5M}")
+	Duration claimTimeout;
+
+	public List<BatchResult> execute(String username, List<BatchOperation> operations) {
+		if (operations == null || operations.isEmpty()) {
+			return List.of();
+		}
+		if (operations.size() > maxOperations) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A batch must not exceed " + maxOperations + " operations");
+		}
+		User user = uRepo.findByUsername(username)
+				.orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unknown user"));
+
+		// The first operation under a key is the one applied, repeats within the batch share its result
+		Map<String, BatchOperation> unique = new LinkedHashMap<>();
+		Map<String, BatchResult> results = new HashMap<>();
+		for (BatchOperation operation : operations) {
+			if (validate(operation) == null) {
+				unique.putIfAbsent(operation.getKey(), operation);
+			}
+		}
+
+		List<BatchOperation> claimed = claim(user.getId(), new ArrayList<>(unique.values()), results);
+		apply(user, claimed, results);
+		complete(user.getId(), claimed, results);
+
+		List<BatchResult> response = new ArrayList<>(operations.size());
+		Map<String, Integer> seen = new HashMap<>();
+		for (BatchOperation operation : operations) {
+			String invalid = validate(operation);
+			if (invalid != null) {
+				response.add(new BatchResult(operation.getKey(), HttpStatus.BAD_REQUEST.value(), invalid, false));
+				continue;
+			}
+			BatchResult result = results.get(operation.getKey());
+			boolean repeated = seen.merge(operation.getKey(), 1, Integer::sum) > 1;
+			response.add(repeated
+					? new BatchResult(result.getKey(), result.getStatus(), result.getMessage(), true)
+					: result);
+		}
+		return response;
+	}
+
+	private String validate(BatchOperation operation) {
+		if (operation.getKey() == null || operation.getKey().isBlank()) {
+			return "key is required";
+		}
+		if (operation.getKey().length() > MAX_KEY_LENGTH) {
+			return "key must not exceed " + MAX_KEY_LENGTH + " characters";
+		}
+		if (operation.getType() == null) {
+			return "type is required";
+		}
+		if (operation.getImdbId() == null || operation.getImdbId().isBlank()) {
+			return "imdbId is required";
+		}
+		if (!ImdbIds.isValid(operation.getImdbId())) {
+			return "Invalid imdbId: " + operation.getImdbId();
+		}
+		switch (operation.getType()) {
+		case BatchOperation.RATE:
+			return operation.getRating() == null ? "rating is required" : null;
+		case BatchOperation.TOGGLE_WATCHLIST:
+			return null;
+		case BatchOperation.ADD_TO_SHARED_WATCHLIST:
+		case BatchOperation.REMOVE_FROM_SHARED_WATCHLIST:
+			return operation.getSharedWatchlistId() == null ? "sharedWatchlistId is required" : null;
+		default:
+			return "Unknown type: " + operation.getType();
+		}
+	}
+
+	/**
+	 * Claims all keys with one unordered insert. Keys that already exist are
+	 * answered from their stored outcome, or reclaimed if their claim went
+	 * stale.
+	 *
+	 * @return the operations this request has to apply
+	 */
+	private List<BatchOperation> claim(String userId, List<BatchOperation> operations, Map<String, BatchResult> results) {
+		LocalDateTime now = LocalDateTime.now();
+		BulkOperations insert = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, IdempotencyRecord.class);
+		for (BatchOperation operation : operations) {
+			insert.insert(new IdempotencyRecord(IdempotencyRecord.id(userId, operation.getKey()), IdempotencyRecord.PENDING,
+					null, null, now));
+		}
+
+		List<BatchOperation> taken = new ArrayList<>();
+		try {
+			insert.execute();
+		} catch (BulkOperationException e) {
+			for (BulkWriteError error : e.getErrors()) {
+				if (error.getCode() != DUPLICATE_KEY) {
+					throw e;
+				}
+				taken.add(operations.get(error.getIndex()));
+			}
+		}
+		if (taken.isEmpty()) {
+			return operations;
+		}
+
+		Map<String, IdempotencyRecord> existing = new HashMap<>();
+		List<String> ids = taken.stream().map(operation -> IdempotencyRecord.id(userId, operation.getKey())).toList();
+		for (IdempotencyRecord record : mongoTemplate.find(new Query(Criteria.where("id").in(ids)), IdempotencyRecord.class)) {
+			existing.put(record.getId(), record);
+		}
+
+		List<BatchOperation> claimed = new ArrayList<>(operations);
+		for (BatchOperation operation : taken) {
+			IdempotencyRecord record = existing.get(IdempotencyRecord.id(userId, operation.getKey()));
+			if (record != null && IdempotencyRecord.COMPLETED.equals(record.getState())) {
+				claimed.remove(operation);
+				results.put(operation.getKey(), new BatchResult(operation.getKey(), record.getStatus(), record.getMessage(), true));
+			} else if (record == null || !reclaim(record, now)) {
+				claimed.remove(operation);
+				results.put(operation.getKey(), new BatchResult(operation.getKey(), HttpStatus.CONFLICT.value(),
+						"Operation is being applied by another request", false));
+			}
+		}
+		return claimed;
+	}
+
+	private boolean reclaim(IdempotencyRecord record, LocalDateTime now) {
+		if (record.getCreatedAt() == null || !record.getCreatedAt().isBefore(now.minus(claimTimeout))) {
+			return false;
+		}
+		Query stale = new Query(Criteria.where("id").is(record.getId())
+				.and("state").is(IdempotencyRecord.PENDING)
+				.and("createdAt").is(record.getCreatedAt()));
+		return mongoTemplate.updateFirst(stale, Update.update("createdAt", now), IdempotencyRecord.class).getModifiedCount() > 0;
+	}
+
+	private void apply(User user, List<BatchOperation> operations, Map<String, BatchResult> results) {
+		List<BatchOperation> ratings = new ArrayList<>();
+		List<BatchOperation> toggles = new ArrayList<>();
+		List<BatchOperation> shared = new ArrayList<>();
+		for (BatchOperation operation : operations) {
+			switch (operation.getType()) {
+			case BatchOperation.RATE -> ratings.add(operation);
+			case BatchOperation.TOGGLE_WATCHLIST -> toggles.add(operation);
+			default -> shared.add(operation);
+			}
+		}
+
+		if (!ratings.isEmpty()) {
+			run(ratings, results, () -> ratingService.createRatings(ratings.stream().map(operation -> {
+				Rating rating = new Rating();
+				rating.setImdbId(operation.getImdbId());
+				rating.setRating(operation.getRating());
+				return rating;
+			}).toList(), user.getId()));
+		}
+		if (!toggles.isEmpty()) {
+			run(toggles, results, () -> watchlistService.changeWatchlistEntries(
+					toggles.stream().map(BatchOperation::getImdbId).toList(), user.getId()));
+		}
+		// One bulk change per shared watchlist, split where a movie repeats so the order of its changes is kept
+		Map<String, List<BatchOperation>> byWatchlist = new LinkedHashMap<>();
+		for (BatchOperation operation : shared) {
+			byWatchlist.computeIfAbsent(operation.getSharedWatchlistId(), id -> new ArrayList<>()).add(operation);
+		}
+		byWatchlist.forEach((watchlistId, watchlistOperations) -> {
+			List<BatchOperation> change = new ArrayList<>();
+			Set<String> movies = new HashSet<>();
+			for (BatchOperation operation : watchlistOperations) {
+				if (!movies.add(operation.getImdbId())) {
+					applyShared(user, watchlistId, change, results);
+					change = new ArrayList<>();
+					movies.clear();
+					movies.add(operation.getImdbId());
+				}
+				change.add(operation);
+			}
+			applyShared(user, watchlistId, change, results);
+		});
+	}
+
+	private void applyShared(User user, String watchlistId, List<BatchOperation> operations, Map<String, BatchResult> results) {
+		Map<String, String> outcomes = new HashMap<>();
+		run(operations, results, () -> {
+			List<String> access = user.getSharedWatchlists();
+			if (access == null || !access.contains(watchlistId)) {
+				throw new ResponseStatusException(HttpStatus.FORBIDDEN, "No access to this watchlist");
+			}
+			List<String> added = new ArrayList<>();
+			List<String> removed = new ArrayList<>();
+			for (BatchOperation operation : operations) {
+				(BatchOperation.ADD_TO_SHARED_WATCHLIST.equals(operation.getType()) ? added : removed).add(operation.getImdbId());
+			}
+			outcomes.putAll(sharedWatchlistService.changeMovies(watchlistId, added, removed, user.getUsername()));
+		});
+		for (BatchOperation operation : operations) {
+			String outcome = outcomes.get(operation.getImdbId());
+			if (outcome != null) {
+				int status = BulkMovieChange.INVALID.equals(outcome) ? HttpStatus.BAD_REQUEST.value() : HttpStatus.OK.value();
+				results.put(operation.getKey(), new BatchResult(operation.getKey(), status, outcome, false));
+			}
+		}
+	}
+
+	private static void run(List<BatchOperation> operations, Map<String, BatchResult> results, Runnable write) {
+		int status = HttpStatus.OK.value();
+		String message = null;
+		try {
+			write.run();
+		} catch (ResponseStatusException e) {
+			status = e.getStatusCode().value();
+			message = e.getReason();
+		} catch (RuntimeException e) {
+			log.warn("Batch write of {} operations failed", operations.size(), e);
+			status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+			message = "Operation failed, retry with the same key";
+		}
+		for (BatchOperation operation : operations) {
+			results.put(operation.getKey(), new BatchResult(operation.getKey(), status, message, false));
+		}
+	}
+
+	/**
+	 * Stores the outcome of every applied operation in one bulk write. Server
+	 * errors release the key instead, so the client's retry applies it again.
+	 */
+	private void complete(String userId, List<BatchOperation> operations, Map<String, BatchResult> results) {
+		if (operations.isEmpty()) {
+			return;
+		}
+		BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, IdempotencyRecord.class);
+		for (BatchOperation operation : operations) {
+			BatchResult result = results.get(operation.getKey());
+			Query query = new Query(Criteria.where("id").is(IdempotencyRecord.id(userId, operation.getKey())));
+			if (result.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+				bulk.remove(query);
+			} else {
+				bulk.updateOne(query, new Update()
+						.set("state", IdempotencyRecord.COMPLETED)
+						.set("status", result.getStatus())
+						.set("message", result.getMessage()));
+			}
+		}
+		bulk.execute();
+	}
+
+}
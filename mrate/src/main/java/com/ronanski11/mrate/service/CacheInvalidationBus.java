@@ -0,0 +1,284 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import com.mongodb.CursorType;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.ronanski11.mrate.model.CacheInvalidation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Drops cache entries on every instance when one of them writes. Events go
+ * through a capped collection that each instance tails, so nothing but Mongo
+ * is needed. They are inserted in batches from a background thread and
+ * numbered per instance: a receiver that sees an instance skip a number, or
+ * finds that the collection rolled over past the last event it read, has
+ * missed invalidations and flushes all caches instead.
+ */
+@Slf4j
+@Service
+public class CacheInvalidationBus {
+
+	private static final int MAX_BATCH = 500;
+
+	private final String node = new ObjectId().toHexString();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+
+	// Last sequence number applied per sending instance, only used by the tailing thread
+	private final Map<String, Long> received = new HashMap<>();
+
+	private final BlockingQueue<Key> pending;
+
+	// Set when events were dropped or failed to insert, until the others have been told
+	private final AtomicBoolean lost = new AtomicBoolean();
+
+	private final boolean enabled;
+
+	private final DataSize cappedSize;
+
+	private final Duration await;
+
+	private final Duration retry;
+
+	private final MongoTemplate mongoTemplate;
+
+	private final Counter published;
+
+	private final Counter applied;
+
+	private final Counter flushes;
+
+	private volatile boolean running;
+
+	private volatile boolean collectionReady;
+
+	private Thread publisher;
+
+	private Thread tailer;
+
+	public CacheInvalidationBus(@Value("${mrate.invalidation.enabled:true}") boolean enabled,
+			@Value("${mrate.invalidation.queue-size:10000}") int queueSize,
+			@Value("${mrate.invalidation.capped-size:8MB}") DataSize cappedSize,
+			@Value("${mrate.invalidation.await:PT1S}") Duration await,
+			@Value("${mrate.invalidation.retry:PT5S}") Duration retry,
+			MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+		this.enabled = enabled;
+		this.pending = new LinkedBlockingQueue<>(queueSize);
+		this.cappedSize = cappedSize;
+		this.await = await;
+		this.retry = retry;
+		this.mongoTemplate = mongoTemplate;
+		this.published = Counter.builder("mrate.invalidation.published")
+				.description("Cache invalidations sent to other instances")
+				.register(meterRegistry);
+		this.applied = Counter.builder("mrate.invalidation.applied")
+				.description("Cache invalidations received from other instances")
+				.register(meterRegistry);
+		this.flushes = Counter.builder("mrate.invalidation.flushes")
+				.description("Full cache flushes after invalidations were missed")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * @param evict drops one key
+	 * @param clear drops everything, when invalidations may have been missed
+	 */
+	public void register(String cache, Consumer<String> evict, Runnable clear) {
+		handlers.put(cache, new Handler(evict, clear));
+	}
+
+	/**
+	 * Drops the key from the cache on this instance right away and on the
+	 * others once the event has been delivered.
+	 */
+	public void publish(String cache, String key) {
+		Handler handler = handlers.get(cache);
+		if (handler != null) {
+			handler.evict().accept(key);
+		}
+		if (enabled && !pending.offer(new Key(cache, key))) {
+			// The skipped number makes the others flush
+			sequence.incrementAndGet();
+			lost.set(true);
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		running = true;
+		publisher = daemon(this::publishLoop, "cache-invalidation-publisher");
+		tailer = daemon(this::tailLoop, "cache-invalidation-tailer");
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		if (publisher != null) {
+			publisher.interrupt();
+			tailer.interrupt();
+		}
+	}
+
+	private void publishLoop() {
+		while (running) {
+			Set<Key> keys = new LinkedHashSet<>();
+			try {
+				Key first = lost.get() ? pending.poll(retry.toMillis(), TimeUnit.MILLISECONDS) : pending.take();
+				if (first != null) {
+					keys.add(first);
+					pending.drainTo(keys, MAX_BATCH - 1);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			List<CacheInvalidation> events = new ArrayList<>();
+			for (Key key : keys) {
+				events.add(new CacheInvalidation(null, node, sequence.incrementAndGet(), key.cache(), key.key()));
+			}
+			if (events.isEmpty()) {
+				events.add(new CacheInvalidation(null, node, sequence.incrementAndGet(), null, null));
+			}
+			lost.set(false);
+			try {
+				ensureCollection();
+				mongoTemplate.insert(events, CacheInvalidation.class);
+				published.increment(events.size());
+			} catch (RuntimeException e) {
+				log.warn("Could not publish {} cache invalidations, other instances will flush: {}", events.size(), e.getMessage());
+				lost.set(true);
+			}
+		}
+	}
+
+	private void tailLoop() {
+		ObjectId last = null;
+		while (running) {
+			try {
+				ensureCollection();
+				MongoCollection<Document> collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(CacheInvalidation.class));
+				if (last != null && collection.countDocuments(Filters.eq("_id", last)) == 0) {
+					flush("the collection rolled over while reconnecting");
+				}
+				// Reads the whole collection again after reconnecting; events already applied are skipped by number
+				try (MongoCursor<Document> cursor = collection.find()
+						.cursorType(CursorType.TailableAwait)
+						.maxAwaitTime(await.toMillis(), TimeUnit.MILLISECONDS)
+						.iterator()) {
+					while (running) {
+						Document document = cursor.tryNext();
+						if (document != null) {
+							last = document.getObjectId("_id");
+							receive(mongoTemplate.getConverter().read(CacheInvalidation.class, document));
+						} else if (cursor.getServerCursor() == null) {
+							// Tailing an empty collection ends right away
+							break;
+						}
+					}
+				}
+			} catch (RuntimeException e) {
+				log.warn("Cache invalidation subscription interrupted: {}", e.getMessage());
+			}
+			try {
+				Thread.sleep(retry.toMillis());
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	void receive(CacheInvalidation event) {
+		if (node.equals(event.getNode())) {
+			return;
+		}
+		Long previous = received.get(event.getNode());
+		if (previous != null && event.getSeq() <= previous) {
+			return;
+		}
+		received.put(event.getNode(), event.getSeq());
+		if (previous != null && event.getSeq() != previous + 1) {
+			flush("instance " + event.getNode() + " skipped " + (event.getSeq() - previous - 1) + " events");
+		} else if (event.getCache() != null) {
+			Handler handler = handlers.get(event.getCache());
+			if (handler != null) {
+				handler.evict().accept(event.getKey());
+				applied.increment();
+			}
+		}
+	}
+
+	private void flush(String reason) {
+		log.info("Flushing all caches, {}", reason);
+		handlers.values().forEach(handler -> handler.clear().run());
+		flushes.increment();
+	}
+
+	private synchronized void ensureCollection() {
+		if (collectionReady) {
+			return;
+		}
+		// Inserting first would create a regular collection, which cannot be tailed
+		if (!mongoTemplate.collectionExists(CacheInvalidation.class)) {
+			try {
+				mongoTemplate.createCollection(CacheInvalidation.class,
+						CollectionOptions.empty().capped().size(cappedSize.toBytes()));
+			} catch (DataAccessException e) {
+				// Created concurrently by another instance
+				if (!mongoTemplate.collectionExists(CacheInvalidation.class)) {
+					throw e;
+				}
+			}
+		}
+		collectionReady = true;
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private record Key(String cache, String key) {
+	}
+
+	private record Handler(Consumer<String> evict, Runnable clear) {
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.ronanski11.mrate.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.dto.Compatibility;
+import com.ronanski11.mrate.repository.UserRepository;
+import com.ronanski11.mrate.util.LruCache;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Scores how similar two users' tastes are from the movies they both rated.
+ * Each user's ratings are cached as a sorted {@link RatingVector} and dropped
+ * from the cache, on every instance, whenever that user rates something.
+ */
+@Service
+public class CompatibilityService {
+
+	private static final String CACHE = "compatibility";
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	UserRepository userRepository;
+
+	@Autowired
+	CacheInvalidationBus invalidations;
+
+	@Value("${mrate.compatibility.cache-size:10000}")
+	int cacheSize;
+
+	private LruCache<String, RatingVector> vectors;
+
+	// Bumped on every invalidation so a load that raced a new rating is not cached
+	private final Map<String, Long> generations = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	void init() {
+		vectors = new LruCache<>(cacheSize);
+		invalidations.register(CACHE, this::evict, this::clear);
+	}
+
+	public void invalidate(String userId) {
+		invalidations.publish(CACHE, userId);
+	}
+
+	private void evict(String userId) {
+		generations.merge(userId, 1L, Long::sum);
+		vectors.remove(userId);
+	}
+
+	private void clear() {
+		generations.replaceAll((userId, generation) -> generation + 1);
+		vectors.clear();
+	}
+
+	public Compatibility getCompatibility(String userId, String otherUserId) {
+		if (!userRepository.existsById(otherUserId)) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+		}
+		Map<String, RatingVector> loaded = vectorsOf(List.of(userId, otherUserId));
+		return loaded.get(userId).compareTo(loaded.get(otherUserId), otherUserId);
+	}
+
+	public List<Compatibility> getWatchlistCompatibility(String userId, String watchlistId) {
+		Query query = new Query(Criteria.where("id").is(watchlistId));
+		query.fields().include("userIds");
+		SharedWatchlist watchlist = mongoTemplate.findOne(query, SharedWatchlist.class);
+		if (watchlist == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+		}
+
+		List<String> members = watchlist.getUserIds().stream().filter(id -> !id.equals(userId)).toList();
+		List<String> wanted = new ArrayList<>(members);
+		wanted.add(userId);
+		Map<String, RatingVector> loaded = vectorsOf(wanted);
+
+		RatingVector mine = loaded.get(userId);
+		return members.stream().map(member -> mine.compareTo(loaded.get(member), member)).toList();
+	}
+
+	/**
+	 * Returns the vectors of the given users, loading every cache miss with a
+	 * single projected query.
+	 */
+	private Map<String, RatingVector> vectorsOf(List<String> userIds) {
+		Map<String, RatingVector> result = new HashMap<>();
+		Map<String, Long> missing = new HashMap<>();
+		for (String userId : userIds) {
+			RatingVector cached = vectors.get(userId);
+			if (cached != null) {
+				result.put(userId, cached);
+			} else {
+				missing.put(userId, generations.getOrDefault(userId, 0L));
+			}
+		}
+		if (missing.isEmpty()) {
+			return result;
+		}
+
+		Query query = new Query(Criteria.where("userId").in(missing.keySet()));
+		query.fields().include("userId", "imdbId", "rating").exclude("id");
+		Map<String, List<Rating>> ratings = new HashMap<>();
+		for (Rating rating : mongoTemplate.find(query, Rating.class)) {
+			ratings.computeIfAbsent(rating.getUserId(), id -> new ArrayList<>()).add(rating);
+		}
+
+		missing.forEach((userId, generation) -> {
+			List<Rating> userRatings = ratings.get(userId);
+			RatingVector vector = userRatings == null ? RatingVector.EMPTY : RatingVector.of(userRatings);
+			if (generations.getOrDefault(userId, 0L).equals(generation)) {
+				vectors.put(userId, vector);
+			}
+			result.put(userId, vector);
+		});
+		return result;
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.ronanski11.mrate.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Thrown instead of calling Mongo while the circuit breaker is open.
+ */
+public class DatabaseUnavailableException extends ResponseStatusException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DatabaseUnavailableException() {
+		super(HttpStatus.SERVICE_UNAVAILABLE, "Database temporarily unavailable");
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ronanski11.mrate.model.dto.SyncDelta;
+
+/**
+ * Computes per-entry deltas of documents holding a {@code movies} map and a
+ * {@code removedMovies} tombstone map. When the match selects several documents,
+ * such as the buckets of one watchlist, their deltas are merged. Sync tokens are server timestamps; each
+ * token is moved back by a small overlap so that writes racing with the read
+ * are sent again rather than lost. Clients apply deltas idempotently.
+ */
+@Service
+public class DeltaSyncService {
+
+	public static final Duration TOMBSTONE_RETENTION = Duration.ofDays(30);
+
+	private static final Duration TOKEN_OVERLAP = Duration.ofSeconds(5);
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	public <E> SyncDelta<E> sync(Criteria match, Class<?> documentType, Class<E> entryType, String since) {
+		LocalDateTime readStart = LocalDateTime.now();
+		LocalDateTime sinceTime = parseToken(since);
+		boolean full = sinceTime == null || sinceTime.isBefore(readStart.minus(TOMBSTONE_RETENTION));
+
+		Date from = full ? new Date(0) : toDate(sinceTime);
+		Document project = new Document("changed", changedSince("$movies", "$$this.v.lastModified", from, full))
+				.append("removed", changedSince("$removedMovies", "$$this.v", from, full));
+
+		List<Document> results = mongoTemplate.aggregate(
+				Aggregation.newAggregation(Aggregation.match(match), Aggregation.stage(new Document("$project", project))),
+				documentType, Document.class).getMappedResults();
+		if (results.isEmpty()) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+		}
+
+		SyncDelta<E> delta = new SyncDelta<>();
+		delta.setFull(full);
+		delta.setToken(toToken(readStart.minus(TOKEN_OVERLAP)));
+		for (Document result : results) {
+			for (Document entry : result.getList("changed", Document.class, List.of())) {
+				delta.getChanged().put(entry.getString("k"),
+						mongoTemplate.getConverter().read(entryType, entry.get("v", Document.class)));
+			}
+			if (!full) {
+				for (Document tombstone : result.getList("removed", Document.class, List.of())) {
+					delta.getRemoved().add(tombstone.getString("k"));
+				}
+			}
+		}
+		return delta;
+	}
+
+	public static void pruneTombstones(Map<String, LocalDateTime> removedMovies, LocalDateTime now) {
+		LocalDateTime horizon = now.minus(TOMBSTONE_RETENTION);
+		removedMovies.values().removeIf(removedAt -> removedAt.isBefore(horizon));
+	}
+
+	private static Document changedSince(String mapField, String timestampField, Date from, boolean full) {
+		Document entries = new Document("$objectToArray", new Document("$ifNull", List.of(mapField, new Document())));
+		if (full) {
+			return entries;
+		}
+		return new Document("$filter", new Document("input", entries)
+				.append("cond", new Document("$gte", List.of(timestampField, from))));
+	}
+
+	private static LocalDateTime parseToken(String token) {
+		if (token == null || token.isBlank()) {
+			return null;
+		}
+		try {
+			return LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(token)), ZoneId.systemDefault());
+		} catch (NumberFormatException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid sync token: " + token);
+		}
+	}
+
+	private static String toToken(LocalDateTime time) {
+		return Long.toString(toDate(time).getTime());
+	}
+
+	private static Date toDate(LocalDateTime time) {
+		return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.ronanski11.mrate.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.dto.FeedItem;
+import com.ronanski11.mrate.model.dto.FeedPage;
+import com.ronanski11.mrate.util.LruCache;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Builds a time-ordered feed of the ratings made by everyone the caller shares
+ * a watchlist with. Each member's ratings are read newest first through the
+ * (userId, lastUpdated) index in small chunks and merged with a heap, so a page
+ * costs roughly one chunk per member plus the page itself, independent of how
+ * much history the members have.
+ */
+@Service
+public class FeedService {
+
+	private static final Comparator<Rating> NEWEST_FIRST = Comparator
+			.comparing(Rating::getLastUpdated, Comparator.reverseOrder())
+			.thenComparing(Rating::getId, Comparator.reverseOrder());
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Value("${mrate.feed.cache-ttl:PT30S}")
+	Duration cacheTtl;
+
+	@Value("${mrate.feed.cache-size:10000}")
+	int cacheSize;
+
+	private LruCache<String, FeedPage> pages;
+
+	@PostConstruct
+	void init() {
+		pages = new LruCache<>(cacheSize, cacheTtl);
+	}
+
+	public FeedPage getFeed(String userId, String cursor, int size) {
+		String cacheKey = userId + '|' + (cursor == null ? "" : cursor) + '|' + size;
+		FeedPage cached = pages.get(cacheKey);
+		if (cached != null) {
+			return cached;
+		}
+
+		Rating after = decodeCursor(cursor);
+		Set<String> members = coMembers(userId);
+		int firstChunk = Math.max(4, size / Math.max(1, members.size()) + 1);
+
+		PriorityQueue<MemberStream> heads = new PriorityQueue<>(
+				Comparator.comparing((MemberStream stream) -> stream.buffer.peekFirst(), NEWEST_FIRST));
+		for (String member : members) {
+			MemberStream stream = new MemberStream(member);
+			fill(stream, after, firstChunk);
+			if (!stream.buffer.isEmpty()) {
+				heads.add(stream);
+			}
+		}
+
+		List<FeedItem> items = new ArrayList<>(size);
+		Rating last = null;
+		while (items.size() < size && !heads.isEmpty()) {
+			MemberStream stream = heads.poll();
+			last = stream.buffer.pollFirst();
+			items.add(new FeedItem(last.getId(), last.getUserId(), last.getImdbId(), last.getRating(), last.getLastUpdated()));
+			if (stream.buffer.isEmpty() && !stream.exhausted) {
+				fill(stream, last, size - items.size() + 1);
+			}
+			if (!stream.buffer.isEmpty()) {
+				heads.add(stream);
+			}
+		}
+
+		FeedPage page = new FeedPage(items, heads.isEmpty() ? null : encodeCursor(last));
+		pages.put(cacheKey, page);
+		return page;
+	}
+
+	private Set<String> coMembers(String userId) {
+		Query query = new Query(Criteria.where("userIds").is(userId));
+		query.fields().include("userIds");
+		Set<String> members = new TreeSet<>();
+		for (SharedWatchlist watchlist : mongoTemplate.find(query, SharedWatchlist.class)) {
+			members.addAll(watchlist.getUserIds());
+		}
+		members.remove(userId);
+		return members;
+	}
+
+	private void fill(MemberStream stream, Rating after, int limit) {
+		Criteria criteria = Criteria.where("userId").is(stream.userId);
+		if (after == null) {
+			criteria.and("lastUpdated").lte(LocalDateTime.now().plusDays(1));
+		} else {
+			criteria.orOperator(
+					Criteria.where("lastUpdated").lt(after.getLastUpdated()),
+					Criteria.where("lastUpdated").is(after.getLastUpdated()).and("_id").lt(new ObjectId(after.getId())));
+		}
+		Query query = new Query(criteria)
+				.with(Sort.by(Direction.DESC, "lastUpdated", "_id"))
+				.limit(limit);
+		query.fields().include("userId", "imdbId", "rating", "lastUpdated");
+		List<Rating> chunk = mongoTemplate.find(query, Rating.class);
+		stream.buffer.addAll(chunk);
+		stream.exhausted = chunk.size() < limit;
+	}
+
+	private static String encodeCursor(Rating last) {
+		long millis = last.getLastUpdated().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((millis + ":" + last.getId()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Rating decodeCursor(String cursor) {
+		if (cursor == null || cursor.isBlank()) {
+			return null;
+		}
+		try {
+			String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 2);
+			if (parts.length != 2 || !ObjectId.isValid(parts[1])) {
+				throw new IllegalArgumentException(cursor);
+			}
+			Rating after = new Rating();
+			after.setId(parts[1]);
+			after.setLastUpdated(LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(parts[0])), ZoneId.systemDefault()));
+			return after;
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+		}
+	}
+
+	private static class MemberStream {
+
+		final String userId;
+
+		final ArrayDeque<Rating> buffer = new ArrayDeque<>();
+
+		boolean exhausted;
+
+		MemberStream(String userId) {
+			this.userId = userId;
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.ronanski11.mrate.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Keeps images as files below a root directory, spread over subdirectories by
+ * key prefix. Files are written to a temporary name and moved into place, so
+ * readers never see a partial image.
+ */
+public class FileSystemImageStore implements ImageStore {
+
+	private final Path root;
+
+	public FileSystemImageStore(Path root) {
+		this.root = root.toAbsolutePath().normalize();
+	}
+
+	@Override
+	public void store(String key, InputStream content, String contentType) throws IOException {
+		Path target = resolve(key);
+		Files.createDirectories(target.getParent());
+		Path temp = Files.createTempFile(target.getParent(), ".upload-", null);
+		try {
+			Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	@Override
+	public StoredImage open(String key) {
+		Path file = resolve(key);
+		try {
+			return new StoredImage(key, new FileSystemResource(file), Files.size(file), file);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void delete(String key) {
+		try {
+			Files.deleteIfExists(resolve(key));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Path resolve(String key) {
+		Path file = root.resolve(key.substring(0, Math.min(2, key.length()))).resolve(key).normalize();
+		if (!file.startsWith(root)) {
+			throw new IllegalArgumentException("Invalid image key: " + key);
+		}
+		return file;
+	}
+
+}
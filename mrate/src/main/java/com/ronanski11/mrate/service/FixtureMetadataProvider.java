@@ -0,0 +1,61 @@
+package com.ronanski11.mrate.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.core.io.Resource;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ronanski11.mrate.model.MovieMetadata;
+
+/**
+ * Serves metadata from a JSON file mapping imdbIds to metadata objects. Meant
+ * for tests and offline development. Every fetch returns new instances, so
+ * callers may stamp and cache them without changing the fixtures.
+ */
+public class FixtureMetadataProvider implements MovieMetadataProvider {
+
+	private final Map<String, JsonNode> fixtures;
+
+	private final ObjectMapper mapper;
+
+	public FixtureMetadataProvider(Resource resource, ObjectMapper mapper) {
+		this.mapper = mapper;
+		try (InputStream in = resource.getInputStream()) {
+			this.fixtures = mapper.readValue(in, new TypeReference<Map<String, JsonNode>>() {
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read metadata fixtures from " + resource, e);
+		}
+		// Fails at startup rather than on the first lookup
+		fixtures.keySet().forEach(this::read);
+	}
+
+	@Override
+	public Map<String, MovieMetadata> fetch(Collection<String> imdbIds) {
+		Map<String, MovieMetadata> result = new HashMap<>();
+		for (String id : imdbIds) {
+			if (fixtures.containsKey(id)) {
+				result.put(id, read(id));
+			}
+		}
+		return result;
+	}
+
+	private MovieMetadata read(String imdbId) {
+		try {
+			MovieMetadata metadata = mapper.treeToValue(fixtures.get(imdbId), MovieMetadata.class);
+			metadata.setImdbId(imdbId);
+			return metadata;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Invalid metadata fixture for " + imdbId, e);
+		}
+	}
+
+}
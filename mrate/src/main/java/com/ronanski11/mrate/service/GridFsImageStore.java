@@ -0,0 +1,43 @@
+package com.ronanski11.mrate.service;
+
+import static org.springframework.data.mongodb.core.query.Query.query;
+import static org.springframework.data.mongodb.gridfs.GridFsCriteria.whereFilename;
+
+import java.io.InputStream;
+
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+
+/**
+ * Keeps images in GridFS, using the key as file name. The driver streams
+ * uploads in chunks, so nothing is buffered beyond a single chunk.
+ */
+public class GridFsImageStore implements ImageStore {
+
+	private final GridFsTemplate gridFs;
+
+	public GridFsImageStore(GridFsTemplate gridFs) {
+		this.gridFs = gridFs;
+	}
+
+	@Override
+	public void store(String key, InputStream content, String contentType) {
+		gridFs.store(content, key, contentType);
+	}
+
+	@Override
+	public StoredImage open(String key) {
+		GridFSFile file = gridFs.findOne(query(whereFilename().is(key)));
+		if (file == null) {
+			return null;
+		}
+		return new StoredImage(key, gridFs.getResource(file), file.getLength(), null);
+	}
+
+	@Override
+	public void delete(String key) {
+		gridFs.delete(query(whereFilename().is(key)));
+	}
+
+}
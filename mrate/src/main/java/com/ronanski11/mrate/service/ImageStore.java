@@ -0,0 +1,32 @@
+package com.ronanski11.mrate.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Blob storage for uploaded images. Objects are written once under a key and
+ * never modified, so a key can be cached by clients forever.
+ */
+public interface ImageStore {
+
+	void store(String key, InputStream content, String contentType) throws IOException;
+
+	/**
+	 * Returns the stored object, or {@code null} if there is none under the key.
+	 */
+	StoredImage open(String key);
+
+	void delete(String key);
+
+	/**
+	 * @param file the backing file when the object lives on the local
+	 *             filesystem, so it can be sent without copying through the JVM;
+	 *             {@code null} otherwise
+	 */
+	record StoredImage(String key, Resource resource, long length, Path file) {
+	}
+
+}
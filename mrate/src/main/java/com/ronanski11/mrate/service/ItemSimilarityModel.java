@@ -0,0 +1,653 @@
+package com.ronanski11.mrate.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.dto.Recommendation;
+
+/**
+ * Immutable item-item model over mean-centred ratings (adjusted cosine). Users
+ * and items are interned to dense int indexes and ratings kept as primitive
+ * rows per user and columns per item. Each item stores its top-K neighbours.
+ * Incremental updates copy only the rows they touch, so readers never see a
+ * partially updated model.
+ */
+class ItemSimilarityModel {
+
+	private static final int MAGIC = 0x4d524543;
+
+	private static final int VERSION = 1;
+
+	// Damps similarities backed by few co-raters
+	private static final float SHRINKAGE = 10f;
+
+	final long builtAt;
+
+	final int neighbourCount;
+
+	final int minCoRaters;
+
+	final String[] userIds;
+	final Map<String, Integer> userIndex;
+	final int[][] userItems;
+	final float[][] userRatings;
+	final float[] userMeans;
+
+	final String[] itemIds;
+	final Map<String, Integer> itemIndex;
+	final int[][] itemUsers;
+	final float[][] itemRatings;
+	final float[] itemNorms;
+
+	final int[][] neighbours;
+	final float[][] similarities;
+
+	private ItemSimilarityModel(long builtAt, int neighbourCount, int minCoRaters, String[] userIds,
+			Map<String, Integer> userIndex, int[][] userItems, float[][] userRatings, float[] userMeans,
+			String[] itemIds, Map<String, Integer> itemIndex, int[][] itemUsers, float[][] itemRatings,
+			float[] itemNorms, int[][] neighbours, float[][] similarities) {
+		this.builtAt = builtAt;
+		this.neighbourCount = neighbourCount;
+		this.minCoRaters = minCoRaters;
+		this.userIds = userIds;
+		this.userIndex = userIndex;
+		this.userItems = userItems;
+		this.userRatings = userRatings;
+		this.userMeans = userMeans;
+		this.itemIds = itemIds;
+		this.itemIndex = itemIndex;
+		this.itemUsers = itemUsers;
+		this.itemRatings = itemRatings;
+		this.itemNorms = itemNorms;
+		this.neighbours = neighbours;
+		this.similarities = similarities;
+	}
+
+	static ItemSimilarityModel build(Iterator<Rating> ratings, int neighbourCount, int minCoRaters, ForkJoinPool pool) {
+		Map<String, Integer> userIndex = new HashMap<>();
+		Map<String, Integer> itemIndex = new HashMap<>();
+		List<String> users = new ArrayList<>();
+		List<String> items = new ArrayList<>();
+		List<Row> rows = new ArrayList<>();
+
+		while (ratings.hasNext()) {
+			Rating rating = ratings.next();
+			if (rating.getUserId() == null || rating.getImdbId() == null || rating.getRating() == null) {
+				continue;
+			}
+			int user = userIndex.computeIfAbsent(rating.getUserId(), id -> {
+				users.add(id);
+				rows.add(new Row());
+				return users.size() - 1;
+			});
+			int item = itemIndex.computeIfAbsent(rating.getImdbId(), id -> {
+				items.add(id);
+				return items.size() - 1;
+			});
+			rows.get(user).add(item, rating.getRating().floatValue());
+		}
+
+		int[][] userItems = new int[rows.size()][];
+		float[][] userRatings = new float[rows.size()][];
+		for (int u = 0; u < rows.size(); u++) {
+			userItems[u] = rows.get(u).items();
+			userRatings[u] = rows.get(u).values();
+		}
+
+		return derive(System.currentTimeMillis(), neighbourCount, minCoRaters, users.toArray(new String[0]), userIndex,
+				userItems, userRatings, items.toArray(new String[0]), itemIndex, pool);
+	}
+
+	/**
+	 * Folds new or changed ratings into a copy of this model. Only neighbour rows
+	 * of the rated items are recomputed; the items they point to are patched in
+	 * place. Everything else catches up on the next full rebuild.
+	 */
+	ItemSimilarityModel withRatings(Map<String, Map<String, Float>> updates, ForkJoinPool pool) {
+		Map<String, Integer> newUserIndex = new HashMap<>(userIndex);
+		Map<String, Integer> newItemIndex = new HashMap<>(itemIndex);
+		List<String> addedUsers = new ArrayList<>();
+		List<String> addedItems = new ArrayList<>();
+		for (Map.Entry<String, Map<String, Float>> update : updates.entrySet()) {
+			newUserIndex.computeIfAbsent(update.getKey(), id -> {
+				addedUsers.add(id);
+				return userIds.length + addedUsers.size() - 1;
+			});
+			for (String imdbId : update.getValue().keySet()) {
+				newItemIndex.computeIfAbsent(imdbId, id -> {
+					addedItems.add(id);
+					return itemIds.length + addedItems.size() - 1;
+				});
+			}
+		}
+
+		int userTotal = userIds.length + addedUsers.size();
+		int itemTotal = itemIds.length + addedItems.size();
+		String[] newUserIds = Arrays.copyOf(userIds, userTotal);
+		String[] newItemIds = Arrays.copyOf(itemIds, itemTotal);
+		for (int i = 0; i < addedUsers.size(); i++) {
+			newUserIds[userIds.length + i] = addedUsers.get(i);
+		}
+		for (int i = 0; i < addedItems.size(); i++) {
+			newItemIds[itemIds.length + i] = addedItems.get(i);
+		}
+
+		int[][] newUserItems = Arrays.copyOf(userItems, userTotal);
+		float[][] newUserRatings = Arrays.copyOf(userRatings, userTotal);
+		float[] newUserMeans = Arrays.copyOf(userMeans, userTotal);
+		int[][] newItemUsers = Arrays.copyOf(itemUsers, itemTotal);
+		float[][] newItemRatings = Arrays.copyOf(itemRatings, itemTotal);
+		float[] newItemNorms = Arrays.copyOf(itemNorms, itemTotal);
+		int[][] newNeighbours = Arrays.copyOf(neighbours, itemTotal);
+		float[][] newSimilarities = Arrays.copyOf(similarities, itemTotal);
+		for (int u = userIds.length; u < userTotal; u++) {
+			newUserItems[u] = new int[0];
+			newUserRatings[u] = new float[0];
+		}
+		for (int i = itemIds.length; i < itemTotal; i++) {
+			newItemUsers[i] = new int[0];
+			newItemRatings[i] = new float[0];
+			newNeighbours[i] = new int[0];
+			newSimilarities[i] = new float[0];
+		}
+
+		Map<Integer, Map<Integer, Float>> columnUpdates = new HashMap<>();
+		for (Map.Entry<String, Map<String, Float>> update : updates.entrySet()) {
+			int u = newUserIndex.get(update.getKey());
+			Map<Integer, Float> merged = new LinkedHashMap<>();
+			for (int p = 0; p < newUserItems[u].length; p++) {
+				merged.put(newUserItems[u][p], newUserRatings[u][p]);
+			}
+			for (Map.Entry<String, Float> rating : update.getValue().entrySet()) {
+				int item = newItemIndex.get(rating.getKey());
+				merged.put(item, rating.getValue());
+				columnUpdates.computeIfAbsent(item, i -> new HashMap<>()).put(u, rating.getValue());
+			}
+			Row row = new Row();
+			merged.forEach(row::add);
+			newUserItems[u] = row.items();
+			newUserRatings[u] = row.values();
+			newUserMeans[u] = mean(newUserRatings[u]);
+		}
+
+		for (Map.Entry<Integer, Map<Integer, Float>> column : columnUpdates.entrySet()) {
+			int item = column.getKey();
+			Map<Integer, Float> merged = new LinkedHashMap<>();
+			for (int p = 0; p < newItemUsers[item].length; p++) {
+				merged.put(newItemUsers[item][p], newItemRatings[item][p]);
+			}
+			merged.putAll(column.getValue());
+			Row row = new Row();
+			merged.forEach(row::add);
+			newItemUsers[item] = row.items();
+			newItemRatings[item] = row.values();
+			newItemNorms[item] = norm(newItemUsers[item], newItemRatings[item], newUserMeans);
+		}
+
+		int[] dirty = columnUpdates.keySet().stream().mapToInt(Integer::intValue).toArray();
+		Similarity similarity = new Similarity(newUserItems, newUserRatings, newUserMeans, newItemUsers, newItemRatings,
+				newItemNorms, neighbourCount, minCoRaters);
+		int[][] dirtyNeighbours = new int[dirty.length][];
+		float[][] dirtySimilarities = new float[dirty.length][];
+		ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(itemTotal));
+		pool.submit(() -> IntStream.range(0, dirty.length).parallel().forEach(d -> {
+			similarity.row(dirty[d], scratch.get(), dirtyNeighbours, dirtySimilarities, d);
+		})).join();
+
+		for (int d = 0; d < dirty.length; d++) {
+			int item = dirty[d];
+			newNeighbours[item] = dirtyNeighbours[d];
+			newSimilarities[item] = dirtySimilarities[d];
+			for (int n = 0; n < dirtyNeighbours[d].length; n++) {
+				patchNeighbour(newNeighbours, newSimilarities, dirtyNeighbours[d][n], item, dirtySimilarities[d][n]);
+			}
+		}
+
+		return new ItemSimilarityModel(builtAt, neighbourCount, minCoRaters, newUserIds, newUserIndex, newUserItems,
+				newUserRatings, newUserMeans, newItemIds, newItemIndex, newItemUsers, newItemRatings, newItemNorms,
+				newNeighbours, newSimilarities);
+	}
+
+	List<Recommendation> recommend(Map<String, Float> ratings, Set<String> exclude, int limit) {
+		if (ratings.isEmpty()) {
+			return List.of();
+		}
+		float mean = 0;
+		for (float rating : ratings.values()) {
+			mean += rating;
+		}
+		mean /= ratings.size();
+
+		Map<Integer, double[]> scores = new HashMap<>();
+		for (Map.Entry<String, Float> rating : ratings.entrySet()) {
+			Integer item = itemIndex.get(rating.getKey());
+			if (item == null) {
+				continue;
+			}
+			float centred = rating.getValue() - mean;
+			for (int n = 0; n < neighbours[item].length; n++) {
+				double[] score = scores.computeIfAbsent(neighbours[item][n], j -> new double[2]);
+				score[0] += similarities[item][n] * centred;
+				score[1] += similarities[item][n];
+			}
+		}
+
+		List<Recommendation> result = new ArrayList<>();
+		for (Map.Entry<Integer, double[]> score : scores.entrySet()) {
+			String imdbId = itemIds[score.getKey()];
+			if (!exclude.contains(imdbId)) {
+				double[] s = score.getValue();
+				result.add(new Recommendation(imdbId, mean + s[0] / (s[1] + 1.0)));
+			}
+		}
+		result.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+		return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+	}
+
+	Map<String, Float> ratingsOf(String userId) {
+		Integer u = userIndex.get(userId);
+		Map<String, Float> ratings = new HashMap<>();
+		if (u != null) {
+			for (int p = 0; p < userItems[u].length; p++) {
+				ratings.put(itemIds[userItems[u][p]], userRatings[u][p]);
+			}
+		}
+		return ratings;
+	}
+
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(builtAt);
+		out.writeInt(neighbourCount);
+		out.writeInt(minCoRaters);
+		out.writeInt(itemIds.length);
+		for (int i = 0; i < itemIds.length; i++) {
+			out.writeUTF(itemIds[i]);
+			out.writeInt(neighbours[i].length);
+			for (int n = 0; n < neighbours[i].length; n++) {
+				out.writeInt(neighbours[i][n]);
+				out.writeFloat(similarities[i][n]);
+			}
+		}
+		out.writeInt(userIds.length);
+		for (int u = 0; u < userIds.length; u++) {
+			out.writeUTF(userIds[u]);
+			out.writeInt(userItems[u].length);
+			for (int p = 0; p < userItems[u].length; p++) {
+				out.writeInt(userItems[u][p]);
+				out.writeFloat(userRatings[u][p]);
+			}
+		}
+	}
+
+	static ItemSimilarityModel readFrom(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Not a recommendation snapshot");
+		}
+		long builtAt = in.readLong();
+		int neighbourCount = in.readInt();
+		int minCoRaters = in.readInt();
+
+		String[] itemIds = new String[in.readInt()];
+		Map<String, Integer> itemIndex = new HashMap<>();
+		int[][] neighbours = new int[itemIds.length][];
+		float[][] similarities = new float[itemIds.length][];
+		for (int i = 0; i < itemIds.length; i++) {
+			itemIds[i] = in.readUTF();
+			itemIndex.put(itemIds[i], i);
+			neighbours[i] = new int[in.readInt()];
+			similarities[i] = new float[neighbours[i].length];
+			for (int n = 0; n < neighbours[i].length; n++) {
+				neighbours[i][n] = in.readInt();
+				similarities[i][n] = in.readFloat();
+			}
+		}
+
+		String[] userIds = new String[in.readInt()];
+		Map<String, Integer> userIndex = new HashMap<>();
+		int[][] userItems = new int[userIds.length][];
+		float[][] userRatings = new float[userIds.length][];
+		for (int u = 0; u < userIds.length; u++) {
+			userIds[u] = in.readUTF();
+			userIndex.put(userIds[u], u);
+			userItems[u] = new int[in.readInt()];
+			userRatings[u] = new float[userItems[u].length];
+			for (int p = 0; p < userItems[u].length; p++) {
+				userItems[u][p] = in.readInt();
+				userRatings[u][p] = in.readFloat();
+			}
+		}
+
+		ItemSimilarityModel derived = derive(builtAt, neighbourCount, minCoRaters, userIds, userIndex, userItems,
+				userRatings, itemIds, itemIndex, null);
+		return new ItemSimilarityModel(builtAt, neighbourCount, minCoRaters, userIds, userIndex, userItems,
+				userRatings, derived.userMeans, itemIds, itemIndex, derived.itemUsers, derived.itemRatings,
+				derived.itemNorms, neighbours, similarities);
+	}
+
+	int size() {
+		return itemIds.length;
+	}
+
+	/**
+	 * Derives means, item columns and norms from user rows. Neighbour rows are
+	 * computed in parallel on the given pool, or left empty when it is null.
+	 */
+	private static ItemSimilarityModel derive(long builtAt, int neighbourCount, int minCoRaters, String[] userIds,
+			Map<String, Integer> userIndex, int[][] userItems, float[][] userRatings, String[] itemIds,
+			Map<String, Integer> itemIndex, ForkJoinPool pool) {
+		int itemTotal = itemIds.length;
+		float[] userMeans = new float[userIds.length];
+		int[] degree = new int[itemTotal];
+		for (int u = 0; u < userIds.length; u++) {
+			userMeans[u] = mean(userRatings[u]);
+			for (int item : userItems[u]) {
+				degree[item]++;
+			}
+		}
+
+		int[][] itemUsers = new int[itemTotal][];
+		float[][] itemRatings = new float[itemTotal][];
+		for (int i = 0; i < itemTotal; i++) {
+			itemUsers[i] = new int[degree[i]];
+			itemRatings[i] = new float[degree[i]];
+		}
+		int[] fill = new int[itemTotal];
+		for (int u = 0; u < userIds.length; u++) {
+			for (int p = 0; p < userItems[u].length; p++) {
+				int item = userItems[u][p];
+				itemUsers[item][fill[item]] = u;
+				itemRatings[item][fill[item]++] = userRatings[u][p];
+			}
+		}
+
+		float[] itemNorms = new float[itemTotal];
+		for (int i = 0; i < itemTotal; i++) {
+			itemNorms[i] = norm(itemUsers[i], itemRatings[i], userMeans);
+		}
+
+		int[][] neighbours = new int[itemTotal][];
+		float[][] similarities = new float[itemTotal][];
+		if (pool != null) {
+			Similarity similarity = new Similarity(userItems, userRatings, userMeans, itemUsers, itemRatings,
+					itemNorms, neighbourCount, minCoRaters);
+			ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(itemTotal));
+			pool.submit(() -> IntStream.range(0, itemTotal).parallel()
+					.forEach(i -> similarity.row(i, scratch.get(), neighbours, similarities, i))).join();
+		}
+
+		return new ItemSimilarityModel(builtAt, neighbourCount, minCoRaters, userIds, userIndex, userItems,
+				userRatings, userMeans, itemIds, itemIndex, itemUsers, itemRatings, itemNorms, neighbours,
+				similarities);
+	}
+
+	private void patchNeighbour(int[][] neighbours, float[][] similarities, int item, int neighbour, float similarity) {
+		int[] row = neighbours[item];
+		float[] sims = similarities[item];
+		int existing = -1;
+		int weakest = -1;
+		for (int n = 0; n < row.length; n++) {
+			if (row[n] == neighbour) {
+				existing = n;
+			}
+			if (weakest < 0 || sims[n] < sims[weakest]) {
+				weakest = n;
+			}
+		}
+		if (existing >= 0) {
+			sims = sims.clone();
+			sims[existing] = similarity;
+			similarities[item] = sims;
+		} else if (row.length < neighbourCount) {
+			int[] grown = Arrays.copyOf(row, row.length + 1);
+			float[] grownSims = Arrays.copyOf(sims, sims.length + 1);
+			grown[row.length] = neighbour;
+			grownSims[row.length] = similarity;
+			neighbours[item] = grown;
+			similarities[item] = grownSims;
+		} else if (sims[weakest] < similarity) {
+			row = row.clone();
+			sims = sims.clone();
+			row[weakest] = neighbour;
+			sims[weakest] = similarity;
+			neighbours[item] = row;
+			similarities[item] = sims;
+		}
+	}
+
+	private static float mean(float[] values) {
+		if (values.length == 0) {
+			return 0;
+		}
+		double sum = 0;
+		for (float value : values) {
+			sum += value;
+		}
+		return (float) (sum / values.length);
+	}
+
+	private static float norm(int[] users, float[] ratings, float[] userMeans) {
+		double sum = 0;
+		for (int p = 0; p < users.length; p++) {
+			double centred = ratings[p] - userMeans[users[p]];
+			sum += centred * centred;
+		}
+		return (float) Math.sqrt(sum);
+	}
+
+	private static class Similarity {
+
+		private final int[][] userItems;
+		private final float[][] userRatings;
+		private final float[] userMeans;
+		private final int[][] itemUsers;
+		private final float[][] itemRatings;
+		private final float[] itemNorms;
+		private final int neighbourCount;
+		private final int minCoRaters;
+
+		Similarity(int[][] userItems, float[][] userRatings, float[] userMeans, int[][] itemUsers,
+				float[][] itemRatings, float[] itemNorms, int neighbourCount, int minCoRaters) {
+			this.userItems = userItems;
+			this.userRatings = userRatings;
+			this.userMeans = userMeans;
+			this.itemUsers = itemUsers;
+			this.itemRatings = itemRatings;
+			this.itemNorms = itemNorms;
+			this.neighbourCount = neighbourCount;
+			this.minCoRaters = minCoRaters;
+		}
+
+		void row(int item, Scratch scratch, int[][] neighboursOut, float[][] similaritiesOut, int slot) {
+			scratch.reset();
+			if (itemNorms[item] > 0) {
+				for (int p = 0; p < itemUsers[item].length; p++) {
+					int u = itemUsers[item][p];
+					float centred = itemRatings[item][p] - userMeans[u];
+					if (centred == 0) {
+						continue;
+					}
+					for (int q = 0; q < userItems[u].length; q++) {
+						int other = userItems[u][q];
+						if (other != item) {
+							scratch.accumulate(other, centred * (userRatings[u][q] - userMeans[u]));
+						}
+					}
+				}
+			}
+
+			TopK top = new TopK(neighbourCount);
+			for (int t = 0; t < scratch.touchedCount; t++) {
+				int other = scratch.touched[t];
+				int co = scratch.coRaters[other];
+				if (co < minCoRaters || itemNorms[other] == 0) {
+					continue;
+				}
+				float similarity = (float) (scratch.dot[other] / (itemNorms[item] * itemNorms[other])) * co
+						/ (co + SHRINKAGE);
+				if (similarity > 0) {
+					top.offer(other, similarity);
+				}
+			}
+			top.sortDescending();
+			neighboursOut[slot] = top.items();
+			similaritiesOut[slot] = top.scores();
+		}
+
+	}
+
+	private static class Scratch {
+
+		private final double[] dot;
+		private final int[] coRaters;
+		private final int[] touched;
+		private int touchedCount;
+
+		Scratch(int items) {
+			dot = new double[items];
+			coRaters = new int[items];
+			touched = new int[items];
+		}
+
+		void accumulate(int item, double product) {
+			if (coRaters[item] == 0) {
+				touched[touchedCount++] = item;
+			}
+			coRaters[item]++;
+			dot[item] += product;
+		}
+
+		void reset() {
+			for (int t = 0; t < touchedCount; t++) {
+				dot[touched[t]] = 0;
+				coRaters[touched[t]] = 0;
+			}
+			touchedCount = 0;
+		}
+
+	}
+
+	/** Min-heap of the K best scores seen so far. */
+	private static class TopK {
+
+		private final int[] items;
+		private final float[] scores;
+		private int size;
+
+		TopK(int capacity) {
+			items = new int[capacity];
+			scores = new float[capacity];
+		}
+
+		void offer(int item, float score) {
+			if (size < items.length) {
+				items[size] = item;
+				scores[size] = score;
+				siftUp(size++);
+			} else if (items.length > 0 && score > scores[0]) {
+				items[0] = item;
+				scores[0] = score;
+				siftDown(0);
+			}
+		}
+
+		int[] items() {
+			return Arrays.copyOf(items, size);
+		}
+
+		float[] scores() {
+			return Arrays.copyOf(scores, size);
+		}
+
+		// Heap-sorts in place; the heap property is gone afterwards
+		void sortDescending() {
+			for (int end = size - 1; end > 0; end--) {
+				swap(0, end);
+				int saved = size;
+				size = end;
+				siftDown(0);
+				size = saved;
+			}
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (scores[parent] <= scores[i]) {
+					return;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int smallest = i;
+				int left = 2 * i + 1;
+				int right = left + 1;
+				if (left < size && scores[left] < scores[smallest]) {
+					smallest = left;
+				}
+				if (right < size && scores[right] < scores[smallest]) {
+					smallest = right;
+				}
+				if (smallest == i) {
+					return;
+				}
+				swap(i, smallest);
+				i = smallest;
+			}
+		}
+
+		private void swap(int a, int b) {
+			int item = items[a];
+			items[a] = items[b];
+			items[b] = item;
+			float score = scores[a];
+			scores[a] = scores[b];
+			scores[b] = score;
+		}
+
+	}
+
+	/** Growable primitive row used while loading ratings. */
+	private static class Row {
+
+		private int[] items = new int[8];
+		private float[] values = new float[8];
+		private int size;
+
+		void add(int item, float value) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			items[size] = item;
+			values[size++] = value;
+		}
+
+		int[] items() {
+			return Arrays.copyOf(items, size);
+		}
+
+		float[] values() {
+			return Arrays.copyOf(values, size);
+		}
+
+	}
+
+}
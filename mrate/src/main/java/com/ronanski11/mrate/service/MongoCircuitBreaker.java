@@ -0,0 +1,190 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.event.ClusterDescriptionChangedEvent;
+import com.mongodb.event.ClusterListener;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Circuit breaker for the Mongo data layer. Outcomes come from the driver:
+ * commands that fail on the network or time out, or take longer than the slow
+ * call threshold, count as failures over a sliding window of recent commands.
+ * Pool checkout timeouts count too. Commands never start while no server is
+ * reachable, so losing the last writable server opens the breaker at once and
+ * keeps it open until the driver's monitor sees one again.
+ * <p>
+ * While open, {@link #acquire()} rejects calls without touching the driver.
+ * After the open duration calls are let through again; the first outcome
+ * closes or reopens the breaker.
+ */
+@Slf4j
+@Component
+public class MongoCircuitBreaker implements CommandListener, ConnectionPoolListener, ClusterListener {
+
+	public enum State {
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private final double failureRate;
+
+	private final int minimumCalls;
+
+	private final long openNanos;
+
+	private final long slowCallNanos;
+
+	private final boolean[] window;
+
+	private int position;
+
+	private int calls;
+
+	private int failures;
+
+	private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+	private volatile long openedAt;
+
+	private volatile boolean unreachable;
+
+	private final Counter rejected;
+
+	public MongoCircuitBreaker(
+			@Value("${mrate.mongo.breaker.failure-rate:0.5}") double failureRate,
+			@Value("${mrate.mongo.breaker.window:50}") int window,
+			@Value("${mrate.mongo.breaker.minimum-calls:10}") int minimumCalls,
+			@Value("${mrate.mongo.breaker.open-duration:PT10S}") Duration openDuration,
+			@Value("${mrate.mongo.breaker.slow-call:PT2S}") Duration slowCall,
+			MeterRegistry meterRegistry) {
+		this.failureRate = failureRate;
+		this.window = new boolean[window];
+		this.minimumCalls = Math.min(minimumCalls, window);
+		this.openNanos = openDuration.toNanos();
+		this.slowCallNanos = slowCall.toNanos();
+		Gauge.builder("mrate.mongo.breaker.state", state, current -> current.get().ordinal())
+				.description("Mongo circuit breaker state: 0 closed, 1 half-open, 2 open")
+				.register(meterRegistry);
+		this.rejected = Counter.builder("mrate.mongo.breaker.rejected")
+				.description("Mongo calls rejected while the circuit breaker was open")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * @throws DatabaseUnavailableException if the breaker is open
+	 */
+	public void acquire() {
+		if (state.get() != State.OPEN) {
+			return;
+		}
+		if (!unreachable && System.nanoTime() - openedAt >= openNanos && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+			log.info("Mongo circuit breaker half-open, letting calls through");
+			return;
+		}
+		if (state.get() == State.OPEN) {
+			rejected.increment();
+			throw new DatabaseUnavailableException();
+		}
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		record(event.getElapsedTime(TimeUnit.NANOSECONDS) <= slowCallNanos);
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		// Errors the server answered with say nothing about its health
+		Throwable cause = event.getThrowable();
+		record(cause instanceof MongoCommandException || cause instanceof MongoWriteConcernException);
+	}
+
+	@Override
+	public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+		if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT
+				|| event.getReason() == ConnectionCheckOutFailedEvent.Reason.CONNECTION_ERROR) {
+			record(false);
+		}
+	}
+
+	@Override
+	public void clusterDescriptionChanged(ClusterDescriptionChangedEvent event) {
+		boolean before = event.getPreviousDescription().hasWritableServer();
+		boolean now = event.getNewDescription().hasWritableServer();
+		// Only a server that went away counts; the cluster is not writable yet while the client starts
+		if (before && !now) {
+			unreachable = true;
+			open("no writable server reachable");
+		} else if (now) {
+			unreachable = false;
+		}
+	}
+
+	synchronized void record(boolean success) {
+		State current = state.get();
+		if (current == State.HALF_OPEN) {
+			if (success) {
+				reset();
+				state.set(State.CLOSED);
+				log.info("Mongo circuit breaker closed");
+			} else {
+				open("trial call failed");
+			}
+			return;
+		}
+		if (current == State.OPEN) {
+			return;
+		}
+
+		if (calls == window.length) {
+			if (!window[position]) {
+				failures--;
+			}
+		} else {
+			calls++;
+		}
+		window[position] = success;
+		if (!success) {
+			failures++;
+		}
+		position = (position + 1) % window.length;
+		if (calls >= minimumCalls && failures >= failureRate * calls) {
+			open(failures + " of the last " + calls + " calls failed or were slow");
+		}
+	}
+
+	private synchronized void open(String reason) {
+		openedAt = System.nanoTime();
+		if (state.getAndSet(State.OPEN) != State.OPEN) {
+			log.warn("Mongo circuit breaker opened, {}", reason);
+		}
+		reset();
+	}
+
+	private void reset() {
+		position = 0;
+		calls = 0;
+		failures = 0;
+	}
+
+}
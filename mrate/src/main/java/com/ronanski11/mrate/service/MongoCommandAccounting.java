@@ -0,0 +1,152 @@
+package com.ronanski11.mrate.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+/**
+ * Counts Mongo commands and their wire size per unit of work on the current
+ * thread. The synchronous driver reports commands on the calling thread, so a
+ * {@link Scope} opened around a request or a block of test code sees exactly
+ * the commands issued from inside it.
+ *
+ * <pre>
+ * try (Scope scope = MongoCommandAccounting.begin()) {
+ * 	ratingService.createRating(rating, userId);
+ * 	assertThat(scope.commands()).isLessThanOrEqualTo(1);
+ * }
+ * </pre>
+ */
+@Component
+public class MongoCommandAccounting implements CommandListener {
+
+	private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+	private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+	public static Scope begin() {
+		Scope scope = new Scope(CURRENT.get());
+		CURRENT.set(scope);
+		return scope;
+	}
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		Scope scope = CURRENT.get();
+		if (scope == null) {
+			return;
+		}
+		scope.commands++;
+		scope.bytesSent += size(event.getCommand());
+		String key = event.getCommandName() + " " + SlowQueryLog.collection(event.getCommandName(), event.getCommand());
+		int count = scope.perTarget.merge(key, 1, Integer::sum);
+		if (count > scope.mostRepeatedCount) {
+			scope.mostRepeatedCount = count;
+			scope.mostRepeated = key;
+		}
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		Scope scope = CURRENT.get();
+		if (scope != null) {
+			scope.bytesReceived += size(event.getResponse());
+		}
+	}
+
+	/**
+	 * Wire documents carry their length in the first four bytes, so the size is
+	 * read without decoding. Documents the driver assembled itself (insert
+	 * batches) are encoded to measure them.
+	 */
+	private static long size(BsonDocument document) {
+		if (document == null) {
+			return 0;
+		}
+		try (BsonReader reader = document.asBsonReader()) {
+			if (reader instanceof BsonBinaryReader binary) {
+				return binary.getBsonInput().readInt32();
+			}
+		}
+		return new RawBsonDocument(document, CODEC).getByteBuffer().remaining();
+	}
+
+	public static final class Scope implements AutoCloseable {
+
+		private final Scope parent;
+
+		private final Map<String, Integer> perTarget = new HashMap<>();
+
+		private int commands;
+
+		private long bytesSent;
+
+		private long bytesReceived;
+
+		private String mostRepeated;
+
+		private int mostRepeatedCount;
+
+		private Scope(Scope parent) {
+			this.parent = parent;
+		}
+
+		public int commands() {
+			return commands;
+		}
+
+		public long bytesSent() {
+			return bytesSent;
+		}
+
+		public long bytesReceived() {
+			return bytesReceived;
+		}
+
+		/**
+		 * The command and collection issued most often in this scope, e.g.
+		 * {@code "find rating"}, or {@code null} if there were no commands.
+		 */
+		public String mostRepeated() {
+			return mostRepeated;
+		}
+
+		public int mostRepeatedCount() {
+			return mostRepeatedCount;
+		}
+
+		@Override
+		public void close() {
+			if (CURRENT.get() != this) {
+				return;
+			}
+			if (parent == null) {
+				CURRENT.remove();
+				return;
+			}
+			CURRENT.set(parent);
+			parent.commands += commands;
+			parent.bytesSent += bytesSent;
+			parent.bytesReceived += bytesReceived;
+			perTarget.forEach((key, count) -> {
+				int total = parent.perTarget.merge(key, count, Integer::sum);
+				if (total > parent.mostRepeatedCount) {
+					parent.mostRepeatedCount = total;
+					parent.mostRepeated = key;
+				}
+			});
+		}
+
+	}
+
+}
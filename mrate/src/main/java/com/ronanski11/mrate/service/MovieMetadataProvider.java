@@ -0,0 +1,16 @@
+package com.ronanski11.mrate.service;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.ronanski11.mrate.model.MovieMetadata;
+
+/**
+ * Upstream source of movie metadata. Ids the provider does not know are simply
+ * left out of the result.
+ */
+public interface MovieMetadataProvider {
+
+	Map<String, MovieMetadata> fetch(Collection<String> imdbIds);
+
+}
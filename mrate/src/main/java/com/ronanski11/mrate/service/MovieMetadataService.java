@@ -0,0 +1,169 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ronanski11.mrate.model.MovieMetadata;
+import com.ronanski11.mrate.repository.MovieMetadataRepository;
+import com.ronanski11.mrate.util.ImdbIds;
+import com.ronanski11.mrate.util.LruCache;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resolves movie metadata through an in-process LRU, the movieMetadata
+ * collection and finally the configured {@link MovieMetadataProvider}. Entries
+ * older than the TTL are refreshed from upstream, and kept as a fallback if the
+ * refresh fails. Concurrent misses for the same id share one upstream fetch.
+ */
+@Slf4j
+@Service
+public class MovieMetadataService {
+
+	public static final int MAX_BATCH_SIZE = 100;
+
+	@Autowired
+	MovieMetadataRepository repo;
+
+	@Autowired
+	MovieMetadataProvider provider;
+
+	@Value("${mrate.metadata.ttl:P7D}")
+	Duration ttl;
+
+	@Value("${mrate.metadata.cache-size:10000}")
+	int cacheSize;
+
+	@Value("${mrate.metadata.upstream-timeout:PT10S}")
+	Duration upstreamTimeout;
+
+	private LruCache<String, MovieMetadata> cache;
+
+	private final Map<String, CompletableFuture<MovieMetadata>> inFlight = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	void init() {
+		cache = new LruCache<>(cacheSize);
+	}
+
+	public Map<String, MovieMetadata> getMetadata(Collection<String> imdbIds) {
+		Set<String> ids = new LinkedHashSet<>(imdbIds);
+		if (ids.size() > MAX_BATCH_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_BATCH_SIZE + " ids per request");
+		}
+		ids.forEach(ImdbIds::require);
+
+		Map<String, MovieMetadata> found = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String id : ids) {
+			MovieMetadata cached = cache.get(id);
+			if (isFresh(cached)) {
+				found.put(id, cached);
+			} else {
+				missing.add(id);
+			}
+		}
+
+		Map<String, MovieMetadata> stale = new HashMap<>();
+		if (!missing.isEmpty()) {
+			for (MovieMetadata stored : repo.findAllById(missing)) {
+				if (isFresh(stored)) {
+					cache.put(stored.getImdbId(), stored);
+					found.put(stored.getImdbId(), stored);
+				} else {
+					stale.put(stored.getImdbId(), stored);
+				}
+			}
+			missing.removeIf(found::containsKey);
+		}
+
+		if (!missing.isEmpty()) {
+			found.putAll(fetchCoalesced(missing, stale));
+		}
+
+		Map<String, MovieMetadata> result = new LinkedHashMap<>();
+		for (String id : ids) {
+			if (found.get(id) != null) {
+				result.put(id, found.get(id));
+			}
+		}
+		return result;
+	}
+
+	private Map<String, MovieMetadata> fetchCoalesced(List<String> ids, Map<String, MovieMetadata> stale) {
+		Map<String, CompletableFuture<MovieMetadata>> pending = new HashMap<>();
+		List<String> owned = new ArrayList<>();
+		for (String id : ids) {
+			CompletableFuture<MovieMetadata> future = new CompletableFuture<>();
+			CompletableFuture<MovieMetadata> existing = inFlight.putIfAbsent(id, future);
+			if (existing == null) {
+				owned.add(id);
+				pending.put(id, future);
+			} else {
+				pending.put(id, existing);
+			}
+		}
+
+		if (!owned.isEmpty()) {
+			Map<String, MovieMetadata> fetched = Map.of();
+			try {
+				fetched = provider.fetch(owned);
+				LocalDateTime now = LocalDateTime.now();
+				fetched.values().forEach(metadata -> metadata.setFetchedAt(now));
+				repo.saveAll(fetched.values());
+				fetched.values().forEach(metadata -> cache.put(metadata.getImdbId(), metadata));
+			} catch (RuntimeException e) {
+				log.warn("Metadata fetch for {} ids failed: {}", owned.size(), e.getMessage());
+			} finally {
+				for (String id : owned) {
+					pending.get(id).complete(fetched.getOrDefault(id, stale.get(id)));
+					inFlight.remove(id, pending.get(id));
+				}
+			}
+		}
+
+		Map<String, MovieMetadata> result = new HashMap<>();
+		for (Map.Entry<String, CompletableFuture<MovieMetadata>> entry : pending.entrySet()) {
+			MovieMetadata metadata = await(entry.getValue());
+			result.put(entry.getKey(), metadata != null ? metadata : stale.get(entry.getKey()));
+		}
+		return result;
+	}
+
+	private MovieMetadata await(CompletableFuture<MovieMetadata> future) {
+		try {
+			return future.get(upstreamTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | TimeoutException e) {
+			return null;
+		}
+	}
+
+	private boolean isFresh(MovieMetadata metadata) {
+		return metadata != null && metadata.getFetchedAt() != null
+				&& metadata.getFetchedAt().isAfter(LocalDateTime.now().minus(ttl));
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.ronanski11.mrate.model.MovieMetadata;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fetches metadata from the OMDb API. OMDb has no batch lookup, so ids of a
+ * batch are requested concurrently on a bounded executor. Ids still queued or
+ * in flight when the batch timeout runs out are left out of the result.
+ */
+@Slf4j
+public class OmdbMetadataProvider implements MovieMetadataProvider {
+
+	private final RestClient client;
+
+	private final String apiKey;
+
+	private final ExecutorService executor;
+
+	private final Duration timeout;
+
+	public OmdbMetadataProvider(RestClient client, String apiKey, ExecutorService executor, Duration timeout) {
+		this.client = client;
+		this.apiKey = apiKey;
+		this.executor = executor;
+		this.timeout = timeout;
+	}
+
+	@Override
+	public Map<String, MovieMetadata> fetch(Collection<String> imdbIds) {
+		Map<String, CompletableFuture<MovieMetadata>> futures = new LinkedHashMap<>();
+		for (String id : imdbIds) {
+			futures.put(id, CompletableFuture.supplyAsync(() -> fetchOne(id), executor)
+					.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+					.exceptionally(e -> {
+						log.warn("OMDb lookup for {} not done after {}", id, timeout);
+						return null;
+					}));
+		}
+		CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).join();
+
+		Map<String, MovieMetadata> result = new HashMap<>();
+		futures.forEach((id, future) -> {
+			MovieMetadata metadata = future.join();
+			if (metadata != null) {
+				result.put(id, metadata);
+			}
+		});
+		return result;
+	}
+
+	private MovieMetadata fetchOne(String imdbId) {
+		JsonNode body;
+		try {
+			body = client.get()
+					.uri(uri -> uri.queryParam("i", imdbId).queryParam("apikey", apiKey).build())
+					.retrieve()
+					.body(JsonNode.class);
+		} catch (RestClientException e) {
+			log.warn("OMDb lookup for {} failed: {}", imdbId, e.getMessage());
+			return null;
+		}
+		if (body == null || !"True".equals(body.path("Response").asText())) {
+			return null;
+		}
+
+		MovieMetadata metadata = new MovieMetadata();
+		metadata.setImdbId(imdbId);
+		metadata.setTitle(body.path("Title").asText(null));
+		metadata.setYear(body.path("Year").asText(null));
+		metadata.setRated(body.path("Rated").asText(null));
+		metadata.setRuntime(body.path("Runtime").asText(null));
+		metadata.setGenre(body.path("Genre").asText(null));
+		metadata.setDirector(body.path("Director").asText(null));
+		metadata.setActors(body.path("Actors").asText(null));
+		metadata.setPlot(body.path("Plot").asText(null));
+		metadata.setPoster(body.path("Poster").asText(null));
+		metadata.setImdbRating(body.path("imdbRating").asText(null));
+		return metadata;
+	}
+
+}
@@ -0,0 +1,294 @@
+package com.ronanski11.mrate.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ronanski11.mrate.model.dto.UserDTO;
+import com.ronanski11.mrate.service.ImageStore.StoredImage;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Profile pictures are stored as uploaded under a random id and never change,
+ * so every id can be cached indefinitely. Square JPEG thumbnails are rendered
+ * in the background; until they exist the original is served in their place.
+ */
+@Slf4j
+@Service
+public class ProfilePictureService {
+
+	private static final Pattern ID = Pattern.compile("[0-9a-f]{32}\\.(jpg|png)");
+
+	private static final byte[] PNG = { (byte) 0x89, 'P', 'N', 'G' };
+
+	private static final byte[] JPEG = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+
+	private final ImageStore store;
+
+	private final UserService users;
+
+	private final int[] sizes;
+
+	private final long maxPixels;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+	public ProfilePictureService(ImageStore store, UserService users,
+			@Value("${mrate.images.thumbnail-sizes:64,256}") int[] sizes,
+			@Value("${mrate.images.max-pixels:25000000}") long maxPixels,
+			@Value("${mrate.images.thumbnail-workers:2}") int workers) {
+		this.store = store;
+		this.users = users;
+		this.sizes = Arrays.stream(sizes).sorted().toArray();
+		this.maxPixels = maxPixels;
+		// Bounded on both ends: work beyond the queue is dropped and redone lazily on first read
+		this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(256), runnable -> {
+					Thread thread = new Thread(runnable, "profile-pic-thumbnails");
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	public UserDTO upload(String userId, MultipartFile file) {
+		String previous = users.getUserById(userId).getProfilePicId();
+		String id;
+		try (InputStream in = new BufferedInputStream(file.getInputStream())) {
+			String extension = sniff(in);
+			if (extension == null) {
+				throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Only PNG and JPEG images are supported");
+			}
+			id = UUID.randomUUID().toString().replace("-", "") + "." + extension;
+			store.store(id, in, "jpg".equals(extension) ? "image/jpeg" : "image/png");
+		} catch (IOException e) {
+			throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not store profile picture", e);
+		}
+		if (!isAcceptable(id)) {
+			store.delete(id);
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Image is unreadable or too large");
+		}
+
+		UserDTO user = users.updateProfilePic(userId, id);
+		scheduleThumbnails(id);
+		if (previous != null && ID.matcher(previous).matches()) {
+			try {
+				executor.execute(() -> delete(previous));
+			} catch (RejectedExecutionException e) {
+				log.debug("Could not schedule removal of profile picture {}", previous);
+			}
+		}
+		return user;
+	}
+
+	/**
+	 * @param size requested edge length in pixels; {@code null} for the original
+	 */
+	public Picture open(String id, Integer size) {
+		if (!ID.matcher(id).matches()) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Profile picture not found");
+		}
+		if (size != null) {
+			StoredImage thumbnail = store.open(thumbnailKey(id, thumbnailSize(size)));
+			if (thumbnail != null) {
+				return new Picture(thumbnail, false);
+			}
+			scheduleThumbnails(id);
+		}
+		StoredImage original = store.open(id);
+		if (original == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Profile picture not found");
+		}
+		return new Picture(original, size != null);
+	}
+
+	private void scheduleThumbnails(String id) {
+		if (!pending.add(id)) {
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					renderThumbnails(id);
+				} catch (Exception e) {
+					log.warn("Could not render thumbnails for profile picture {}", id, e);
+				} finally {
+					pending.remove(id);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pending.remove(id);
+			log.debug("Thumbnail queue full, skipping profile picture {}", id);
+		}
+	}
+
+	private void renderThumbnails(String id) throws IOException {
+		StoredImage original = store.open(id);
+		if (original == null) {
+			return;
+		}
+		BufferedImage source;
+		try (InputStream in = original.resource().getInputStream();
+				ImageInputStream images = ImageIO.createImageInputStream(in)) {
+			ImageReader reader = reader(images);
+			try {
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				if ((long) width * height > maxPixels) {
+					return;
+				}
+				// Decode at no more than twice the largest thumbnail to keep memory and CPU flat for big uploads
+				int step = Math.max(1, Math.min(width, height) / (sizes[sizes.length - 1] * 2));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				source = reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+
+		for (int size : sizes) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(square(source, size), "jpg", out);
+			store.store(thumbnailKey(id, size), new ByteArrayInputStream(out.toByteArray()), "image/jpeg");
+		}
+	}
+
+	private boolean isAcceptable(String id) {
+		StoredImage image = store.open(id);
+		if (image == null) {
+			return false;
+		}
+		try (InputStream in = image.resource().getInputStream();
+				ImageInputStream images = ImageIO.createImageInputStream(in)) {
+			ImageReader reader = reader(images);
+			try {
+				return (long) reader.getWidth(0) * reader.getHeight(0) <= maxPixels;
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void delete(String id) {
+		store.delete(id);
+		for (int size : sizes) {
+			store.delete(thumbnailKey(id, size));
+		}
+	}
+
+	private int thumbnailSize(int requested) {
+		for (int size : sizes) {
+			if (size >= requested) {
+				return size;
+			}
+		}
+		return sizes[sizes.length - 1];
+	}
+
+	private static String thumbnailKey(String id, int size) {
+		return id.substring(0, id.indexOf('.')) + "-" + size + ".jpg";
+	}
+
+	private static ImageReader reader(ImageInputStream images) throws IOException {
+		Iterator<ImageReader> readers = images == null ? null : ImageIO.getImageReaders(images);
+		if (readers == null || !readers.hasNext()) {
+			throw new IOException("Not a readable image");
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(images, true, true);
+		return reader;
+	}
+
+	/**
+	 * Center crop to a square, then halve repeatedly before the final bilinear
+	 * step so large reductions do not alias.
+	 */
+	private static BufferedImage square(BufferedImage source, int size) {
+		int edge = Math.min(source.getWidth(), source.getHeight());
+		BufferedImage current = source.getSubimage((source.getWidth() - edge) / 2, (source.getHeight() - edge) / 2,
+				edge, edge);
+		while (edge / 2 >= size) {
+			edge /= 2;
+			current = scale(current, edge);
+		}
+		return scale(current, size);
+	}
+
+	private static BufferedImage scale(BufferedImage source, int size) {
+		BufferedImage target = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = target.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			// JPEG has no alpha channel
+			graphics.setBackground(Color.WHITE);
+			graphics.clearRect(0, 0, size, size);
+			graphics.drawImage(source, 0, 0, size, size, null);
+		} finally {
+			graphics.dispose();
+		}
+		return target;
+	}
+
+	private static String sniff(InputStream in) throws IOException {
+		in.mark(PNG.length);
+		byte[] header = in.readNBytes(PNG.length);
+		in.reset();
+		if (startsWith(header, PNG)) {
+			return "png";
+		}
+		if (startsWith(header, JPEG)) {
+			return "jpg";
+		}
+		return null;
+	}
+
+	private static boolean startsWith(byte[] bytes, byte[] prefix) {
+		return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+	}
+
+	/**
+	 * @param fallback the original is served because the requested thumbnail
+	 *                 does not exist yet, so it must not be cached for long
+	 */
+	public record Picture(StoredImage image, boolean fallback) {
+	}
+
+}
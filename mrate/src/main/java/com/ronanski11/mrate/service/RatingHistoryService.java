@@ -0,0 +1,329 @@
+package com.ronanski11.mrate.service;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.ronanski11.mrate.model.MovieRatingSeries;
+import com.ronanski11.mrate.model.MovieRatingSeries.DailyScore;
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.RatingChange;
+import com.ronanski11.mrate.model.RatingEvent;
+import com.ronanski11.mrate.model.RatingHistoryClaim;
+import com.ronanski11.mrate.model.dto.ScorePoint;
+import com.ronanski11.mrate.security.configuration.MongoIndexInitializer;
+
+/**
+ * History of every rating given. Events go to a time-series collection bucketed
+ * by user, which serves user timelines. Movie score series are served from
+ * {@link MovieRatingSeries} roll-ups, so a year of a popular movie is twelve
+ * documents however many ratings it received.
+ */
+@Service
+public class RatingHistoryService {
+
+	private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM");
+
+	private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("dd");
+
+	private static final int MAX_SERIES_MONTHS = 120;
+
+	private static final int DUPLICATE_KEY = 11000;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	MongoIndexInitializer indexInitializer;
+
+	@Value("${mrate.history.claim-lease:PT5M}")
+	Duration claimLease;
+
+	private volatile boolean collectionReady;
+
+	/**
+	 * Appends the changes recorded on the given ratings, falling back to the
+	 * current value for ratings written before changes were recorded. Each
+	 * rating's changes are first moved into a claim on the rating, in the same
+	 * write that removes them from its pending changes, so only one node records
+	 * them. A claim left by a failed run is taken over once it expired: events
+	 * that were already written are skipped, and roll-ups keep the claims they
+	 * counted until the claim is released, so nothing is appended twice.
+	 *
+	 * @return the ids of the ratings whose history is complete; the others are
+	 *         being recorded by another node
+	 */
+	public Set<String> record(Collection<Rating> ratings) {
+		LocalDateTime now = LocalDateTime.now();
+		Set<String> recorded = new HashSet<>();
+		List<Claimed> claimed = new ArrayList<>();
+		for (Rating rating : ratings) {
+			if (rating.getHistoryClaim() == null && rating.getPendingChanges() != null && rating.getPendingChanges().isEmpty()) {
+				recorded.add(rating.getId());
+				continue;
+			}
+			Claimed claim = claim(rating, now);
+			if (claim != null) {
+				claimed.add(claim);
+			}
+		}
+		if (claimed.isEmpty()) {
+			return recorded;
+		}
+
+		if (!collectionReady) {
+			indexInitializer.ensureCollection(RatingEvent.class);
+			collectionReady = true;
+		}
+		Map<String, List<RatingEvent>> events = new LinkedHashMap<>();
+		for (Claimed claim : claimed) {
+			List<RatingEvent> claimEvents = new ArrayList<>();
+			for (RatingChange change : claim.claim().getChanges()) {
+				if (change.getRating() != null && change.getAt() != null) {
+					claimEvents.add(new RatingEvent(null, claim.rating().getUserId(), claim.rating().getImdbId(),
+							change.getRating(), change.getAt()));
+				}
+			}
+			events.put(claim.claim().getKey(), claimEvents);
+		}
+
+		List<RatingEvent> inserts = new ArrayList<>();
+		Set<String> existing = existingEvents(claimed.stream().filter(Claimed::retried).toList());
+		events.values().forEach(claimEvents -> claimEvents.stream()
+				.filter(event -> !existing.contains(eventKey(event.getUserId(), event.getImdbId(), event.getAt())))
+				.forEach(inserts::add));
+		if (!inserts.isEmpty()) {
+			mongoTemplate.insertAll(inserts);
+		}
+
+		Set<String> series = updateRollups(events);
+
+		BulkOperations release = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Rating.class);
+		for (Claimed claim : claimed) {
+			release.updateOne(new Query(Criteria.where("id").is(claim.rating().getId()).and("historyClaim.key").is(claim.claim().getKey())),
+					new Update().unset("historyClaim"));
+			recorded.add(claim.rating().getId());
+		}
+		release.execute();
+		// Only once the claims are gone; a marker left behind after a failure here is merely never removed
+		mongoTemplate.updateMulti(new Query(Criteria.where("id").in(series)),
+				new Update().pullAll("claims", events.keySet().toArray()), MovieRatingSeries.class);
+		return recorded;
+	}
+
+	private Claimed claim(Rating rating, LocalDateTime now) {
+		RatingHistoryClaim existing = rating.getHistoryClaim();
+		if (existing != null) {
+			if (existing.getAt().isAfter(now.minus(claimLease))) {
+				return null;
+			}
+			RatingHistoryClaim retry = new RatingHistoryClaim(existing.getKey(), now, existing.getChanges());
+			Query query = new Query(Criteria.where("id").is(rating.getId())
+					.and("historyClaim.key").is(existing.getKey())
+					.and("historyClaim.at").is(existing.getAt()));
+			return won(query, new Update().set("historyClaim", retry)) ? new Claimed(rating, retry, true) : null;
+		}
+
+		List<RatingChange> changes = rating.getPendingChanges();
+		Criteria criteria = Criteria.where("id").is(rating.getId()).and("historyClaim").exists(false);
+		Update update = new Update();
+		if (changes == null) {
+			changes = List.of(new RatingChange(rating.getRating(), rating.getLastUpdated()));
+			criteria.and("pendingChanges").exists(false);
+			update.set("pendingChanges", List.of());
+		} else {
+			// Changes are only ever removed oldest first, so the claim fails if any of these went to another node
+			Date earliest = SharedWatchlistEntryUpdates.toDate(changes.stream().map(RatingChange::getAt).min(LocalDateTime::compareTo).get());
+			Date latest = SharedWatchlistEntryUpdates.toDate(changes.stream().map(RatingChange::getAt).max(LocalDateTime::compareTo).get());
+			criteria.and("pendingChanges.at").all(earliest, latest);
+			update.pull("pendingChanges", new Document("at", new Document("$lte", latest)));
+		}
+		RatingHistoryClaim claim = new RatingHistoryClaim(new ObjectId().toHexString(), now, changes);
+		return won(new Query(criteria), update.set("historyClaim", claim)) ? new Claimed(rating, claim, false) : null;
+	}
+
+	private boolean won(Query query, Update update) {
+		return mongoTemplate.updateFirst(query, update, Rating.class).getModifiedCount() > 0;
+	}
+
+	/**
+	 * Events of retried claims that the failed run already wrote.
+	 */
+	private Set<String> existingEvents(List<Claimed> retried) {
+		if (retried.isEmpty()) {
+			return Set.of();
+		}
+		List<Criteria> users = new ArrayList<>();
+		for (Claimed claim : retried) {
+			List<LocalDateTime> at = claim.claim().getChanges().stream().map(RatingChange::getAt).filter(Objects::nonNull).toList();
+			if (!at.isEmpty()) {
+				users.add(Criteria.where("userId").is(claim.rating().getUserId())
+						.and("at").gte(Collections.min(at)).lte(Collections.max(at)));
+			}
+		}
+		Set<String> existing = new HashSet<>();
+		if (!users.isEmpty()) {
+			for (RatingEvent event : mongoTemplate.find(new Query(new Criteria().orOperator(users)), RatingEvent.class)) {
+				existing.add(eventKey(event.getUserId(), event.getImdbId(), event.getAt()));
+			}
+		}
+		return existing;
+	}
+
+	private static String eventKey(String userId, String imdbId, LocalDateTime at) {
+		// Stored dates only keep milliseconds
+		return userId + ":" + imdbId + ":" + at.truncatedTo(ChronoUnit.MILLIS);
+	}
+
+	/**
+	 * Adds each claim's events to the month documents of their movie, together
+	 * with the claim id. A document already holding the claim is not matched,
+	 * and its upsert then fails on the duplicate id.
+	 *
+	 * @return the ids of the month documents that were written
+	 */
+	private Set<String> updateRollups(Map<String, List<RatingEvent>> events) {
+		BulkOperations rollups = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MovieRatingSeries.class);
+		Set<String> series = new HashSet<>();
+		events.forEach((claimId, claimEvents) -> {
+			// A claim has one movie, so its events only differ in month and day
+			Map<String, Map<String, double[]>> months = new LinkedHashMap<>();
+			for (RatingEvent event : claimEvents) {
+				double[] totals = months.computeIfAbsent(MovieRatingSeries.id(event.getImdbId(), event.getAt().format(MONTH)),
+						id -> new LinkedHashMap<>()).computeIfAbsent(event.getAt().format(DAY), day -> new double[2]);
+				totals[0]++;
+				totals[1] += event.getRating();
+			}
+			String imdbId = claimEvents.isEmpty() ? null : claimEvents.get(0).getImdbId();
+			months.forEach((id, days) -> {
+				Update update = new Update().setOnInsert("imdbId", imdbId).addToSet("claims", claimId);
+				days.forEach((day, totals) -> update
+						.inc("days." + day + ".count", (int) totals[0])
+						.inc("days." + day + ".sum", totals[1]));
+				rollups.upsert(new Query(Criteria.where("id").is(id).and("claims").ne(claimId)), update);
+				series.add(id);
+			});
+		});
+		if (series.isEmpty()) {
+			return series;
+		}
+		try {
+			rollups.execute();
+		} catch (BulkOperationException e) {
+			for (BulkWriteError error : e.getErrors()) {
+				if (error.getCode() != DUPLICATE_KEY) {
+					throw e;
+				}
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * A user's ratings newest first, optionally limited to {@code [from, to)}.
+	 */
+	public List<RatingEvent> getTimeline(String userId, LocalDateTime from, LocalDateTime to, int limit) {
+		Criteria criteria = Criteria.where("userId").is(userId);
+		if (from != null || to != null) {
+			Criteria at = Criteria.where("at");
+			if (from != null) {
+				at.gte(from);
+			}
+			if (to != null) {
+				at.lt(to);
+			}
+			criteria = new Criteria().andOperator(criteria, at);
+		}
+		Query query = new Query(criteria).with(Sort.by(Sort.Direction.DESC, "at")).limit(limit);
+		return mongoTemplate.find(query, RatingEvent.class);
+	}
+
+	/**
+	 * Count and average of the ratings a movie received per day, week or month
+	 * in {@code [from, to]}. Periods without ratings are left out.
+	 */
+	public List<ScorePoint> getMovieSeries(String imdbId, LocalDate from, LocalDate to, String interval) {
+		periodStart(from, interval);
+		if (from.isAfter(to)) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+		}
+		if (YearMonth.from(from).plusMonths(MAX_SERIES_MONTHS).isBefore(YearMonth.from(to))) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Range must not exceed " + MAX_SERIES_MONTHS + " months");
+		}
+		Query query = new Query(Criteria.where("id")
+				.gte(MovieRatingSeries.id(imdbId, from.format(MONTH)))
+				.lte(MovieRatingSeries.id(imdbId, to.format(MONTH))));
+
+		Map<LocalDate, double[]> periods = new TreeMap<>();
+		for (MovieRatingSeries month : mongoTemplate.find(query, MovieRatingSeries.class)) {
+			YearMonth yearMonth = YearMonth.parse(month.getId().substring(imdbId.length() + 1), MONTH);
+			for (Map.Entry<String, DailyScore> day : month.getDays().entrySet()) {
+				LocalDate date = yearMonth.atDay(Integer.parseInt(day.getKey()));
+				if (date.isBefore(from) || date.isAfter(to)) {
+					continue;
+				}
+				double[] totals = periods.computeIfAbsent(periodStart(date, interval), start -> new double[2]);
+				totals[0] += day.getValue().getCount();
+				totals[1] += day.getValue().getSum();
+			}
+		}
+
+		List<ScorePoint> series = new ArrayList<>(periods.size());
+		periods.forEach((start, totals) -> {
+			if (totals[0] > 0) {
+				series.add(new ScorePoint(start, (int) totals[0], totals[1] / totals[0]));
+			}
+		});
+		return series;
+	}
+
+	private record Claimed(Rating rating, RatingHistoryClaim claim, boolean retried) {
+	}
+
+	private static LocalDate periodStart(LocalDate date, String interval) {
+		switch (interval) {
+		case "day":
+			return date;
+		case "week":
+			return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+		case "month":
+			return date.withDayOfMonth(1);
+		default:
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid interval: " + interval);
+		}
+	}
+
+}
@@ -0,0 +1,261 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.Watchlist;
+import com.ronanski11.mrate.model.WatchlistEntry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Drains ratings marked {@code propagationPending} and copies them into the
+ * rater's watchlist and the shared watchlists containing the movie. All of a
+ * user's pending ratings go into their watchlist with one update, and only the
+ * latest value per movie is ever applied. Watchlist updates set absolute
+ * values, so re-applying after a crash or from two nodes at once is harmless.
+ * The user's stats are adjusted by the difference to the value they last
+ * counted, which a repeated batch can apply twice; the periodic reconciliation
+ * in {@link UserStatsService} repairs that. The marker is cleared only if the
+ * rating did not change in the meantime. When a user's batch fails its ratings
+ * are retried one by one, and a rating that keeps failing is parked as
+ * {@code propagationFailed} so it cannot hold up the ratings behind it. Rating
+ * the movie again queues it once more.
+ */
+@Slf4j
+@Service
+public class RatingOutboxDispatcher {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	SharedWatchlistService sharedWatchlists;
+
+	@Autowired
+	UserStatsService userStats;
+
+	@Autowired
+	RatingHistoryService history;
+
+	@Autowired
+	CacheInvalidationBus invalidations;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Value("${mrate.outbox.batch-size:500}")
+	int batchSize;
+
+	@Value("${mrate.outbox.max-attempts:10}")
+	int maxAttempts;
+
+	@Value("${mrate.outbox.retry-backoff:PT1S}")
+	Duration retryBackoff;
+
+	@Value("${mrate.outbox.max-retry-backoff:PT5M}")
+	Duration maxRetryBackoff;
+
+	private final AtomicLong pending = new AtomicLong();
+
+	private final AtomicLong oldestPendingMillis = new AtomicLong();
+
+	private Timer lag;
+
+	private Counter parked;
+
+	@PostConstruct
+	void init() {
+		lag = Timer.builder("mrate.outbox.lag")
+				.description("Time from a rating being written to it being propagated")
+				.publishPercentiles(0.5, 0.99)
+				.register(meterRegistry);
+		parked = Counter.builder("mrate.outbox.parked")
+				.description("Ratings taken out of the outbox after failing to propagate too often")
+				.register(meterRegistry);
+		Gauge.builder("mrate.outbox.pending", pending, AtomicLong::get).register(meterRegistry);
+		Gauge.builder("mrate.outbox.oldest.age", oldestPendingMillis, AtomicLong::get)
+				.baseUnit("milliseconds")
+				.register(meterRegistry);
+	}
+
+	@Scheduled(initialDelayString = "${mrate.outbox.initial-delay:PT30S}", fixedDelayString = "${mrate.outbox.poll-interval:PT0.5S}")
+	public void dispatch() {
+		List<Rating> batch;
+		try {
+			Query query = new Query(Criteria.where("propagationPending").is(true).orOperator(
+					Criteria.where("propagationRetryAt").exists(false),
+					Criteria.where("propagationRetryAt").lte(LocalDateTime.now())))
+					.with(Sort.by("lastUpdated"))
+					.limit(batchSize);
+			query.fields().include("userId", "imdbId", "rating", "propagatedRating", "pendingChanges", "historyClaim", "lastUpdated");
+			batch = mongoTemplate.find(query, Rating.class);
+			updatePendingGauges(batch);
+		} catch (RuntimeException e) {
+			log.warn("Could not read rating outbox: {}", e.getMessage());
+			return;
+		}
+
+		if (batch.isEmpty()) {
+			return;
+		}
+		// History first, so a rating only leaves the outbox once its changes are recorded
+		Set<String> recorded;
+		try {
+			recorded = history.record(batch);
+		} catch (RuntimeException e) {
+			log.warn("Could not append {} ratings to the history: {}", batch.size(), e.getMessage());
+			return;
+		}
+
+		Map<String, Map<String, Rating>> byUser = new LinkedHashMap<>();
+		for (Rating rating : batch) {
+			if (!recorded.contains(rating.getId())) {
+				continue;
+			}
+			byUser.computeIfAbsent(rating.getUserId(), id -> new LinkedHashMap<>()).put(rating.getImdbId(), rating);
+		}
+
+		byUser.forEach((userId, ratings) -> {
+			try {
+				propagate(userId, ratings.values());
+				acknowledge(ratings.values());
+			} catch (RuntimeException e) {
+				log.warn("Could not propagate {} ratings of user {}: {}", ratings.size(), userId, e.getMessage());
+				ratings.values().forEach(rating -> propagateAlone(userId, rating));
+			}
+		});
+	}
+
+	/**
+	 * Finds the ratings that failed a batch. A failing one is left pending and
+	 * retried with a growing delay until it runs out of attempts.
+	 */
+	private void propagateAlone(String userId, Rating rating) {
+		try {
+			propagate(userId, List.of(rating));
+			acknowledge(List.of(rating));
+		} catch (RuntimeException e) {
+			try {
+				recordFailure(rating);
+			} catch (RuntimeException ignored) {
+				// The database is unreachable, which is no reason to give up on the rating
+			}
+		}
+	}
+
+	private void recordFailure(Rating rating) {
+		Query query = new Query(Criteria.where("id").is(rating.getId()).and("propagationPending").is(true));
+		Rating failed = mongoTemplate.findAndModify(query, new Update().inc("propagationAttempts", 1),
+				FindAndModifyOptions.options().returnNew(true), Rating.class);
+		if (failed == null) {
+			return;
+		}
+		if (failed.getPropagationAttempts() < maxAttempts) {
+			long shift = Math.min(failed.getPropagationAttempts() - 1, 30);
+			Duration backoff = retryBackoff.multipliedBy(1L << shift);
+			// Not if the rating was written again in the meantime, which starts the attempts over
+			Query unchanged = new Query(Criteria.where("id").is(rating.getId()).and("propagationAttempts").is(failed.getPropagationAttempts()));
+			mongoTemplate.updateFirst(unchanged, new Update().set("propagationRetryAt",
+					LocalDateTime.now().plus(backoff.compareTo(maxRetryBackoff) < 0 ? backoff : maxRetryBackoff)), Rating.class);
+			return;
+		}
+		long moved = mongoTemplate.updateFirst(query.addCriteria(Criteria.where("propagationAttempts").gte(maxAttempts)),
+				new Update().unset("propagationPending").set("propagationFailed", true), Rating.class).getModifiedCount();
+		if (moved > 0) {
+			parked.increment();
+			log.error("Parked rating {} of user {} for {} after {} failed propagations", rating.getId(), rating.getUserId(),
+					rating.getImdbId(), failed.getPropagationAttempts());
+		}
+	}
+
+	private void propagate(String userId, Collection<Rating> ratings) {
+		LocalDateTime now = LocalDateTime.now();
+		Date lastModified = SharedWatchlistEntryUpdates.toDate(now);
+		Document set = new Document();
+		Query query = new Query(Criteria.where("userId").is(userId));
+		for (Rating rating : ratings) {
+			// Only touch entries already on the watchlist; $$REMOVE leaves a missing entry missing
+			String entry = "movies." + rating.getImdbId();
+			Document updated = new Document("$mergeObjects", List.of("$" + entry, new Document("rating", new Document("$literal", rating.getRating()))
+					.append("watched", true)
+					.append("lastModified", lastModified)));
+			set.append(entry, new Document("$cond", List.of(
+					new Document("$eq", List.of(new Document("$type", "$" + entry), "object")), updated, "$$REMOVE")));
+			query.fields().include(entry + ".watched");
+		}
+		// The previous state tells which entries just became watched, for the user's stats
+		Watchlist before = mongoTemplate.findAndModify(query,
+				AggregationUpdate.from(List.of(Aggregation.stage(new Document("$set", set)))),
+				FindAndModifyOptions.options().upsert(true).returnNew(false), Watchlist.class);
+		int newlyWatched = 0;
+		if (before != null) {
+			invalidations.publish(WatchlistService.CACHE, userId);
+			for (Rating rating : ratings) {
+				WatchlistEntry entry = before.getMovies().get(rating.getImdbId());
+				if (entry != null && !Boolean.TRUE.equals(entry.getWatched())) {
+					newlyWatched++;
+				}
+			}
+		}
+		userStats.recordPropagation(userId, ratings, newlyWatched);
+
+		for (Rating rating : ratings) {
+			sharedWatchlists.applyRating(userId, rating.getImdbId(), rating.getRating());
+		}
+	}
+
+	private void acknowledge(Iterable<Rating> ratings) {
+		BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Rating.class);
+		LocalDateTime now = LocalDateTime.now();
+		for (Rating rating : ratings) {
+			// Recorded even if the rating changed since, as this is the value the stats now contain
+			bulk.updateOne(new Query(Criteria.where("id").is(rating.getId())),
+					new Update().set("propagatedRating", rating.getRating()));
+			bulk.updateOne(new Query(Criteria.where("id").is(rating.getId()).and("lastUpdated").is(rating.getLastUpdated())),
+					new Update().unset("propagationPending").unset("propagationAttempts").unset("propagationRetryAt"));
+			lag.record(Duration.between(rating.getLastUpdated(), now));
+		}
+		bulk.execute();
+	}
+
+	private void updatePendingGauges(List<Rating> batch) {
+		if (batch.isEmpty()) {
+			pending.set(0);
+			oldestPendingMillis.set(0);
+			return;
+		}
+		pending.set(batch.size() < batchSize ? batch.size()
+				: mongoTemplate.count(new Query(Criteria.where("propagationPending").is(true)), Rating.class));
+		oldestPendingMillis.set(Duration.between(batch.get(0).getLastUpdated(), LocalDateTime.now()).toMillis());
+	}
+
+}
@@ -1,77 +1,95 @@
 package com.ronanski11.mrate.service;
 
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import com.ronanski11.mrate.model.Rating;
-import com.ronanski11.mrate.model.SharedWatchlist;
-import com.ronanski11.mrate.model.SharedWatchlistEntry;
-import com.ronanski11.mrate.model.Watchlist;
-import com.ronanski11.mrate.model.WatchlistEntry;
+import com.ronanski11.mrate.model.RatingChange;
 import com.ronanski11.mrate.repository.RatingRepository;
-import com.ronanski11.mrate.repository.SharedWatchlistRepository;
-import com.ronanski11.mrate.repository.WatchlistRepository;
+import com.ronanski11.mrate.util.FieldSelection;
+import com.ronanski11.mrate.util.ImdbIds;
 
 @Service
 public class RatingService {
 
+	// Bounds the change log of a rating that is re-rated faster than the outbox drains it
+	private static final int MAX_PENDING_CHANGES = 20;
+
 	@Autowired
 	RatingRepository repo;
 
 	@Autowired
-	WatchlistRepository wRepo;
+	MongoTemplate mongoTemplate;
 
 	@Autowired
-	SharedWatchlistRepository swRepo;
-
-	public Rating createRating(Rating rating, String userId) {
-		Watchlist w = wRepo.findByUserId(userId);
-		List<SharedWatchlist> swl = swRepo.findByUserId(userId);
-
-		if (w == null) {
-			Watchlist nw = new Watchlist();
-			nw.setUserId(userId);
-			nw.setMovies(new HashMap<String, WatchlistEntry>());
-			wRepo.save(nw);
-		} else if (w.getMovies().containsKey(rating.getImdbId())) {
-			WatchlistEntry we = w.getMovies().get(rating.getImdbId());
-			we.setRating(rating.getRating());
-			we.setWatched(true);
-			w.getMovies().put(rating.getImdbId(), we);
-			wRepo.save(w);
-		}
+	RecommendationService recommendations;
 
-		for (SharedWatchlist sw : swl) {
-			Map<String, SharedWatchlistEntry> entries = sw.getMovies();
-			if (entries.containsKey(rating.getImdbId())) {
-				SharedWatchlistEntry swle = entries.get(rating.getImdbId());
-				swle.getRatings().put(userId, rating.getRating());
-				if (swle.getRatings().size() == sw.getUserIds().size()) {
-					swle.setWatched(true);
-				}
-				entries.put(rating.getImdbId(), swle);
-				sw.setMovies(entries);
-				swRepo.save(sw);
-			}
-		}
+	@Autowired
+	CompatibilityService compatibility;
 
-		Rating r = repo.findByUserIdAndImdbId(userId, rating.getImdbId());
+	public Rating createRating(Rating rating, String userId) {
+		ImdbIds.require(rating.getImdbId());
+		// Single write: the rating and its pending propagation to the watchlists are committed
+		// together and RatingOutboxDispatcher applies the propagation in the background
+		Query query = new Query(Criteria.where("userId").is(userId).and("imdbId").is(rating.getImdbId()));
+		LocalDateTime now = LocalDateTime.now();
+		Update update = new Update()
+				.set("rating", rating.getRating())
+				.set("lastUpdated", now)
+				.set("propagationPending", true)
+				.unset("propagationAttempts")
+				.unset("propagationRetryAt")
+				.unset("propagationFailed");
+		update.push("pendingChanges").slice(-MAX_PENDING_CHANGES).each(new RatingChange(rating.getRating(), now));
+		Rating saved = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().upsert(true).returnNew(true), Rating.class);
+
+		recommendations.recordRating(userId, rating.getImdbId(), rating.getRating());
+		compatibility.invalidate(userId);
+		return saved;
+	}
 
-		if (r != null) {
-			r.setRating(rating.getRating());
-			r.setLastUpdated(LocalDateTime.now());
-			repo.save(r);
-			return r;
+	/**
+	 * Applies several ratings of one user in order with a single bulk write.
+	 * Ratings of the same movie end in the last value and keep every change in
+	 * the history.
+	 */
+	public void createRatings(List<Rating> ratings, String userId) {
+		ratings.forEach(rating -> ImdbIds.require(rating.getImdbId()));
+		Map<String, List<RatingChange>> changes = new LinkedHashMap<>();
+		LocalDateTime now = LocalDateTime.now();
+		for (Rating rating : ratings) {
+			changes.computeIfAbsent(rating.getImdbId(), imdbId -> new ArrayList<>()).add(new RatingChange(rating.getRating(), now));
 		}
 
-		rating.setUserId(userId);
-		rating.setLastUpdated(LocalDateTime.now());
-		return repo.save(rating);
+		BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Rating.class);
+		changes.forEach((imdbId, movieChanges) -> {
+			Update update = new Update()
+					.set("rating", movieChanges.get(movieChanges.size() - 1).getRating())
+					.set("lastUpdated", now)
+					.set("propagationPending", true)
+					.unset("propagationAttempts")
+					.unset("propagationRetryAt")
+					.unset("propagationFailed");
+			update.push("pendingChanges").slice(-MAX_PENDING_CHANGES).each(movieChanges.toArray());
+			bulk.upsert(new Query(Criteria.where("userId").is(userId).and("imdbId").is(imdbId)), update);
+		});
+		bulk.execute();
+
+		changes.forEach((imdbId, movieChanges) ->
+				recommendations.recordRating(userId, imdbId, movieChanges.get(movieChanges.size() - 1).getRating()));
+		compatibility.invalidate(userId);
 	}
 
 	public Rating getRatingByImdbId(String imdbId, String id) {
@@ -82,4 +100,11 @@ public class RatingService {
 		return repo.findByUserId(id);
 	}
 
+	public List<Rating> getAllRated(String id, FieldSelection fields) {
+		if (fields.isAll()) {
+			return getAllRated(id);
+		}
+		return mongoTemplate.find(fields.applyTo(new Query(Criteria.where("userId").is(id))), Rating.class);
+	}
+
 }
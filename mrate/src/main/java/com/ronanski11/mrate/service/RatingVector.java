@@ -0,0 +1,105 @@
+package com.ronanski11.mrate.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.dto.Compatibility;
+
+/**
+ * A user's ratings as parallel primitive arrays sorted by the numeric part of
+ * the imdb id, so two users can be compared with a single merge pass.
+ */
+final class RatingVector {
+
+	static final RatingVector EMPTY = new RatingVector(new int[0], new float[0]);
+
+	private final int[] ids;
+
+	private final float[] scores;
+
+	private RatingVector(int[] ids, float[] scores) {
+		this.ids = ids;
+		this.scores = scores;
+	}
+
+	static RatingVector of(List<Rating> ratings) {
+		long[] packed = new long[ratings.size()];
+		int n = 0;
+		for (Rating rating : ratings) {
+			int id = numericId(rating.getImdbId());
+			if (id >= 0 && rating.getRating() != null) {
+				packed[n++] = ((long) id << 32) | (Float.floatToIntBits(rating.getRating().floatValue()) & 0xffffffffL);
+			}
+		}
+		Arrays.sort(packed, 0, n);
+		int[] ids = new int[n];
+		float[] scores = new float[n];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			int id = (int) (packed[i] >>> 32);
+			if (size > 0 && ids[size - 1] == id) {
+				continue;
+			}
+			ids[size] = id;
+			scores[size] = Float.intBitsToFloat((int) packed[i]);
+			size++;
+		}
+		return new RatingVector(Arrays.copyOf(ids, size), Arrays.copyOf(scores, size));
+	}
+
+	static int numericId(String imdbId) {
+		if (imdbId == null || imdbId.length() < 3 || imdbId.length() > 11 || !imdbId.startsWith("tt")) {
+			return -1;
+		}
+		int id = 0;
+		for (int i = 2; i < imdbId.length(); i++) {
+			char c = imdbId.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			id = id * 10 + (c - '0');
+		}
+		return id;
+	}
+
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Pearson correlation and overlap over the movies both vectors rated. The
+	 * correlation is null with fewer than two co-rated movies or when either
+	 * side rated all of them identically.
+	 */
+	Compatibility compareTo(RatingVector other, String otherUserId) {
+		int i = 0, j = 0, n = 0;
+		double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+		while (i < ids.length && j < other.ids.length) {
+			if (ids[i] < other.ids[j]) {
+				i++;
+			} else if (ids[i] > other.ids[j]) {
+				j++;
+			} else {
+				double x = scores[i++];
+				double y = other.scores[j++];
+				n++;
+				sx += x;
+				sy += y;
+				sxx += x * x;
+				syy += y * y;
+				sxy += x * y;
+			}
+		}
+		Double correlation = null;
+		if (n >= 2) {
+			double varX = n * sxx - sx * sx;
+			double varY = n * syy - sy * sy;
+			if (varX > 1e-9 && varY > 1e-9) {
+				correlation = Math.max(-1.0, Math.min(1.0, (n * sxy - sx * sy) / Math.sqrt(varX * varY)));
+			}
+		}
+		return new Compatibility(otherUserId, n, correlation);
+	}
+
+}
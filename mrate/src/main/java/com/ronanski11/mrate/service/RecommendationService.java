@@ -0,0 +1,209 @@
+package com.ronanski11.mrate.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.dto.Recommendation;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves item-based recommendations from an in-memory {@link ItemSimilarityModel}.
+ * The model is rebuilt from the Rating collection once it is older than the
+ * rebuild interval, with neighbour rows computed on a dedicated fork-join pool.
+ * New ratings are applied to serving immediately and folded into the model
+ * between rebuilds. A snapshot written after each rebuild lets a restarted node
+ * serve at once and only fold in ratings newer than the snapshot.
+ */
+@Slf4j
+@Service
+public class RecommendationService {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Value("${mrate.recommendations.neighbours:50}")
+	int neighbourCount;
+
+	@Value("${mrate.recommendations.min-co-raters:2}")
+	int minCoRaters;
+
+	@Value("${mrate.recommendations.rebuild-interval:PT6H}")
+	Duration rebuildInterval;
+
+	@Value("${mrate.recommendations.snapshot:${java.io.tmpdir}/mrate-recommendations.snapshot}")
+	Path snapshot;
+
+	@Value("${mrate.recommendations.parallelism:0}")
+	int parallelism;
+
+	private volatile ItemSimilarityModel model;
+
+	private final Map<String, Map<String, Float>> pending = new ConcurrentHashMap<>();
+
+	private final ReentrantLock modelLock = new ReentrantLock();
+
+	private ForkJoinPool pool;
+
+	@PostConstruct
+	void init() {
+		pool = new ForkJoinPool(parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	@PreDestroy
+	void shutdown() {
+		pool.shutdownNow();
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadSnapshot() {
+		pool.execute(() -> {
+			if (!Files.isReadable(snapshot)) {
+				return;
+			}
+			modelLock.lock();
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshot))))) {
+				ItemSimilarityModel loaded = ItemSimilarityModel.readFrom(in);
+				model = loaded;
+				log.info("Loaded recommendation snapshot with {} items", loaded.size());
+				enqueueRatingsSince(loaded.builtAt);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Could not load recommendation snapshot {}: {}", snapshot, e.getMessage());
+			} finally {
+				modelLock.unlock();
+			}
+		});
+	}
+
+	public void recordRating(String userId, String imdbId, Double rating) {
+		if (rating == null) {
+			// A cleared rating only leaves the model on the next rebuild
+			Map<String, Float> ratings = pending.get(userId);
+			if (ratings != null) {
+				ratings.remove(imdbId);
+			}
+			return;
+		}
+		// Inside compute so that fold cannot drop the map between lookup and put
+		pending.compute(userId, (id, ratings) -> {
+			Map<String, Float> updated = ratings != null ? ratings : new ConcurrentHashMap<>();
+			updated.put(imdbId, rating.floatValue());
+			return updated;
+		});
+	}
+
+	public List<Recommendation> recommend(String userId, int limit) {
+		ItemSimilarityModel current = model;
+		if (current == null) {
+			return List.of();
+		}
+		Map<String, Float> ratings = current.ratingsOf(userId);
+		ratings.putAll(pending.getOrDefault(userId, Map.of()));
+		return current.recommend(ratings, ratings.keySet(), limit);
+	}
+
+	@Scheduled(initialDelayString = "${mrate.recommendations.initial-delay:PT1M}", fixedDelayString = "${mrate.recommendations.check-interval:PT10M}")
+	public void rebuild() {
+		ItemSimilarityModel current = model;
+		if (current != null && System.currentTimeMillis() - current.builtAt < rebuildInterval.toMillis()) {
+			return;
+		}
+		modelLock.lock();
+		try {
+			long started = System.currentTimeMillis();
+			Query query = new Query(Criteria.where("rating").ne(null));
+			query.fields().include("userId", "imdbId", "rating");
+			ItemSimilarityModel built;
+			try (Stream<Rating> ratings = mongoTemplate.stream(query, Rating.class)) {
+				built = ItemSimilarityModel.build(ratings.iterator(), neighbourCount, minCoRaters, pool);
+			}
+			model = built;
+			log.info("Rebuilt recommendation model with {} items in {} ms", built.size(), System.currentTimeMillis() - started);
+			writeSnapshot(built);
+		} catch (RuntimeException e) {
+			log.warn("Recommendation rebuild failed: {}", e.getMessage());
+		} finally {
+			modelLock.unlock();
+		}
+		fold();
+	}
+
+	@Scheduled(fixedDelayString = "${mrate.recommendations.fold-interval:PT2M}")
+	public void fold() {
+		if (model == null || pending.isEmpty() || !modelLock.tryLock()) {
+			return;
+		}
+		try {
+			Map<String, Map<String, Float>> updates = new HashMap<>();
+			pending.forEach((userId, ratings) -> updates.put(userId, new HashMap<>(ratings)));
+			model = model.withRatings(updates, pool);
+			// Only once the model serves them, and ratings changed since the copy stay pending for the next fold
+			updates.forEach((userId, taken) -> pending.computeIfPresent(userId, (id, ratings) -> {
+				taken.forEach((imdbId, rating) -> ratings.remove(imdbId, rating));
+				return ratings.isEmpty() ? null : ratings;
+			}));
+		} catch (RuntimeException e) {
+			log.warn("Folding ratings into recommendation model failed: {}", e.getMessage());
+		} finally {
+			modelLock.unlock();
+		}
+	}
+
+	private void enqueueRatingsSince(long builtAt) {
+		LocalDateTime since = LocalDateTime.ofInstant(Instant.ofEpochMilli(builtAt), ZoneId.systemDefault());
+		Query query = new Query(Criteria.where("lastUpdated").gte(since));
+		query.fields().include("userId", "imdbId", "rating");
+		try (Stream<Rating> ratings = mongoTemplate.stream(query, Rating.class)) {
+			ratings.filter(r -> r.getRating() != null)
+					.forEach(r -> recordRating(r.getUserId(), r.getImdbId(), r.getRating()));
+		}
+	}
+
+	private void writeSnapshot(ItemSimilarityModel built) {
+		try {
+			Files.createDirectories(snapshot.toAbsolutePath().getParent());
+			Path temp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), "recommendations", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+				built.writeTo(out);
+			}
+			Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Could not write recommendation snapshot {}: {}", snapshot, e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.ronanski11.mrate.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.SharedWatchlistBucket;
+import com.ronanski11.mrate.model.SharedWatchlistEntry;
+
+/**
+ * Entry operations for shared watchlists in {@link com.ronanski11.mrate.model.StorageMode#BUCKETED}
+ * mode. Each write touches a single bucket document; counters and
+ * {@code lastUpdated} on the watchlist itself are maintained by the caller.
+ */
+@Service
+public class SharedWatchlistBucketStore {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	/**
+	 * Fills {@code movies} and {@code removedMovies} of the bucketed watchlists
+	 * in the list from their buckets, with one query for all of them.
+	 */
+	public void hydrate(List<SharedWatchlist> watchlists) {
+		Map<String, SharedWatchlist> bucketed = watchlists.stream()
+				.filter(SharedWatchlist::isBucketed)
+				.collect(Collectors.toMap(SharedWatchlist::getId, watchlist -> watchlist, (a, b) -> a));
+		if (bucketed.isEmpty()) {
+			return;
+		}
+		bucketed.values().forEach(watchlist -> {
+			watchlist.setMovies(new HashMap<>());
+			watchlist.setRemovedMovies(new HashMap<>());
+		});
+		Query query = new Query(Criteria.where("watchlistId").in(bucketed.keySet()));
+		for (SharedWatchlistBucket bucket : mongoTemplate.find(query, SharedWatchlistBucket.class)) {
+			SharedWatchlist watchlist = bucketed.get(bucket.getWatchlistId());
+			watchlist.getMovies().putAll(bucket.getMovies());
+			if (bucket.getRemovedMovies() != null) {
+				watchlist.getRemovedMovies().putAll(bucket.getRemovedMovies());
+			}
+		}
+	}
+
+	public boolean add(SharedWatchlist watchlist, String imdbId, Document entry, LocalDateTime now) {
+		return update(watchlist, imdbId, false,
+				SharedWatchlistEntryUpdates.add(imdbId, entry, watchlist.getUserIds(), now));
+	}
+
+	public boolean remove(SharedWatchlist watchlist, String imdbId, LocalDateTime now) {
+		return update(watchlist, imdbId, true, SharedWatchlistEntryUpdates.remove(imdbId, now));
+	}
+
+	public boolean rate(SharedWatchlist watchlist, String imdbId, String userId, Double rating, LocalDateTime now) {
+		return mongoTemplate.updateFirst(entryQuery(watchlist, imdbId, true),
+				SharedWatchlistEntryUpdates.rate("movies", imdbId, userId, rating, watchlist.getUserIds(), now),
+				SharedWatchlistBucket.class).getMatchedCount() > 0;
+	}
+
+	/**
+	 * Applies {@link SharedWatchlistEntryUpdates#change} to every bucket holding
+	 * one of the ids, one write per bucket.
+	 *
+	 * @return the ids that existed before the change
+	 */
+	public Set<String> change(SharedWatchlist watchlist, Collection<String> added, Document entry, Collection<String> removed,
+			LocalDateTime now) {
+		Map<Integer, List<String>> addedByBucket = byBucket(added, watchlist.getBucketCount());
+		Map<Integer, List<String>> removedByBucket = byBucket(removed, watchlist.getBucketCount());
+		Set<Integer> touched = new TreeSet<>(addedByBucket.keySet());
+		touched.addAll(removedByBucket.keySet());
+
+		Set<String> existing = new HashSet<>();
+		for (int index : touched) {
+			List<String> bucketAdded = addedByBucket.getOrDefault(index, List.of());
+			List<String> bucketRemoved = removedByBucket.getOrDefault(index, List.of());
+			Query query = new Query(Criteria.where("id").is(SharedWatchlistBucket.id(watchlist.getId(), index)));
+			SharedWatchlistEntryUpdates.projectExisting(query, bucketAdded);
+			SharedWatchlistEntryUpdates.projectExisting(query, bucketRemoved);
+			SharedWatchlistBucket before = mongoTemplate.findAndModify(query,
+					AggregationUpdate.from(SharedWatchlistEntryUpdates.change(bucketAdded, entry, bucketRemoved, watchlist.getUserIds(), now)),
+					SharedWatchlistBucket.class);
+			if (before != null && before.getMovies() != null) {
+				existing.addAll(before.getMovies().keySet());
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Recomputes the aggregates of all entries from the watchlist's members, in
+	 * one command over all buckets.
+	 *
+	 * @param driftedOnly only rewrite buckets whose aggregates are out of date
+	 * @return the number of buckets that changed
+	 */
+	public long recompute(SharedWatchlist watchlist, boolean driftedOnly, LocalDateTime now) {
+		Criteria criteria = Criteria.where("watchlistId").is(watchlist.getId());
+		if (driftedOnly) {
+			Document drifted = SharedWatchlistEntryUpdates.drifted(watchlist.getUserIds());
+			criteria = new Criteria().andOperator(criteria, Criteria.expr(() -> drifted));
+		}
+		return mongoTemplate.updateMulti(new Query(criteria), AggregationUpdate.from(List.of(
+				SharedWatchlistEntryUpdates.recomputeAll(watchlist.getUserIds(), now),
+				Aggregation.stage(new Document("$set", new Document("lastUpdated", SharedWatchlistEntryUpdates.toDate(now)))))),
+				SharedWatchlistBucket.class).getModifiedCount();
+	}
+
+	private static Map<Integer, List<String>> byBucket(Collection<String> imdbIds, int bucketCount) {
+		return imdbIds.stream().collect(Collectors.groupingBy(imdbId -> SharedWatchlistBucket.bucketOf(imdbId, bucketCount)));
+	}
+
+	/**
+	 * Replaces all buckets of a watchlist with the given entries. Empty buckets
+	 * are written too, so every bucket exists once a list is bucketed.
+	 */
+	public void write(String watchlistId, int bucketCount, Map<String, SharedWatchlistEntry> movies,
+			Map<String, LocalDateTime> removedMovies, LocalDateTime now) {
+		List<SharedWatchlistBucket> buckets = new ArrayList<>(bucketCount);
+		for (int i = 0; i < bucketCount; i++) {
+			SharedWatchlistBucket bucket = new SharedWatchlistBucket();
+			bucket.setId(SharedWatchlistBucket.id(watchlistId, i));
+			bucket.setWatchlistId(watchlistId);
+			bucket.setLastUpdated(now);
+			buckets.add(bucket);
+		}
+		movies.forEach((imdbId, entry) -> buckets.get(SharedWatchlistBucket.bucketOf(imdbId, bucketCount)).getMovies().put(imdbId, entry));
+		if (removedMovies != null) {
+			removedMovies.forEach((imdbId, removedAt) -> buckets.get(SharedWatchlistBucket.bucketOf(imdbId, bucketCount))
+					.getRemovedMovies().put(imdbId, removedAt));
+		}
+
+		BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SharedWatchlistBucket.class);
+		for (SharedWatchlistBucket bucket : buckets) {
+			bulk.replaceOne(new Query(Criteria.where("id").is(bucket.getId())), bucket, FindAndReplaceOptions.options().upsert());
+		}
+		bulk.execute();
+	}
+
+	public void delete(String watchlistId) {
+		mongoTemplate.remove(new Query(Criteria.where("watchlistId").is(watchlistId)), SharedWatchlistBucket.class);
+	}
+
+	private boolean update(SharedWatchlist watchlist, String imdbId, boolean exists, List<AggregationOperation> stages) {
+		return mongoTemplate.updateFirst(entryQuery(watchlist, imdbId, exists), AggregationUpdate.from(stages),
+				SharedWatchlistBucket.class).getMatchedCount() > 0;
+	}
+
+	private static Query entryQuery(SharedWatchlist watchlist, String imdbId, boolean exists) {
+		String bucketId = SharedWatchlistBucket.id(watchlist.getId(),
+				SharedWatchlistBucket.bucketOf(imdbId, watchlist.getBucketCount()));
+		return new Query(Criteria.where("id").is(bucketId).and("movies." + imdbId).exists(exists));
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.ronanski11.mrate.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.StorageMode;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds shared watchlist entries whose aggregates (unrated members, watched,
+ * rating summary) no longer match their ratings and the current members, and
+ * recomputes them. Drift can be left by membership changes racing on bucketed
+ * lists or by writes from before aggregates were maintained. Lists are
+ * checked in batches; the comparison runs in the database, so only drifted
+ * documents are written and nothing is loaded into the application.
+ */
+@Slf4j
+@Service
+public class SharedWatchlistConsistencyChecker {
+
+	private static final String[] FIELDS = { "id", "userIds", "storageMode", "bucketCount", "lastUpdated" };
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	SharedWatchlistBucketStore buckets;
+
+	@Autowired
+	CacheInvalidationBus invalidations;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Value("${mrate.shared-watchlists.check-batch-size:200}")
+	int batchSize;
+
+	private Counter drift;
+
+	@PostConstruct
+	void registerMetrics() {
+		drift = Counter.builder("mrate.shared-watchlists.drift")
+				.description("Shared watchlist documents with out of date entry aggregates, repaired by the consistency check")
+				.register(meterRegistry);
+	}
+
+	@Scheduled(initialDelayString = "${mrate.shared-watchlists.check-initial-delay:PT15M}", fixedDelayString = "${mrate.shared-watchlists.check-interval:PT6H}")
+	public void checkAll() {
+		String last = null;
+		int checked = 0;
+		long repaired = 0;
+		try {
+			while (true) {
+				Query page = new Query(last == null ? new Criteria() : Criteria.where("id").gt(last))
+						.with(Sort.by("id"))
+						.limit(batchSize);
+				page.fields().include(FIELDS);
+				List<SharedWatchlist> watchlists = mongoTemplate.find(page, SharedWatchlist.class);
+				if (watchlists.isEmpty()) {
+					break;
+				}
+				repaired += check(watchlists);
+				checked += watchlists.size();
+				last = watchlists.get(watchlists.size() - 1).getId();
+			}
+		} catch (RuntimeException e) {
+			log.warn("Shared watchlist consistency check stopped after {} lists: {}", checked, e.getMessage());
+			return;
+		}
+		log.info("Checked {} shared watchlists, repaired {} documents", checked, repaired);
+	}
+
+	public long check(String watchlistId) {
+		SharedWatchlist watchlist = load(watchlistId);
+		if (watchlist == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+		}
+		return check(List.of(watchlist));
+	}
+
+	/**
+	 * @return the number of watchlist and bucket documents that were repaired
+	 */
+	long check(List<SharedWatchlist> watchlists) {
+		LocalDateTime now = LocalDateTime.now();
+		List<String> ids = watchlists.stream().map(SharedWatchlist::getId).toList();
+
+		// Embedded lists of the batch in one command, each against its own members
+		Query embedded = new Query(new Criteria().andOperator(
+				Criteria.where("id").in(ids).and("storageMode").ne(StorageMode.BUCKETED),
+				Criteria.expr(() -> SharedWatchlistEntryUpdates.drifted("$userIds"))));
+		long repaired = mongoTemplate.updateMulti(embedded, AggregationUpdate.from(List.of(
+				SharedWatchlistEntryUpdates.recomputeAll("$userIds", now),
+				Aggregation.stage(new Document("$set", new Document("lastUpdated", SharedWatchlistEntryUpdates.toDate(now)))))),
+				SharedWatchlist.class).getModifiedCount();
+		if (repaired > 0) {
+			watchlists.stream().filter(watchlist -> !watchlist.isBucketed())
+					.forEach(watchlist -> invalidations.publish(SharedWatchlistService.WATCHLIST_CACHE, watchlist.getId()));
+		}
+
+		for (SharedWatchlist watchlist : watchlists) {
+			if (!watchlist.isBucketed()) {
+				continue;
+			}
+			SharedWatchlist current = load(watchlist.getId());
+			if (current == null || !current.isBucketed() || !Objects.equals(current.getLastUpdated(), watchlist.getLastUpdated())) {
+				// Changed since the batch was read; a membership change recomputes the buckets itself
+				continue;
+			}
+			long bucketsRepaired = buckets.recompute(current, true, now);
+			if (bucketsRepaired > 0) {
+				invalidations.publish(SharedWatchlistService.WATCHLIST_CACHE, watchlist.getId());
+			}
+			repaired += bucketsRepaired;
+		}
+		if (repaired > 0) {
+			drift.increment(repaired);
+		}
+		return repaired;
+	}
+
+	private SharedWatchlist load(String watchlistId) {
+		Query query = new Query(Criteria.where("id").is(watchlistId));
+		query.fields().include(FIELDS);
+		return mongoTemplate.findOne(query, SharedWatchlist.class);
+	}
+
+}
@@ -0,0 +1,211 @@
+package com.ronanski11.mrate.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.ronanski11.mrate.util.ImdbIds;
+
+/**
+ * Pipeline updates that change a shared watchlist entry and recompute its group
+ * aggregates (count, average, min, max, unrated members, watched) inside the
+ * same single-document write. Members are given either as a field path of the
+ * updated document, such as {@code $userIds}, or as a literal list of ids.
+ */
+public final class SharedWatchlistEntryUpdates {
+
+	private SharedWatchlistEntryUpdates() {
+	}
+
+	static AggregationUpdate rate(String entriesField, String imdbId, String userId, Double rating, Object members,
+			LocalDateTime now) {
+		String entry = entriesField + "." + ImdbIds.require(imdbId);
+		List<AggregationOperation> stages = new ArrayList<>();
+		stages.add(Aggregation.stage(new Document("$set", new Document(entry + ".ratings." + userId, new Document("$literal", rating))
+				.append(entry + ".lastModified", toDate(now))
+				.append("lastUpdated", toDate(now)))));
+		stages.add(recompute(entry, members));
+		return AggregationUpdate.from(stages);
+	}
+
+	/**
+	 * Adds an entry and clears its tombstone. Callers filter on the entry not
+	 * existing yet so concurrent adds of the same movie are a no-op.
+	 */
+	static List<AggregationOperation> add(String imdbId, Document entry, Object members, LocalDateTime now) {
+		String path = "movies." + ImdbIds.require(imdbId);
+		List<AggregationOperation> stages = new ArrayList<>();
+		stages.add(Aggregation.stage(new Document("$set", new Document(path, new Document("$literal", entry))
+				.append("lastUpdated", toDate(now)))));
+		stages.add(Aggregation.stage(new Document("$unset", "removedMovies." + imdbId)));
+		stages.add(recompute(path, members));
+		return stages;
+	}
+
+	/**
+	 * Removes an entry, records its tombstone and prunes tombstones past the
+	 * delta-sync retention.
+	 */
+	static List<AggregationOperation> remove(String imdbId, LocalDateTime now) {
+		ImdbIds.require(imdbId);
+		Document tombstones = new Document("$objectToArray", new Document("$ifNull", List.of("$removedMovies", new Document())));
+		Document retained = new Document("$arrayToObject", new Document("$filter", new Document("input", tombstones)
+				.append("cond", new Document("$gte", List.of("$$this.v", toDate(now.minus(DeltaSyncService.TOMBSTONE_RETENTION)))))));
+		List<AggregationOperation> stages = new ArrayList<>();
+		stages.add(Aggregation.stage(new Document("$unset", "movies." + imdbId)));
+		stages.add(Aggregation.stage(new Document("$set", new Document("removedMovies", retained))));
+		stages.add(Aggregation.stage(new Document("$set", new Document("removedMovies." + imdbId, toDate(now))
+				.append("lastUpdated", toDate(now)))));
+		return stages;
+	}
+
+	/**
+	 * Removes and adds several entries in one update. Only entries that exist
+	 * are removed and given a tombstone, only missing entries are added, so the
+	 * previous state of the document tells the caller which ids changed.
+	 */
+	static List<AggregationOperation> change(Collection<String> added, Document entry, Collection<String> removed,
+			Object members, LocalDateTime now) {
+		Document tombstones = new Document("$objectToArray", new Document("$ifNull", List.of("$removedMovies", new Document())));
+		Document retained = new Document("$arrayToObject", new Document("$filter", new Document("input", tombstones)
+				.append("cond", new Document("$gte", List.of("$$this.v", toDate(now.minus(DeltaSyncService.TOMBSTONE_RETENTION)))))));
+		List<AggregationOperation> stages = new ArrayList<>();
+		stages.add(Aggregation.stage(new Document("$set", new Document("removedMovies", retained)
+				.append("lastUpdated", toDate(now)))));
+
+		if (!removed.isEmpty()) {
+			Document marked = new Document();
+			List<String> paths = new ArrayList<>();
+			for (String imdbId : removed) {
+				Document exists = new Document("$ne", List.of(new Document("$type", "$movies." + imdbId), "missing"));
+				marked.append("removedMovies." + imdbId, new Document("$cond",
+						List.of(exists, toDate(now), new Document("$ifNull", List.of("$removedMovies." + imdbId, "$$REMOVE")))));
+				paths.add("movies." + imdbId);
+			}
+			stages.add(Aggregation.stage(new Document("$set", marked)));
+			stages.add(Aggregation.stage(new Document("$unset", paths)));
+		}
+
+		if (!added.isEmpty()) {
+			Document inserted = new Document();
+			Document recomputed = new Document();
+			List<String> cleared = new ArrayList<>();
+			for (String imdbId : added) {
+				inserted.append("movies." + imdbId, new Document("$ifNull", List.of("$movies." + imdbId, new Document("$literal", entry))));
+				recomputed.append("movies." + imdbId, aggregated("$movies." + imdbId, members));
+				cleared.add("removedMovies." + imdbId);
+			}
+			stages.add(Aggregation.stage(new Document("$set", inserted)));
+			stages.add(Aggregation.stage(new Document("$unset", cleared)));
+			stages.add(Aggregation.stage(new Document("$set", recomputed)));
+		}
+		return stages;
+	}
+
+	/**
+	 * Projects the previous state of the given entries, enough to tell whether
+	 * they existed, for a find-and-modify around {@link #change}.
+	 */
+	static void projectExisting(Query query, Collection<String> imdbIds) {
+		imdbIds.forEach(imdbId -> query.fields().include("movies." + imdbId + ".addedDate"));
+	}
+
+	/**
+	 * Stage that sets {@code movieCount} from the size of the movies map.
+	 */
+	static AggregationOperation count() {
+		return Aggregation.stage(new Document("$set", new Document("movieCount",
+				new Document("$size", new Document("$objectToArray", new Document("$ifNull", List.of("$movies", new Document())))))));
+	}
+
+	/**
+	 * Stage that recomputes the aggregates of one entry from its ratings map.
+	 */
+	static AggregationOperation recompute(String entry, Object members) {
+		return Aggregation.stage(new Document("$set", new Document(entry, aggregated("$" + entry, members))));
+	}
+
+	/**
+	 * Stage that recomputes the aggregates of every entry, for when the members
+	 * changed. Entries whose aggregates change get a new {@code lastModified} so
+	 * delta sync picks them up. A document without entries is left as it is.
+	 */
+	static AggregationOperation recomputeAll(Object members, LocalDateTime now) {
+		Document entries = new Document("$map", new Document("input", entries())
+				.append("as", "entry")
+				.append("in", new Document("$let", new Document("vars", new Document("updated", aggregated("$$entry.v", members)))
+						.append("in", new Document("k", "$$entry.k").append("v", new Document("$cond", List.of(changed(),
+								new Document("$mergeObjects", List.of("$$updated", new Document("lastModified", toDate(now)))),
+								"$$updated")))))));
+		return Aggregation.stage(new Document("$set", new Document("movies", new Document("$cond", List.of(
+				new Document("$eq", List.of(new Document("$type", "$movies"), "object")),
+				new Document("$arrayToObject", entries),
+				"$$REMOVE")))));
+	}
+
+	/**
+	 * Expression that is true if the aggregates of any entry differ from what
+	 * {@link #recomputeAll} would make them.
+	 */
+	static Document drifted(Object members) {
+		return new Document("$anyElementTrue", List.of(new Document("$map", new Document("input", entries())
+				.append("as", "entry")
+				.append("in", new Document("$let", new Document("vars", new Document("updated", aggregated("$$entry.v", members)))
+						.append("in", changed()))))));
+	}
+
+	private static Document entries() {
+		return new Document("$objectToArray", new Document("$ifNull", List.of("$movies", new Document())));
+	}
+
+	// Compares $$updated with $$entry.v; unrated members come out of a set operation in no particular order
+	private static Document changed() {
+		List<String> fields = List.of("ratingCount", "averageRating", "minRating", "maxRating", "watched");
+		return new Document("$or", List.of(
+				new Document("$ne", List.of(
+						fields.stream().map(field -> "$$updated." + field).toList(),
+						fields.stream().map(field -> "$$entry.v." + field).toList())),
+				new Document("$not", List.of(new Document("$setEquals", List.of(
+						"$$updated.unratedUserIds",
+						new Document("$ifNull", List.of("$$entry.v.unratedUserIds", List.of()))))))));
+	}
+
+	/**
+	 * Expression yielding the given entry with its aggregates recomputed.
+	 */
+	public static Document aggregated(String entryExpression, Object members) {
+		Document ratings = new Document("$objectToArray", new Document("$ifNull", List.of(entryExpression + ".ratings", new Document())));
+		Document vars = new Document("values", new Document("$map", new Document("input", ratings).append("in", "$$this.v")))
+				.append("raters", new Document("$map", new Document("input", ratings).append("in", "$$this.k")))
+				.append("members", new Document("$ifNull", List.of(membersExpression(members), List.of())));
+		Document aggregates = new Document("ratingCount", new Document("$size", "$$values"))
+				.append("averageRating", new Document("$avg", "$$values"))
+				.append("minRating", new Document("$min", "$$values"))
+				.append("maxRating", new Document("$max", "$$values"))
+				.append("unratedUserIds", new Document("$setDifference", List.of("$$members", "$$raters")))
+				.append("watched", new Document("$setIsSubset", List.of("$$members", "$$raters")));
+		return new Document("$let", new Document("vars", vars)
+				.append("in", new Document("$mergeObjects", List.of(entryExpression, aggregates))));
+	}
+
+	static Object membersExpression(Object members) {
+		if (members instanceof Collection<?> ids) {
+			return new Document("$literal", new ArrayList<>(ids));
+		}
+		return members;
+	}
+
+	static Date toDate(LocalDateTime time) {
+		return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+	}
+
+}
@@ -0,0 +1,353 @@
+package com.ronanski11.mrate.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ronanski11.mrate.model.dto.SharedWatchlistEvent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pushes shared watchlist changes to subscribed clients over SSE. Emitters are
+ * async requests, so idle subscribers hold a socket but no servlet thread.
+ * Events are queued per subscriber and written by a small pool of sender
+ * threads, one subscriber at a time per thread, which keeps publishers from
+ * blocking on slow clients and keeps events ordered per subscriber. A client
+ * too slow to keep up fills its bounded queue and is disconnected, so it cannot
+ * hold back the others. Each watchlist keeps its most recent events so
+ * reconnecting clients can resume from Last-Event-ID.
+ * <p>
+ * Events reach the subscribers of every instance through the
+ * {@link CacheInvalidationBus}. Event ids are numbered per instance, so a client
+ * that reconnects to another instance, or whose instance missed events, is told
+ * to resync instead. Subscribers belong to a user, and the user's streams are
+ * closed when they are removed from the watchlist.
+ */
+@Slf4j
+@Service
+public class SharedWatchlistEventBroadcaster {
+
+	private static final String RESYNC = "resync";
+
+	private static final String EVENTS = "shared-watchlist-events";
+
+	private final String node = new ObjectId().toHexString();
+
+	private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+	private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+	@Value("${mrate.sse.replay-size:256}")
+	private int replaySize;
+
+	@Value("${mrate.sse.queue-size:512}")
+	private int queueSize;
+
+	@Value("${mrate.sse.senders:4}")
+	private int senderCount;
+
+	@Value("${mrate.sse.timeout:PT30M}")
+	private Duration timeout;
+
+	@Value("${mrate.sse.idle-channel-ttl:PT10M}")
+	private Duration idleChannelTtl;
+
+	@Autowired
+	private CacheInvalidationBus invalidations;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private ExecutorService senders;
+
+	@PostConstruct
+	void init() {
+		senders = Executors.newFixedThreadPool(senderCount, r -> {
+			Thread thread = new Thread(r, "shared-watchlist-sse");
+			thread.setDaemon(true);
+			return thread;
+		});
+		invalidations.register(EVENTS, this::receive, this::resyncAll);
+	}
+
+	public SseEmitter subscribe(String watchlistId, String userId, String lastEventId) {
+		SseEmitter emitter = new SseEmitter(timeout.toMillis());
+		Subscriber subscriber = new Subscriber(emitter, userId, queueSize);
+		long after = parseEventId(lastEventId);
+		// Registered inside compute so that the idle channel cleanup cannot drop the channel in between
+		channels.compute(watchlistId, (id, existing) -> {
+			Channel target = existing != null ? existing : new Channel();
+			synchronized (target) {
+				// Passed the access check just before being removed
+				if (target.removed(userId)) {
+					subscriber.closed = true;
+					return target;
+				}
+				List<SharedWatchlistEvent> replay = after < 0 ? List.of() : target.since(after);
+				if (after >= 0 && (!target.covers(after) || replay.size() >= queueSize)) {
+					subscriber.offer(resync());
+				} else {
+					replay.forEach(event -> subscriber.offer(toSse(event)));
+				}
+				target.subscribers.add(subscriber);
+				subscriber.channel = target;
+			}
+			return target;
+		});
+		if (subscriber.closed) {
+			emitter.complete();
+			return emitter;
+		}
+		emitter.onCompletion(() -> close(subscriber));
+		emitter.onTimeout(() -> close(subscriber));
+		emitter.onError(e -> close(subscriber));
+		schedule(subscriber);
+		return emitter;
+	}
+
+	/**
+	 * Sends the event to the watchlist's subscribers on this instance right away
+	 * and on the others once the bus has delivered it.
+	 */
+	public void publish(String watchlistId, SharedWatchlistEvent event) {
+		try {
+			invalidations.publish(EVENTS, objectMapper.writeValueAsString(new Relayed(watchlistId, event.getType(), event)));
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void receive(String relayed) {
+		Relayed received;
+		try {
+			received = objectMapper.readValue(relayed, Relayed.class);
+		} catch (JsonProcessingException e) {
+			log.warn("Dropping unreadable shared watchlist event: {}", e.getMessage());
+			return;
+		}
+		SharedWatchlistEvent event = received.event();
+		event.setType(received.type());
+		channels.compute(received.watchlistId(), (id, existing) -> {
+			Channel channel = existing != null ? existing : new Channel();
+			synchronized (channel) {
+				event.setId(sequence.incrementAndGet());
+				channel.append(event, replaySize);
+				if (SharedWatchlistEvent.MEMBER_REMOVED.equals(event.getType())) {
+					channel.subscribers.stream()
+							.filter(subscriber -> subscriber.userId.equals(event.getUserId()))
+							.forEach(subscriber -> {
+								close(subscriber);
+								schedule(subscriber);
+							});
+				}
+				channel.subscribers.forEach(subscriber -> enqueue(subscriber, toSse(event)));
+			}
+			return channel;
+		});
+	}
+
+	// Events went missing on the way from another instance, so no replay is complete anymore
+	private void resyncAll() {
+		for (String watchlistId : channels.keySet()) {
+			channels.computeIfPresent(watchlistId, (id, channel) -> {
+				synchronized (channel) {
+					channel.recent.clear();
+					channel.subscribers.forEach(subscriber -> enqueue(subscriber, resync()));
+				}
+				return channel;
+			});
+		}
+	}
+
+	@Scheduled(fixedRateString = "${mrate.sse.heartbeat:PT25S}")
+	public void heartbeat() {
+		long idleBefore = System.currentTimeMillis() - idleChannelTtl.toMillis();
+		for (String watchlistId : channels.keySet()) {
+			channels.computeIfPresent(watchlistId, (id, channel) ->
+					channel.subscribers.isEmpty() && channel.lastPublished < idleBefore ? null : channel);
+		}
+		channels.values().forEach(channel -> channel.subscribers
+				.forEach(subscriber -> enqueue(subscriber, SseEmitter.event().comment("heartbeat"))));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		senders.shutdownNow();
+		channels.values().forEach(channel -> channel.subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+	}
+
+	private void enqueue(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+		if (!subscriber.offer(event)) {
+			// Disconnected by its sender thread; the client resumes from Last-Event-ID
+			log.debug("Dropping SSE subscriber that fell {} events behind", queueSize);
+			close(subscriber);
+		}
+		schedule(subscriber);
+	}
+
+	private void close(Subscriber subscriber) {
+		subscriber.closed = true;
+		if (subscriber.channel != null) {
+			subscriber.channel.subscribers.remove(subscriber);
+		}
+	}
+
+	private void schedule(Subscriber subscriber) {
+		if (subscriber.draining.compareAndSet(false, true)) {
+			try {
+				senders.execute(() -> drain(subscriber));
+			} catch (RejectedExecutionException e) {
+				subscriber.draining.set(false);
+			}
+		}
+	}
+
+	private void drain(Subscriber subscriber) {
+		try {
+			SseEmitter.SseEventBuilder event;
+			while (!subscriber.closed && (event = subscriber.queue.poll()) != null) {
+				subscriber.emitter.send(event);
+			}
+			if (subscriber.closed) {
+				// Stays marked as draining, nothing is sent to it anymore
+				subscriber.emitter.complete();
+				return;
+			}
+		} catch (IOException | IllegalStateException e) {
+			log.debug("Dropping SSE subscriber: {}", e.getMessage());
+			close(subscriber);
+			subscriber.emitter.completeWithError(e);
+			return;
+		}
+		subscriber.draining.set(false);
+		if (subscriber.closed || !subscriber.queue.isEmpty()) {
+			schedule(subscriber);
+		}
+	}
+
+	private SseEmitter.SseEventBuilder toSse(SharedWatchlistEvent event) {
+		return SseEmitter.event().id(node + '-' + event.getId()).name(event.getType()).data(event);
+	}
+
+	private SseEmitter.SseEventBuilder resync() {
+		return SseEmitter.event().name(RESYNC).id(node + '-' + sequence.get()).data("{}");
+	}
+
+	// An id from another instance is not covered by any replay here and makes the client resync
+	private long parseEventId(String lastEventId) {
+		if (lastEventId == null || lastEventId.isBlank()) {
+			return -1;
+		}
+		String id = lastEventId.trim();
+		if (!id.startsWith(node + '-')) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(id.substring(node.length() + 1));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static class Subscriber {
+
+		private final SseEmitter emitter;
+
+		private final String userId;
+
+		// Builders are single use, so every subscriber gets its own
+		private final BlockingQueue<SseEmitter.SseEventBuilder> queue;
+
+		// Set while a sender thread owns the subscriber, so its events go out one at a time and in order
+		private final AtomicBoolean draining = new AtomicBoolean();
+
+		private volatile boolean closed;
+
+		private volatile Channel channel;
+
+		Subscriber(SseEmitter emitter, String userId, int capacity) {
+			this.emitter = emitter;
+			this.userId = userId;
+			this.queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		boolean offer(SseEmitter.SseEventBuilder event) {
+			return !closed && queue.offer(event);
+		}
+
+	}
+
+	private record Relayed(String watchlistId, String type, SharedWatchlistEvent event) {
+	}
+
+	private static class Channel {
+
+		private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+		private final ArrayDeque<SharedWatchlistEvent> recent = new ArrayDeque<>();
+
+		private volatile long lastPublished = System.currentTimeMillis();
+
+		void append(SharedWatchlistEvent event, int limit) {
+			recent.addLast(event);
+			while (recent.size() > limit) {
+				recent.removeFirst();
+			}
+			lastPublished = System.currentTimeMillis();
+		}
+
+		boolean covers(long lastEventId) {
+			return !recent.isEmpty() && recent.peekFirst().getId() <= lastEventId + 1;
+		}
+
+		// Whether the user's latest membership change still in the replay removed them
+		boolean removed(String userId) {
+			Iterator<SharedWatchlistEvent> events = recent.descendingIterator();
+			while (events.hasNext()) {
+				SharedWatchlistEvent event = events.next();
+				if (userId.equals(event.getUserId()) && (SharedWatchlistEvent.MEMBER_ADDED.equals(event.getType())
+						|| SharedWatchlistEvent.MEMBER_REMOVED.equals(event.getType()))) {
+					return SharedWatchlistEvent.MEMBER_REMOVED.equals(event.getType());
+				}
+			}
+			return false;
+		}
+
+		List<SharedWatchlistEvent> since(long lastEventId) {
+			List<SharedWatchlistEvent> events = new ArrayList<>();
+			for (SharedWatchlistEvent event : recent) {
+				if (event.getId() > lastEventId) {
+					events.add(event);
+				}
+			}
+			return events;
+		}
+
+	}
+
+}
@@ -1,30 +1,111 @@
 package com.ronanski11.mrate.service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import com.mongodb.client.result.UpdateResult;
+
 import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.SharedWatchlistBucket;
 import com.ronanski11.mrate.model.SharedWatchlistEntry;
+import com.ronanski11.mrate.model.StorageMode;
 import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.model.Watchlist;
+import com.ronanski11.mrate.model.dto.BulkMovieChange;
+import com.ronanski11.mrate.model.dto.SharedWatchlistEvent;
+import com.ronanski11.mrate.model.dto.SharedWatchlistMovie;
+import com.ronanski11.mrate.model.dto.SharedWatchlistPage;
+import com.ronanski11.mrate.model.dto.SharedWatchlistSummary;
+import com.ronanski11.mrate.model.dto.SyncDelta;
 import com.ronanski11.mrate.repository.SharedWatchlistRepository;
 import com.ronanski11.mrate.repository.UserRepository;
+import com.ronanski11.mrate.util.FieldSelection;
+import com.ronanski11.mrate.util.ImdbIds;
 
 @Service
 public class SharedWatchlistService {
     
+    static final String WATCHLIST_CACHE = "shared-watchlist";
+    
+    private static final String USER_WATCHLISTS_CACHE = "user-shared-watchlists";
+    
+    private static final int MAX_BULK_MOVIES = 2000;
+    
+    // Keeps a single pipeline update well below the document size limits
+    private static final int BULK_CHUNK_SIZE = 500;
+    
+    
     @Autowired
     private SharedWatchlistRepository repository;
     
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private DeltaSyncService deltaSync;
+    
+    @Autowired
+    private SharedWatchlistEventBroadcaster events;
+    
+    @Autowired
+    private SharedWatchlistBucketStore buckets;
+    
+    @Autowired
+    private StaleFallback stale;
+    
+    @Autowired
+    private CacheInvalidationBus invalidations;
+    
     public List<SharedWatchlist> getUserSharedWatchlists(String userId) {
-        return repository.findByUserId(userId);
+        return stale.read(USER_WATCHLISTS_CACHE, userId, () -> {
+            List<SharedWatchlist> watchlists = repository.findByUserId(userId);
+            buckets.hydrate(watchlists);
+            return watchlists;
+        });
+    }
+    
+    public List<SharedWatchlist> getUserSharedWatchlists(String userId, FieldSelection fields) {
+        if (fields.isAll()) {
+            return getUserSharedWatchlists(userId);
+        }
+        List<SharedWatchlist> watchlists = mongoTemplate.find(selecting(fields, new Query(Criteria.where("userIds").is(userId))), SharedWatchlist.class);
+        if (hydrates(fields)) {
+            buckets.hydrate(watchlists);
+        }
+        return watchlists;
+    }
+    
+    public boolean shareWatchlist(String userId, String otherUserId) {
+        return mongoTemplate.exists(new Query(Criteria.where("userIds").all(userId, otherUserId)), SharedWatchlist.class);
+    }
+    
+    public List<SharedWatchlistSummary> getUserSharedWatchlistSummaries(String userId) {
+        return repository.findSummariesByUserId(userId);
     }
     
     public SharedWatchlist createSharedWatchlist(SharedWatchlist watchlist, String userId, String username) {
@@ -40,6 +121,7 @@ public class SharedWatchlistService {
         if (watchlist.getMovies() == null) {
             watchlist.setMovies(new HashMap<>());
         }
+        watchlist.setMovieCount(watchlist.getMovies().size());
         
         // Save watchlist
         SharedWatchlist savedWatchlist = repository.save(watchlist);
@@ -55,25 +137,53 @@ public class SharedWatchlistService {
         }
         
         userRepository.save(user);
+        invalidations.publish(USER_WATCHLISTS_CACHE, userId);
         
         return savedWatchlist;
     }
     
     public SharedWatchlist getSharedWatchlist(String watchlistId) {
-        return repository.findById(watchlistId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found"));
+        return stale.read(WATCHLIST_CACHE, watchlistId, () -> {
+            SharedWatchlist watchlist = repository.findById(watchlistId)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found"));
+            buckets.hydrate(List.of(watchlist));
+            return watchlist;
+        });
+    }
+    
+    public SharedWatchlist getSharedWatchlist(String watchlistId, FieldSelection fields) {
+        if (fields.isAll()) {
+            return getSharedWatchlist(watchlistId);
+        }
+        SharedWatchlist watchlist = mongoTemplate.findOne(selecting(fields, new Query(Criteria.where("id").is(watchlistId))), SharedWatchlist.class);
+        if (watchlist == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+        }
+        if (hydrates(fields)) {
+            buckets.hydrate(List.of(watchlist));
+        }
+        return watchlist;
+    }
+    
+    public SyncDelta<SharedWatchlistEntry> syncSharedWatchlist(String watchlistId, String since) {
+        if (getStorage(watchlistId).isBucketed()) {
+            return deltaSync.sync(Criteria.where("watchlistId").is(watchlistId), SharedWatchlistBucket.class, SharedWatchlistEntry.class, since);
+        }
+        return deltaSync.sync(Criteria.where("id").is(watchlistId), SharedWatchlist.class, SharedWatchlistEntry.class, since);
     }
     
     public SharedWatchlist updateSharedWatchlist(String watchlistId, SharedWatchlist updatedWatchlist) {
-        SharedWatchlist existingWatchlist = repository.findById(watchlistId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found"));
-        
-        // Update fields
-        existingWatchlist.setName(updatedWatchlist.getName());
-        existingWatchlist.setDescription(updatedWatchlist.getDescription());
-        existingWatchlist.setLastUpdated(LocalDateTime.now());
+        // Targeted update so a concurrent entry write or storage migration is not overwritten
+        Update update = new Update()
+                .set("name", updatedWatchlist.getName())
+                .set("description", updatedWatchlist.getDescription())
+                .set("lastUpdated", LocalDateTime.now());
+        if (mongoTemplate.updateFirst(new Query(Criteria.where("id").is(watchlistId)), update, SharedWatchlist.class).getMatchedCount() == 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+        }
+        invalidations.publish(WATCHLIST_CACHE, watchlistId);
         
-        return repository.save(existingWatchlist);
+        return getSharedWatchlist(watchlistId);
     }
     
     public void deleteSharedWatchlist(String watchlistId) {
@@ -87,10 +197,13 @@ public class SharedWatchlistService {
                 user.getSharedWatchlists().remove(watchlistId);
                 userRepository.save(user);
             }
+            invalidations.publish(USER_WATCHLISTS_CACHE, userId);
         }
         
-        // Delete the watchlist
+        // Delete the watchlist and any entry buckets, including ones left by an unfinished migration
         repository.deleteById(watchlistId);
+        buckets.delete(watchlistId);
+        invalidations.publish(WATCHLIST_CACHE, watchlistId);
     }
     
     public void addUserToWatchlist(String watchlistId, String username) {
@@ -102,9 +215,11 @@ public class SharedWatchlistService {
         
         // Add user to watchlist if not already present
         if (!watchlist.getUserIds().contains(user.getId())) {
-            watchlist.getUserIds().add(user.getId());
-            watchlist.setLastUpdated(LocalDateTime.now());
-            repository.save(watchlist);
+            Document userIds = new Document("$ifNull", List.of("$userIds", List.of()));
+            changeMembers(watchlistId, new Document("$cond", List.of(
+                    new Document("$in", List.of(new Document("$literal", user.getId()), userIds)),
+                    userIds,
+                    new Document("$concatArrays", List.of(userIds, List.of(new Document("$literal", user.getId())))))));
             
             // Add watchlist to user's shared watchlists
             if (user.getSharedWatchlists() == null) {
@@ -114,6 +229,9 @@ public class SharedWatchlistService {
             }
             
             userRepository.save(user);
+            invalidations.publish(USER_WATCHLISTS_CACHE, user.getId());
+            
+            publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MEMBER_ADDED, null, user.getId(), null));
         }
     }
     
@@ -130,65 +248,334 @@ public class SharedWatchlistService {
         }
         
         // Remove user from watchlist
-        watchlist.getUserIds().remove(user.getId());
-        watchlist.setLastUpdated(LocalDateTime.now());
-        repository.save(watchlist);
+        changeMembers(watchlistId, new Document("$filter", new Document("input", new Document("$ifNull", List.of("$userIds", List.of())))
+                .append("cond", new Document("$ne", List.of("$$this", new Document("$literal", user.getId()))))));
         
         // Remove watchlist from user's shared watchlists
         if (user.getSharedWatchlists() != null) {
             user.getSharedWatchlists().remove(watchlistId);
             userRepository.save(user);
         }
+        invalidations.publish(USER_WATCHLISTS_CACHE, user.getId());
+        
+        publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MEMBER_REMOVED, null, user.getId(), null));
     }
     
+    /**
+     * Sets the members and recomputes every entry's unrated members and watched
+     * flag from them, in the same write for embedded lists and in one more
+     * command over all buckets for bucketed ones.
+     */
+    private void changeMembers(String watchlistId, Document userIds) {
+        LocalDateTime now = LocalDateTime.now();
+        Query query = new Query(Criteria.where("id").is(watchlistId));
+        query.fields().include("userIds", "storageMode", "bucketCount");
+        SharedWatchlist watchlist = mongoTemplate.findAndModify(query, AggregationUpdate.from(List.of(
+                Aggregation.stage(new Document("$set", new Document("userIds", userIds)
+                        .append("lastUpdated", SharedWatchlistEntryUpdates.toDate(now)))),
+                SharedWatchlistEntryUpdates.recomputeAll("$userIds", now))),
+                FindAndModifyOptions.options().returnNew(true), SharedWatchlist.class);
+        if (watchlist == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+        }
+        if (watchlist.isBucketed()) {
+            buckets.recompute(watchlist, false, now);
+        }
+    }
+    
+    // Entry writes below first try the embedded layout with a filter that fails for bucketed
+    // lists, and only look up the storage mode when that matched nothing.
+    
     public void addMovieToWatchlist(String watchlistId, String imdbId, String addedByUsername) {
-        SharedWatchlist watchlist = repository.findById(watchlistId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found"));
+        ImdbIds.require(imdbId);
+        LocalDateTime now = LocalDateTime.now();
+        SharedWatchlistEntry entry = new SharedWatchlistEntry();
+        entry.setAddedDate(now);
+        entry.setAddedByUsername(addedByUsername);
+        entry.setWatched(false);
+        entry.setRatings(new HashMap<>());
+        entry.setLastModified(now);
+        Document document = toDocument(entry);
         
-        // Check if movie already exists
-        if (!watchlist.getMovies().containsKey(imdbId)) {
-            SharedWatchlistEntry entry = new SharedWatchlistEntry();
-            entry.setAddedDate(LocalDateTime.now());
-            entry.setAddedByUsername(addedByUsername);
-            entry.setWatched(false);
-            entry.setRatings(new HashMap<>());
-            
-            watchlist.getMovies().put(imdbId, entry);
-            watchlist.setLastUpdated(LocalDateTime.now());
-            repository.save(watchlist);
+        // Only added if not already present; aggregates and unrated members are computed in the same write
+        List<AggregationOperation> stages = new ArrayList<>(SharedWatchlistEntryUpdates.add(imdbId, document, "$userIds", now));
+        stages.add(SharedWatchlistEntryUpdates.count());
+        boolean added = mongoTemplate.updateFirst(embeddedEntry(watchlistId, imdbId, false),
+                AggregationUpdate.from(stages), SharedWatchlist.class).getMatchedCount() > 0;
+        
+        if (!added) {
+            SharedWatchlist watchlist = getStorage(watchlistId);
+            added = watchlist.isBucketed() && buckets.add(watchlist, imdbId, document, now);
+            if (added) {
+                touch(watchlistId, 1, now);
+            }
+        }
+        
+        if (added) {
+            publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, imdbId, null, null));
         }
     }
     
     public void removeMovieFromWatchlist(String watchlistId, String imdbId) {
-        SharedWatchlist watchlist = repository.findById(watchlistId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found"));
+        ImdbIds.require(imdbId);
+        LocalDateTime now = LocalDateTime.now();
+        List<AggregationOperation> stages = new ArrayList<>(SharedWatchlistEntryUpdates.remove(imdbId, now));
+        stages.add(SharedWatchlistEntryUpdates.count());
+        boolean removed = mongoTemplate.updateFirst(embeddedEntry(watchlistId, imdbId, true),
+                AggregationUpdate.from(stages), SharedWatchlist.class).getMatchedCount() > 0;
+        
+        if (!removed) {
+            SharedWatchlist watchlist = getStorage(watchlistId);
+            removed = watchlist.isBucketed() && buckets.remove(watchlist, imdbId, now);
+            if (removed) {
+                touch(watchlistId, -1, now);
+            }
+        }
         
-        if (watchlist.getMovies().containsKey(imdbId)) {
-            watchlist.getMovies().remove(imdbId);
-            watchlist.setLastUpdated(LocalDateTime.now());
-            repository.save(watchlist);
+        if (removed) {
+            publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_REMOVED, imdbId, null, null));
         }
     }
     
+    /**
+     * Adds and removes many movies with one write per chunk of ids (one per
+     * touched bucket for bucketed lists) instead of one per movie.
+     *
+     * @return the outcome for every id
+     */
+    public Map<String, String> changeMovies(String watchlistId, Collection<String> add, Collection<String> remove, String addedByUsername) {
+        Set<String> added = new LinkedHashSet<>(add == null ? List.of() : add);
+        Set<String> removed = new LinkedHashSet<>(remove == null ? List.of() : remove);
+        if (added.size() + removed.size() > MAX_BULK_MOVIES) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_BULK_MOVIES + " movies can be changed at once");
+        }
+        if (added.stream().anyMatch(removed::contains)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A movie cannot be added and removed at once");
+        }
+        
+        Map<String, String> results = new LinkedHashMap<>();
+        added.removeIf(imdbId -> invalid(imdbId, results));
+        removed.removeIf(imdbId -> invalid(imdbId, results));
+        List<String> ids = new ArrayList<>(added);
+        ids.addAll(removed);
+        for (int from = 0; from < ids.size(); from += BULK_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(from, Math.min(from + BULK_CHUNK_SIZE, ids.size()));
+            applyChanges(watchlistId, chunk.stream().filter(added::contains).toList(),
+                    chunk.stream().filter(removed::contains).toList(), addedByUsername, results);
+        }
+        return results;
+    }
+    
+    /**
+     * Adds every movie of the user's personal watchlist that the shared list
+     * does not have yet.
+     */
+    public Map<String, String> copyFromWatchlist(String watchlistId, String userId, String addedByUsername) {
+        Query query = new Query(Criteria.where("userId").is(userId));
+        query.fields().include("movies");
+        Watchlist watchlist = mongoTemplate.findOne(query, Watchlist.class);
+        if (watchlist == null || watchlist.getMovies() == null || watchlist.getMovies().isEmpty()) {
+            return Map.of();
+        }
+        return changeMovies(watchlistId, watchlist.getMovies().keySet(), List.of(), addedByUsername);
+    }
+    
+    private void applyChanges(String watchlistId, List<String> added, List<String> removed, String addedByUsername,
+            Map<String, String> results) {
+        LocalDateTime now = LocalDateTime.now();
+        SharedWatchlistEntry entry = new SharedWatchlistEntry();
+        entry.setAddedDate(now);
+        entry.setAddedByUsername(addedByUsername);
+        entry.setWatched(false);
+        entry.setRatings(new HashMap<>());
+        entry.setLastModified(now);
+        Document document = toDocument(entry);
+        
+        Query query = new Query(Criteria.where("id").is(watchlistId).and("storageMode").ne(StorageMode.BUCKETED));
+        SharedWatchlistEntryUpdates.projectExisting(query, added);
+        SharedWatchlistEntryUpdates.projectExisting(query, removed);
+        List<AggregationOperation> stages = new ArrayList<>(SharedWatchlistEntryUpdates.change(added, document, removed, "$userIds", now));
+        stages.add(SharedWatchlistEntryUpdates.count());
+        SharedWatchlist before = mongoTemplate.findAndModify(query, AggregationUpdate.from(stages), SharedWatchlist.class);
+        
+        Set<String> existing;
+        if (before != null) {
+            existing = before.getMovies() == null ? Set.of() : before.getMovies().keySet();
+        } else {
+            SharedWatchlist watchlist = getStorage(watchlistId);
+            if (!watchlist.isBucketed()) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+            }
+            existing = buckets.change(watchlist, added, document, removed, now);
+        }
+        
+        int delta = 0;
+        for (String imdbId : added) {
+            boolean present = existing.contains(imdbId);
+            results.put(imdbId, present ? BulkMovieChange.ALREADY_PRESENT : BulkMovieChange.ADDED);
+            if (!present) {
+                delta++;
+                publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, imdbId, null, null));
+            }
+        }
+        for (String imdbId : removed) {
+            boolean present = existing.contains(imdbId);
+            results.put(imdbId, present ? BulkMovieChange.REMOVED : BulkMovieChange.NOT_PRESENT);
+            if (present) {
+                delta--;
+                publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_REMOVED, imdbId, null, null));
+            }
+        }
+        if (before == null) {
+            touch(watchlistId, delta, now);
+        }
+    }
+    
+    private void publish(String watchlistId, SharedWatchlistEvent event) {
+        invalidations.publish(WATCHLIST_CACHE, watchlistId);
+        events.publish(watchlistId, event);
+    }
+    
+    // Ids become field names in the update, so anything but an IMDb id is rejected
+    private static boolean invalid(String imdbId, Map<String, String> results) {
+        if (ImdbIds.isValid(imdbId)) {
+            return false;
+        }
+        results.put(String.valueOf(imdbId), BulkMovieChange.INVALID);
+        return true;
+    }
+    
     public void rateMovie(String watchlistId, String imdbId, String userId, Double rating) {
-        SharedWatchlist watchlist = repository.findById(watchlistId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found"));
+        ImdbIds.require(imdbId);
+        // Single atomic write: the rating, watched status and group aggregates are updated together
+        LocalDateTime now = LocalDateTime.now();
+        UpdateResult result = mongoTemplate.updateFirst(embeddedEntry(watchlistId, imdbId, true),
+                SharedWatchlistEntryUpdates.rate("movies", imdbId, userId, rating, "$userIds", now),
+                SharedWatchlist.class);
         
-        if (!watchlist.getMovies().containsKey(imdbId)) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Movie not found in watchlist");
+        if (result.getMatchedCount() == 0) {
+            SharedWatchlist watchlist = getStorage(watchlistId);
+            if (!watchlist.isBucketed() || !buckets.rate(watchlist, imdbId, userId, rating, now)) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Movie not found in watchlist");
+            }
+            touch(watchlistId, 0, now);
         }
         
-        SharedWatchlistEntry entry = watchlist.getMovies().get(imdbId);
-        entry.getRatings().put(userId, rating);
+        publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_RATED, imdbId, userId, rating));
+    }
+    
+    public void applyRating(String userId, String imdbId, Double rating) {
+        ImdbIds.require(imdbId);
+        Query lists = new Query(Criteria.where("userIds").is(userId).orOperator(
+                Criteria.where("movies." + imdbId).exists(true),
+                Criteria.where("storageMode").is(StorageMode.BUCKETED)));
+        lists.fields().include("id", "userIds", "storageMode", "bucketCount");
+        List<SharedWatchlist> watchlists = mongoTemplate.find(lists, SharedWatchlist.class);
+        if (watchlists.isEmpty()) {
+            return;
+        }
         
-        // Update watched status based on all users having rated
-        boolean allUsersRated = watchlist.getUserIds().stream()
-                .allMatch(id -> entry.getRatings().containsKey(id));
+        LocalDateTime now = LocalDateTime.now();
+        List<String> embeddedIds = watchlists.stream().filter(w -> !w.isBucketed()).map(SharedWatchlist::getId).toList();
+        List<String> ratedIds = new ArrayList<>(embeddedIds);
+        if (!embeddedIds.isEmpty()) {
+            mongoTemplate.updateMulti(
+                    new Query(Criteria.where("id").in(embeddedIds).and("storageMode").ne(StorageMode.BUCKETED).and("movies." + imdbId).exists(true)),
+                    SharedWatchlistEntryUpdates.rate("movies", imdbId, userId, rating, "$userIds", now),
+                    SharedWatchlist.class);
+        }
+        for (SharedWatchlist watchlist : watchlists) {
+            if (watchlist.isBucketed() && buckets.rate(watchlist, imdbId, userId, rating, now)) {
+                touch(watchlist.getId(), 0, now);
+                ratedIds.add(watchlist.getId());
+            }
+        }
         
-        entry.setWatched(allUsersRated);
+        for (String watchlistId : ratedIds) {
+            publish(watchlistId, SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_RATED, imdbId, userId, rating));
+        }
+    }
+    
+    public SharedWatchlistPage getSharedWatchlistPage(String watchlistId, String userId, String sort, Direction direction, int page, int size) {
+        String sortField = switch (sort) {
+            case "groupAverage" -> "entry.averageRating";
+            case "addedDate" -> "entry.addedDate";
+            case "unratedByMe" -> "unratedByMe";
+            case "watched" -> "entry.watched";
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown sort: " + sort);
+        };
+        int sortOrder = direction == Direction.ASC ? 1 : -1;
         
-        watchlist.setLastUpdated(LocalDateTime.now());
-        repository.save(watchlist);
+        Document project = new Document("imdbId", "$entry.k")
+                .append("entry", "$entry.v")
+                .append("unratedByMe", new Document("$eq", List.of(new Document("$type", "$entry.v.ratings." + userId), "missing")));
+        SharedWatchlist storage = getStorage(watchlistId);
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(storage.isBucketed() ? Criteria.where("watchlistId").is(watchlistId) : Criteria.where("id").is(watchlistId)),
+                Aggregation.stage(new Document("$project", new Document("entry", new Document("$objectToArray", "$movies")))),
+                Aggregation.stage(new Document("$unwind", "$entry")),
+                Aggregation.stage(new Document("$project", project)),
+                Aggregation.stage(new Document("$sort", new Document(sortField, sortOrder).append("entry.addedDate", -1).append("imdbId", 1))),
+                Aggregation.stage(new Document("$facet", new Document("total", List.of(new Document("$count", "n")))
+                        .append("content", List.of(new Document("$skip", (long) page * size), new Document("$limit", size))))));
+        
+        Document result = mongoTemplate.aggregate(aggregation, storage.isBucketed() ? SharedWatchlistBucket.class : SharedWatchlist.class,
+                Document.class).getUniqueMappedResult();
+        List<Document> total = result == null ? List.of() : result.getList("total", Document.class, List.of());
+        List<SharedWatchlistMovie> content = new ArrayList<>();
+        if (result != null) {
+            for (Document movie : result.getList("content", Document.class, List.of())) {
+                content.add(new SharedWatchlistMovie(movie.getString("imdbId"),
+                        mongoTemplate.getConverter().read(SharedWatchlistEntry.class, movie.get("entry", Document.class))));
+            }
+        }
+        return new SharedWatchlistPage(content, total.isEmpty() ? 0 : ((Number) total.get(0).get("n")).longValue(), page, size);
+    }
+    
+    /**
+     * Loads just what is needed to route entry operations: members and storage layout.
+     */
+    private SharedWatchlist getStorage(String watchlistId) {
+        Query query = new Query(Criteria.where("id").is(watchlistId));
+        query.fields().include("userIds", "storageMode", "bucketCount");
+        SharedWatchlist watchlist = mongoTemplate.findOne(query, SharedWatchlist.class);
+        if (watchlist == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+        }
+        return watchlist;
+    }
+    
+    private static Query embeddedEntry(String watchlistId, String imdbId, boolean exists) {
+        return new Query(Criteria.where("id").is(watchlistId)
+                .and("storageMode").ne(StorageMode.BUCKETED)
+                .and("movies." + ImdbIds.require(imdbId)).exists(exists));
+    }
+    
+    private void touch(String watchlistId, int movieCountDelta, LocalDateTime now) {
+        Update update = new Update().set("lastUpdated", now);
+        if (movieCountDelta != 0) {
+            update.inc("movieCount", movieCountDelta);
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(watchlistId)), update, SharedWatchlist.class);
+    }
+    
+    private Document toDocument(SharedWatchlistEntry entry) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entry, document);
+        document.remove("_class");
+        return document;
+    }
+    
+    private static Query selecting(FieldSelection fields, Query query) {
+        fields.applyTo(query);
+        if (hydrates(fields)) {
+            query.fields().include("storageMode");
+        }
+        return query;
+    }
+    
+    private static boolean hydrates(FieldSelection fields) {
+        return fields.includes("movies") || fields.includes("removedMovies");
     }
     
 }
\ No newline at end of file
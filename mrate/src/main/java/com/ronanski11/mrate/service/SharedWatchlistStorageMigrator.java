@@ -0,0 +1,133 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.StorageMode;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Moves shared watchlists from embedded to bucketed entry storage while they
+ * stay in use. The entries are copied into buckets, then the watchlist is
+ * switched over with a compare-and-set on {@code lastUpdated}, which every
+ * write to an embedded watchlist bumps. If a write landed in between, the
+ * switch fails and the copy is redone from the new state.
+ */
+@Slf4j
+@Service
+public class SharedWatchlistStorageMigrator {
+
+	private static final int MAX_ATTEMPTS = 5;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	SharedWatchlistBucketStore buckets;
+
+	@Value("${mrate.shared-watchlist.bucket-count:64}")
+	int defaultBucketCount;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "shared-watchlist-migrator");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Migrates one watchlist. Returns false if it was already bucketed.
+	 */
+	public boolean migrate(String watchlistId, Integer bucketCount) {
+		int count = bucketCount == null ? defaultBucketCount : bucketCount;
+		if (count < 1 || count > 4096) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bucket count must be between 1 and 4096");
+		}
+
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+			SharedWatchlist watchlist = mongoTemplate.findById(watchlistId, SharedWatchlist.class);
+			if (watchlist == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Watchlist not found");
+			}
+			if (watchlist.isBucketed()) {
+				return false;
+			}
+
+			// lastUpdated has millisecond precision, make sure a write after this read cannot reuse the same value
+			LocalDateTime observed = watchlist.getLastUpdated();
+			if (observed != null && Duration.between(observed, LocalDateTime.now()).toMillis() < 2) {
+				sleep(2);
+				continue;
+			}
+
+			LocalDateTime now = LocalDateTime.now();
+			buckets.write(watchlistId, count, watchlist.getMovies(), watchlist.getRemovedMovies(), now);
+
+			Query unchanged = new Query(Criteria.where("id").is(watchlistId)
+					.and("storageMode").ne(StorageMode.BUCKETED)
+					.and("lastUpdated").is(observed));
+			Update switchover = new Update()
+					.set("storageMode", StorageMode.BUCKETED)
+					.set("bucketCount", count)
+					.set("movieCount", watchlist.getMovies().size())
+					.set("lastUpdated", now)
+					.unset("movies")
+					.unset("removedMovies");
+			if (mongoTemplate.updateFirst(unchanged, switchover, SharedWatchlist.class).getMatchedCount() > 0) {
+				log.info("Migrated shared watchlist {} with {} movies to {} buckets", watchlistId, watchlist.getMovies().size(), count);
+				return true;
+			}
+			log.debug("Shared watchlist {} changed during migration attempt {}", watchlistId, attempt);
+		}
+		throw new ResponseStatusException(HttpStatus.CONFLICT, "Watchlist kept changing during migration, try again");
+	}
+
+	/**
+	 * Queues every embedded watchlist with at least {@code minMovies} entries
+	 * for migration in the background and returns their ids.
+	 */
+	public List<String> migrateLarge(int minMovies, Integer bucketCount) {
+		Query query = new Query(Criteria.where("storageMode").ne(StorageMode.BUCKETED).and("movieCount").gte(minMovies));
+		query.fields().include("id");
+		List<String> ids = mongoTemplate.find(query, SharedWatchlist.class).stream().map(SharedWatchlist::getId).toList();
+		for (String id : ids) {
+			executor.execute(() -> {
+				try {
+					migrate(id, bucketCount);
+				} catch (RuntimeException e) {
+					log.warn("Could not migrate shared watchlist {}: {}", id, e.getMessage());
+				}
+			});
+		}
+		return ids;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
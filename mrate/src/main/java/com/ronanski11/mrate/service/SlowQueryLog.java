@@ -0,0 +1,353 @@
+package com.ronanski11.mrate.service;
+
+import java.lang.StackWalker.StackFrame;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.ronanski11.mrate.model.dto.SlowQuery;
+import com.ronanski11.mrate.util.ImdbIds;
+import com.ronanski11.mrate.util.LruCache;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records Mongo commands that take longer than a threshold, together with the
+ * shape of their filter (field names and operators, values and ids within
+ * field paths redacted) and the application method that issued them. The last
+ * entries are kept in a fixed ring buffer. Optionally the query plan is
+ * captured the first time a slow shape is seen, from a copy of the first
+ * command seen with that shape.
+ */
+@Slf4j
+@Component
+public class SlowQueryLog implements CommandListener {
+
+	private static final String BASE_PACKAGE = "com.ronanski11.mrate.";
+
+	private static final Set<String> TRACKED = Set.of("find", "aggregate", "count", "distinct", "findAndModify",
+			"update", "delete", "insert", "getMore");
+
+	// Commands the server can explain; getMore and insert have no plan
+	private static final Set<String> EXPLAINABLE = Set.of("find", "aggregate", "count", "distinct", "findAndModify",
+			"update", "delete");
+
+	private static final Pattern OBJECT_ID = Pattern.compile("[0-9a-f]{24}");
+
+	private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+	private final long thresholdNanos;
+
+	private final boolean explain;
+
+	private final ObjectProvider<MongoTemplate> mongoTemplate;
+
+	private final Map<Integer, Started> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicReferenceArray<Entry> entries;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final LruCache<String, Document> plans = new LruCache<>(1000);
+
+	// First command seen per shape, kept until its plan has been captured
+	private final LruCache<String, BsonDocument> explainable = new LruCache<>(1000);
+
+	private final ThreadPoolExecutor explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(16), runnable -> {
+				Thread thread = new Thread(runnable, "slow-query-explain");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	public SlowQueryLog(
+			@Value("${mrate.slow-queries.threshold:PT0.1S}") Duration threshold,
+			@Value("${mrate.slow-queries.capacity:500}") int capacity,
+			@Value("${mrate.slow-queries.explain:false}") boolean explain,
+			ObjectProvider<MongoTemplate> mongoTemplate) {
+		this.thresholdNanos = threshold.toNanos();
+		this.explain = explain;
+		this.mongoTemplate = mongoTemplate;
+		this.entries = new AtomicReferenceArray<>(capacity);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		explainer.shutdownNow();
+	}
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		if (!TRACKED.contains(event.getCommandName())) {
+			return;
+		}
+		// Tailing a capped collection waits for new documents by design
+		if ("getMore".equals(event.getCommandName()) && event.getCommand().containsKey("maxTimeMS")) {
+			return;
+		}
+		// The command document is only valid during this callback, so everything needed later is extracted now
+		BsonDocument command = event.getCommand();
+		String collection = collection(event.getCommandName(), command);
+		String shape = shape(event.getCommandName(), command);
+		Started started = new Started(collection, shape, caller());
+		if (explain && EXPLAINABLE.contains(event.getCommandName()) && explainable.get(started.planKey()) == null
+				&& plans.get(started.planKey()) == null) {
+			explainable.put(started.planKey(), forExplain(event.getCommandName(), command));
+		}
+		inFlight.put(event.getRequestId(), started);
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		finish(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), false);
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		finish(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), true);
+	}
+
+	public List<SlowQuery> getSlowQueries(int limit) {
+		List<Entry> snapshot = new ArrayList<>();
+		for (int i = 0; i < entries.length(); i++) {
+			Entry entry = entries.get(i);
+			if (entry != null) {
+				snapshot.add(entry);
+			}
+		}
+		return snapshot.stream()
+				.sorted(Comparator.comparingLong(Entry::sequence).reversed())
+				.limit(limit)
+				.map(entry -> new SlowQuery(entry.at(), entry.command(), entry.started().collection(),
+						entry.started().shape(), entry.nanos() / 1_000_000.0, entry.started().caller(), entry.failed(),
+						plans.get(entry.started().planKey())))
+				.toList();
+	}
+
+	private void finish(int requestId, String commandName, long nanos, boolean failed) {
+		Started started = inFlight.remove(requestId);
+		if (started == null || nanos < thresholdNanos) {
+			return;
+		}
+		long seq = sequence.getAndIncrement();
+		entries.set((int) (seq % entries.length()), new Entry(seq, LocalDateTime.now(), commandName, started, nanos, failed));
+		log.debug("Slow {} on {} took {}ms from {}: {}", commandName, started.collection(), nanos / 1_000_000,
+				started.caller(), started.shape());
+
+		if (explain && explainable.get(started.planKey()) != null && plans.get(started.planKey()) == null) {
+			try {
+				explainer.execute(() -> capturePlan(started));
+			} catch (RejectedExecutionException e) {
+				log.debug("Explain queue full, skipping plan for {}", started.shape());
+			}
+		}
+	}
+
+	private void capturePlan(Started started) {
+		BsonDocument command = explainable.get(started.planKey());
+		if (command == null || plans.get(started.planKey()) != null) {
+			return;
+		}
+		try {
+			Document result = mongoTemplate.getObject().getDb()
+					.runCommand(new Document("explain", command).append("verbosity", "queryPlanner"));
+			Object planner = result.get("queryPlanner");
+			if (planner == null && result.get("stages") instanceof List<?> stages && !stages.isEmpty()
+					&& stages.get(0) instanceof Document first && first.get("$cursor") instanceof Document cursor) {
+				// Aggregations report the plan of their initial $match inside the first stage
+				planner = cursor.get("queryPlanner");
+			}
+			Document plan = planner instanceof Document document && document.get("winningPlan") instanceof Document winning
+					? winning
+					: new Document("unavailable", true);
+			plans.put(started.planKey(), plan);
+		} catch (RuntimeException e) {
+			log.debug("Could not explain {}: {}", started.shape(), e.getMessage());
+			plans.put(started.planKey(), new Document("error", e.getMessage()));
+		}
+		explainable.remove(started.planKey());
+	}
+
+	static String collection(String commandName, BsonDocument command) {
+		BsonValue value = command.get("getMore".equals(commandName) ? "collection" : commandName);
+		return value != null && value.isString() ? value.asString().getValue() : null;
+	}
+
+	private static String shape(String commandName, BsonDocument command) {
+		switch (commandName) {
+		case "find":
+			return redact(command.get("filter")) + sort(command.get("sort"));
+		case "aggregate":
+			return redact(command.get("pipeline"));
+		case "count":
+		case "distinct":
+		case "findAndModify":
+			return redact(command.get("query")) + sort(command.get("sort"));
+		case "update":
+			return first(command.get("updates"), "q");
+		case "delete":
+			return first(command.get("deletes"), "q");
+		default:
+			return commandName;
+		}
+	}
+
+	private static String first(BsonValue statements, String key) {
+		if (statements == null || !statements.isArray() || statements.asArray().isEmpty()) {
+			return "{}";
+		}
+		BsonValue statement = statements.asArray().get(0);
+		return statement.isDocument() ? redact(statement.asDocument().get(key)) : "{}";
+	}
+
+	private static String sort(BsonValue sort) {
+		return sort == null || !sort.isDocument() || sort.asDocument().isEmpty() ? "" : " sort " + sort.asDocument().toJson();
+	}
+
+	/**
+	 * Keeps field names, operators and field paths, replaces every value with
+	 * {@code ?}. Ids used as keys within paths, such as {@code movies.<imdbId>},
+	 * are replaced too, so that one shape covers every movie or user.
+	 * Arrays of documents ({@code $and}, {@code $or}, pipelines) keep their
+	 * structure, other arrays collapse to a single placeholder.
+	 */
+	static String redact(BsonValue value) {
+		StringBuilder out = new StringBuilder();
+		redact(value, out);
+		return out.toString();
+	}
+
+	private static void redact(BsonValue value, StringBuilder out) {
+		if (value == null) {
+			out.append("{}");
+		} else if (value.isDocument()) {
+			out.append('{');
+			Iterator<Map.Entry<String, BsonValue>> fields = value.asDocument().entrySet().iterator();
+			while (fields.hasNext()) {
+				Map.Entry<String, BsonValue> field = fields.next();
+				out.append(normalise(field.getKey())).append(": ");
+				redact(field.getValue(), out);
+				if (fields.hasNext()) {
+					out.append(", ");
+				}
+			}
+			out.append('}');
+		} else if (value.isArray() && isDocumentArray(value.asArray())) {
+			out.append('[');
+			for (int i = 0; i < value.asArray().size(); i++) {
+				if (i > 0) {
+					out.append(", ");
+				}
+				redact(value.asArray().get(i), out);
+			}
+			out.append(']');
+		} else if (value.isString() && value.asString().getValue().startsWith("$")) {
+			// Field paths in pipeline stages are structure, not data
+			out.append(normalise(value.asString().getValue()));
+		} else {
+			out.append('?');
+		}
+	}
+
+	static String normalise(String path) {
+		if (path.indexOf('.') < 0) {
+			return path;
+		}
+		String[] segments = path.split("\\.", -1);
+		for (int i = 1; i < segments.length; i++) {
+			if (ImdbIds.isValid(segments[i])) {
+				segments[i] = "<imdbId>";
+			} else if (OBJECT_ID.matcher(segments[i]).matches()) {
+				segments[i] = "ratings".equals(segments[i - 1]) ? "<userId>" : "<id>";
+			}
+		}
+		return String.join(".", segments);
+	}
+
+	private static boolean isDocumentArray(BsonArray array) {
+		return !array.isEmpty() && array.get(0).isDocument();
+	}
+
+	private static BsonDocument forExplain(String commandName, BsonDocument command) {
+		BsonDocument copy = new BsonDocument();
+		// Session, cluster time and database are envelope fields the explain wrapper must not repeat
+		command.forEach((key, value) -> {
+			if (!key.startsWith("$") && !key.equals("lsid") && !key.equals("txnNumber")) {
+				copy.put(key, value);
+			}
+		});
+		// Explain takes a single statement, and the shape only describes the first
+		String statements = "update".equals(commandName) ? "updates" : "delete".equals(commandName) ? "deletes" : null;
+		if (statements != null && copy.get(statements) instanceof BsonArray array && array.size() > 1) {
+			copy.put(statements, new BsonArray(List.of(array.get(0))));
+		}
+		return copy.clone();
+	}
+
+	/**
+	 * The first application frame on the stack. Repository calls go through JDK
+	 * proxies, so a proxy implementing one of our interfaces is reported as the
+	 * repository method, followed by the application method that called it.
+	 */
+	private static String caller() {
+		return WALKER.walk(frames -> {
+			String repository = null;
+			for (Iterator<StackFrame> it = frames.iterator(); it.hasNext();) {
+				StackFrame frame = it.next();
+				Class<?> type = frame.getDeclaringClass();
+				if (Proxy.isProxyClass(type)) {
+					for (Class<?> iface : type.getInterfaces()) {
+						if (repository == null && iface.getName().startsWith(BASE_PACKAGE)) {
+							repository = iface.getSimpleName() + "." + frame.getMethodName();
+						}
+					}
+				} else if (type.getName().startsWith(BASE_PACKAGE) && type != SlowQueryLog.class
+						&& !type.getName().contains("$$")) {
+					String method = type.getSimpleName() + "." + frame.getMethodName();
+					return repository == null ? method : method + " > " + repository;
+				}
+			}
+			return repository;
+		});
+	}
+
+	private record Started(String collection, String shape, String caller) {
+
+		String planKey() {
+			return collection + " " + shape;
+		}
+
+	}
+
+	private record Entry(long sequence, LocalDateTime at, String command, Started started, long nanos, boolean failed) {
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.ronanski11.mrate.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.util.LruCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the last value of selected reads so they can still be answered while
+ * Mongo is unavailable: the breaker is open, or the read timed out or failed
+ * to connect. Stale answers carry a {@code Warning: 110} header. Values are
+ * shared between callers and must not be modified. Writers drop superseded
+ * values through the {@link CacheInvalidationBus}, using the cache name.
+ * <p>
+ * The values range from one user to hydrated shared watchlists with thousands
+ * of entries, so the cache is bounded by a weight that approximates the
+ * documents and entries held rather than by the number of values.
+ */
+@Slf4j
+@Component
+public class StaleFallback {
+
+	static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+	private final LruCache<String, Object> values;
+
+	private final MeterRegistry meterRegistry;
+
+	private final CacheInvalidationBus invalidations;
+
+	private final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+	public StaleFallback(@Value("${mrate.stale.max-weight:200000}") long maxWeight, MeterRegistry meterRegistry,
+			CacheInvalidationBus invalidations) {
+		this.values = new LruCache<>(maxWeight, null, StaleFallback::weigh);
+		this.meterRegistry = meterRegistry;
+		this.invalidations = invalidations;
+	}
+
+	public <T> T read(String cache, String key, Supplier<T> loader) {
+		return read(cache, key, loader, UnaryOperator.identity());
+	}
+
+	/**
+	 * @param retained the part of a loaded value that is kept for stale answers,
+	 *                 or null to keep nothing of it
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T read(String cache, String key, Supplier<T> loader, UnaryOperator<T> retained) {
+		String cacheKey = cache + ":" + key;
+		if (registered.add(cache)) {
+			invalidations.register(cache, evicted -> values.remove(cache + ":" + evicted), values::clear);
+		}
+		try {
+			T value = loader.get();
+			T kept = value == null ? null : retained.apply(value);
+			if (kept != null) {
+				values.put(cacheKey, kept);
+			}
+			return value;
+		} catch (DatabaseUnavailableException | DataAccessResourceFailureException | QueryTimeoutException e) {
+			T stale = (T) values.get(cacheKey);
+			if (stale == null) {
+				throw e;
+			}
+			log.debug("Serving stale {} after {}", cacheKey, e.getMessage());
+			meterRegistry.counter("mrate.stale.served", "cache", cache).increment();
+			markStale();
+			return stale;
+		}
+	}
+
+	static int weigh(Object value) {
+		if (value instanceof SharedWatchlist watchlist) {
+			return 1 + size(watchlist.getUserIds()) + size(watchlist.getMovies()) + size(watchlist.getRemovedMovies());
+		}
+		if (value instanceof Collection<?> collection) {
+			return 1 + collection.stream().mapToInt(StaleFallback::weigh).sum();
+		}
+		if (value instanceof Map<?, ?> map) {
+			return 1 + map.size();
+		}
+		return 1;
+	}
+
+	private static int size(Collection<?> collection) {
+		return collection == null ? 0 : collection.size();
+	}
+
+	private static int size(Map<?, ?> map) {
+		return map == null ? 0 : map.size();
+	}
+
+	private static void markStale() {
+		if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+			HttpServletResponse response = attributes.getResponse();
+			if (response != null) {
+				response.setHeader(HttpHeaders.WARNING, STALE_WARNING);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.ronanski11.mrate.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.model.dto.UserDTO;
+import com.ronanski11.mrate.util.LruCache;
+
+/**
+ * Public user profiles by id, with usernames mapped to ids. Every user write
+ * goes through the repository, so entries are evicted from the save and delete
+ * mapping events, on other instances through the {@link CacheInvalidationBus}.
+ * The time-to-live bounds staleness if an invalidation is lost. The same events
+ * drop the users kept by {@link StaleFallback}, so a deleted or demoted user is
+ * not served from there while the database is down.
+ */
+@Component
+public class UserCache extends AbstractMongoEventListener<User> {
+
+	private static final String CACHE = "users";
+
+	// StaleFallback caches of users by id, by username and of authenticated principals by username
+	static final String STALE_BY_ID = "user";
+
+	static final String STALE_BY_USERNAME = "user-by-username";
+
+	public static final String STALE_PRINCIPALS = "principal";
+
+	private final LruCache<String, UserDTO> byId;
+
+	private final LruCache<String, String> idsByUsername;
+
+	// A load that overlapped an eviction may have read the old document and is not cached
+	private final AtomicLong evictions = new AtomicLong();
+
+	// Users matched by a delete, from before to after the delete on the same thread
+	private final ThreadLocal<List<User>> deleting = new ThreadLocal<>();
+
+	private final CacheInvalidationBus invalidations;
+
+	private final MongoTemplate mongoTemplate;
+
+	public UserCache(@Value("${mrate.users.cache-size:10000}") int size,
+			@Value("${mrate.users.cache-ttl:PT5M}") Duration ttl,
+			CacheInvalidationBus invalidations, MongoTemplate mongoTemplate) {
+		this.byId = new LruCache<>(size, ttl);
+		this.idsByUsername = new LruCache<>(size, ttl);
+		this.invalidations = invalidations;
+		this.mongoTemplate = mongoTemplate;
+		invalidations.register(CACHE, this::evict, this::clear);
+	}
+
+	public UserDTO get(String id) {
+		UserDTO user = byId.get(id);
+		return user == null ? null : user.toBuilder().build();
+	}
+
+	public UserDTO getByUsername(String username) {
+		String id = idsByUsername.get(username);
+		UserDTO user = id == null ? null : get(id);
+		return user != null && username.equals(user.getUsername()) ? user : null;
+	}
+
+	/**
+	 * Marks the start of a load, to be passed to {@link #put}.
+	 */
+	public long version() {
+		return evictions.get();
+	}
+
+	public void put(UserDTO user, long version) {
+		if (user.getId() == null || evictions.get() != version) {
+			return;
+		}
+		byId.put(user.getId(), user.toBuilder().stats(null).build());
+		if (user.getUsername() != null) {
+			idsByUsername.put(user.getUsername(), user.getId());
+		}
+	}
+
+	public void evict(String id) {
+		evictions.incrementAndGet();
+		byId.remove(id);
+	}
+
+	private void clear() {
+		evictions.incrementAndGet();
+		byId.clear();
+	}
+
+	@Override
+	public void onAfterSave(AfterSaveEvent<User> event) {
+		publish(event.getSource().getId(), event.getSource().getUsername());
+	}
+
+	@Override
+	public void onBeforeDelete(BeforeDeleteEvent<User> event) {
+		// The delete only carries its query, so the usernames are looked up while the users still exist
+		Query query = new BasicQuery(event.getSource());
+		query.fields().include("username");
+		deleting.set(mongoTemplate.find(query, User.class));
+	}
+
+	@Override
+	public void onAfterDelete(AfterDeleteEvent<User> event) {
+		List<User> deleted = deleting.get();
+		deleting.remove();
+		if (deleted == null) {
+			clear();
+			return;
+		}
+		deleted.forEach(user -> publish(user.getId(), user.getUsername()));
+	}
+
+	private void publish(String id, String username) {
+		invalidations.publish(CACHE, id);
+		invalidations.publish(STALE_BY_ID, id);
+		if (username != null) {
+			invalidations.publish(STALE_BY_USERNAME, username);
+			invalidations.publish(STALE_PRINCIPALS, username);
+		}
+	}
+
+}
@@ -1,9 +1,21 @@
 package com.ronanski11.mrate.service;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
@@ -11,36 +23,138 @@ import org.springframework.web.server.ResponseStatusException;
 import com.ronanski11.mrate.model.Role;
 import com.ronanski11.mrate.model.User;
 import com.ronanski11.mrate.model.dto.UserDTO;
+import com.ronanski11.mrate.model.dto.UserPage;
 import com.ronanski11.mrate.repository.UserRepository;
 import com.ronanski11.mrate.security.AuthenticationService;
 
 @Service
 public class UserService {
     
+    private static final int STREAM_BATCH_SIZE = 500;
+    
     @Autowired
     private UserRepository repository;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     @Autowired
     private AuthenticationService authService;
     
-    public List<UserDTO> getAllUsers() {
-        return repository.findAll().stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+    @Autowired
+    private UserCache cache;
+    
+    @Autowired
+    private StaleFallback stale;
+    
+    /**
+     * A page of users in id order, starting after the given cursor.
+     */
+    public UserPage getUsers(String role, LocalDate joinedFrom, LocalDate joinedTo, String after, int limit) {
+        Query query = listQuery(role, joinedFrom, joinedTo, after).limit(limit + 1);
+        List<UserDTO> users = mongoTemplate.find(query, UserDTO.class, mongoTemplate.getCollectionName(User.class));
+        if (users.size() <= limit) {
+            return new UserPage(users, null);
+        }
+        users = users.subList(0, limit);
+        return new UserPage(users, users.get(limit - 1).getId());
+    }
+    
+    /**
+     * Passes every matching user to the consumer in id order, reading them
+     * from a cursor so only one batch is held in memory at a time.
+     */
+    public void streamUsers(String role, LocalDate joinedFrom, LocalDate joinedTo, String after, Consumer<UserDTO> consumer) {
+        Query query = listQuery(role, joinedFrom, joinedTo, after).cursorBatchSize(STREAM_BATCH_SIZE);
+        try (Stream<UserDTO> users = mongoTemplate.stream(query, UserDTO.class, mongoTemplate.getCollectionName(User.class))) {
+            users.forEach(consumer);
+        }
+    }
+    
+    // Read straight into the DTO with only its fields, so password hashes are never loaded
+    private static Query listQuery(String role, LocalDate joinedFrom, LocalDate joinedTo, String after) {
+        Criteria criteria = new Criteria();
+        if (after != null) {
+            if (!ObjectId.isValid(after)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + after);
+            }
+            criteria.and("id").gt(new ObjectId(after));
+        }
+        if (role != null) {
+            criteria.and("role").is(parseRole(role));
+        }
+        if (joinedFrom != null || joinedTo != null) {
+            Criteria joined = criteria.and("joined");
+            if (joinedFrom != null) {
+                joined.gte(joinedFrom);
+            }
+            if (joinedTo != null) {
+                joined.lte(joinedTo);
+            }
+        }
+        Query query = new Query(criteria).with(Sort.by("id"));
+        query.fields().include("username", "role", "sharedWatchlists", "profilePicId", "joined");
+        return query;
+    }
+    
+    private static Role parseRole(String role) {
+        try {
+            return Role.valueOf(role.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid role: " + role);
+        }
     }
     
     public UserDTO getUserById(String id) {
-        User user = repository.findById(id)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+        UserDTO cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        long version = cache.version();
+        UserDTO dto = stale.read(UserCache.STALE_BY_ID, id, () -> convertToDTO(repository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"))));
         
-        return convertToDTO(user);
+        cache.put(dto, version);
+        return dto.toBuilder().build();
     }
     
     public UserDTO getUserByUsername(String username) {
-        User user = repository.findByUsername(username)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+        UserDTO cached = cache.getByUsername(username);
+        if (cached != null) {
+            return cached;
+        }
+        long version = cache.version();
+        UserDTO dto = stale.read(UserCache.STALE_BY_USERNAME, username, () -> convertToDTO(repository.findByUsername(username)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"))));
         
-        return convertToDTO(user);
+        cache.put(dto, version);
+        return dto.toBuilder().build();
+    }
+    
+    /**
+     * Users with the given ids in the order given, skipping unknown ids. Users
+     * missing from the cache are loaded with a single query.
+     */
+    public List<UserDTO> getUsers(List<String> ids) {
+        Map<String, UserDTO> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            UserDTO cached = cache.get(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long version = cache.version();
+            for (User user : repository.findAllById(missing)) {
+                UserDTO dto = convertToDTO(user);
+                cache.put(dto, version);
+                found.put(dto.getId(), dto);
+            }
+        }
+        return ids.stream().distinct().map(found::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
     
     public UserDTO updateUserRole(String id, String role) {
@@ -0,0 +1,252 @@
+package com.ronanski11.mrate.service;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.ronanski11.mrate.model.Rating;
+import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.model.UserStats;
+import com.ronanski11.mrate.model.Watchlist;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maintains {@link UserStats}. Ratings are counted with their
+ * {@code propagatedRating}, the value the outbox dispatcher last added to the
+ * stats, so a rating still waiting for propagation is not counted twice. The
+ * reconciliation recomputes the stats from ratings and watchlists and replaces
+ * documents that drifted, unless they changed while being recomputed.
+ */
+@Slf4j
+@Service
+public class UserStatsService {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Value("${mrate.stats.reconcile-batch-size:200}")
+	int batchSize;
+
+	private Counter drift;
+
+	@PostConstruct
+	void registerMetrics() {
+		drift = Counter.builder("mrate.stats.drift")
+				.description("User stats documents found out of date and repaired by reconciliation")
+				.register(meterRegistry);
+	}
+
+	public UserStats getStats(String userId) {
+		UserStats stats = mongoTemplate.findById(userId, UserStats.class);
+		if (stats == null) {
+			stats = new UserStats();
+			stats.setUserId(userId);
+		}
+		return stats;
+	}
+
+	/**
+	 * Adds ratings that are being propagated, replacing the value previously
+	 * counted for each of them.
+	 */
+	public void recordPropagation(String userId, Collection<Rating> ratings, int newlyWatched) {
+		int added = 0;
+		double sum = 0;
+		Map<String, Integer> distribution = new HashMap<>();
+		for (Rating rating : ratings) {
+			if (rating.getRating() == null || rating.getRating().equals(rating.getPropagatedRating())) {
+				continue;
+			}
+			if (rating.getPropagatedRating() == null) {
+				added++;
+			} else {
+				sum -= rating.getPropagatedRating();
+				distribution.merge(bucket(rating.getPropagatedRating()), -1, Integer::sum);
+			}
+			sum += rating.getRating();
+			distribution.merge(bucket(rating.getRating()), 1, Integer::sum);
+		}
+
+		Update update = new Update()
+				.inc("ratingCount", added)
+				.inc("ratingSum", sum)
+				.inc("watchedCount", newlyWatched)
+				.set("lastUpdated", LocalDateTime.now());
+		distribution.forEach((bucket, delta) -> {
+			if (delta != 0) {
+				update.inc("distribution." + bucket, delta);
+			}
+		});
+		mongoTemplate.upsert(new Query(Criteria.where("userId").is(userId)), update, UserStats.class);
+	}
+
+	public void recordWatchlistChange(String userId, int sizeDelta, int watchedDelta) {
+		mongoTemplate.upsert(new Query(Criteria.where("userId").is(userId)), new Update()
+				.inc("watchlistSize", sizeDelta)
+				.inc("watchedCount", watchedDelta)
+				.set("lastUpdated", LocalDateTime.now()), UserStats.class);
+	}
+
+	@Scheduled(initialDelayString = "${mrate.stats.reconcile-initial-delay:PT10M}", fixedDelayString = "${mrate.stats.reconcile-interval:PT6H}")
+	public void reconcileAll() {
+		String users = mongoTemplate.getCollectionName(User.class);
+		Object last = null;
+		int checked = 0;
+		int repaired = 0;
+		try {
+			while (true) {
+				Query page = new Query(last == null ? new Criteria() : Criteria.where("_id").gt(last))
+						.with(Sort.by("_id"))
+						.limit(batchSize);
+				page.fields().include("_id");
+				List<Object> ids = mongoTemplate.find(page, Document.class, users).stream()
+						.map(user -> user.get("_id"))
+						.toList();
+				if (ids.isEmpty()) {
+					break;
+				}
+				repaired += reconcile(ids.stream().map(Object::toString).toList());
+				checked += ids.size();
+				last = ids.get(ids.size() - 1);
+			}
+		} catch (RuntimeException e) {
+			log.warn("User stats reconciliation stopped after {} users: {}", checked, e.getMessage());
+			return;
+		}
+		log.info("Reconciled stats of {} users, {} had drifted", checked, repaired);
+	}
+
+	public UserStats reconcile(String userId) {
+		reconcile(List.of(userId));
+		return getStats(userId);
+	}
+
+	/**
+	 * @return the number of stats documents that were out of date and repaired
+	 */
+	int reconcile(List<String> userIds) {
+		// Read before recomputing: if a document changes in between, it is left for the next run
+		Map<String, UserStats> stored = mongoTemplate.find(new Query(Criteria.where("userId").in(userIds)), UserStats.class)
+				.stream()
+				.collect(Collectors.toMap(UserStats::getUserId, Function.identity()));
+		Map<String, UserStats> computed = compute(userIds);
+
+		LocalDateTime now = LocalDateTime.now();
+		BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserStats.class);
+		int repaired = 0;
+		for (String userId : userIds) {
+			UserStats expected = computed.get(userId);
+			UserStats current = stored.get(userId);
+			if (matches(current == null ? new UserStats() : current, expected)) {
+				continue;
+			}
+			Map<String, Object> values = Map.of(
+					"ratingCount", expected.getRatingCount(),
+					"ratingSum", expected.getRatingSum(),
+					"distribution", expected.getDistribution(),
+					"watchlistSize", expected.getWatchlistSize(),
+					"watchedCount", expected.getWatchedCount(),
+					"lastReconciled", now);
+			Update update = new Update();
+			if (current == null) {
+				// Only if no increment created the document in the meantime
+				values.forEach(update::setOnInsert);
+				bulk.upsert(new Query(Criteria.where("userId").is(userId)), update);
+			} else {
+				values.forEach(update::set);
+				bulk.updateOne(new Query(Criteria.where("userId").is(userId).and("lastUpdated").is(current.getLastUpdated())),
+						update);
+			}
+			repaired++;
+		}
+		if (repaired > 0) {
+			bulk.execute();
+			drift.increment(repaired);
+		}
+		return repaired;
+	}
+
+	private Map<String, UserStats> compute(List<String> userIds) {
+		Map<String, UserStats> result = new HashMap<>();
+		for (String userId : userIds) {
+			UserStats stats = new UserStats();
+			stats.setUserId(userId);
+			result.put(userId, stats);
+		}
+
+		Aggregation ratings = Aggregation.newAggregation(
+				Aggregation.stage(new Document("$match", new Document("userId", new Document("$in", userIds))
+						.append("propagatedRating", new Document("$ne", null)))),
+				Aggregation.stage(new Document("$group", new Document("_id",
+						new Document("userId", "$userId").append("bucket", new Document("$floor", "$propagatedRating")))
+						.append("count", new Document("$sum", 1))
+						.append("sum", new Document("$sum", "$propagatedRating")))));
+		for (Document row : mongoTemplate.aggregate(ratings, mongoTemplate.getCollectionName(Rating.class), Document.class)) {
+			Document id = row.get("_id", Document.class);
+			UserStats stats = result.get(id.getString("userId"));
+			int count = ((Number) row.get("count")).intValue();
+			stats.setRatingCount(stats.getRatingCount() + count);
+			stats.setRatingSum(stats.getRatingSum() + ((Number) row.get("sum")).doubleValue());
+			stats.getDistribution().put(bucket(((Number) id.get("bucket")).doubleValue()), count);
+		}
+
+		Document movies = new Document("$objectToArray", new Document("$ifNull", List.of("$movies", new Document())));
+		Aggregation watchlists = Aggregation.newAggregation(
+				Aggregation.stage(new Document("$match", new Document("userId", new Document("$in", userIds)))),
+				Aggregation.stage(new Document("$project", new Document("userId", 1)
+						.append("size", new Document("$size", movies))
+						.append("watched", new Document("$size", new Document("$filter", new Document("input", movies)
+								.append("cond", new Document("$eq", List.of("$$this.v.watched", true)))))))));
+		for (Document row : mongoTemplate.aggregate(watchlists, mongoTemplate.getCollectionName(Watchlist.class), Document.class)) {
+			UserStats stats = result.get(row.getString("userId"));
+			stats.setWatchlistSize(stats.getWatchlistSize() + ((Number) row.get("size")).intValue());
+			stats.setWatchedCount(stats.getWatchedCount() + ((Number) row.get("watched")).intValue());
+		}
+		return result;
+	}
+
+	private static boolean matches(UserStats current, UserStats expected) {
+		return current.getRatingCount() == expected.getRatingCount()
+				&& Math.abs(current.getRatingSum() - expected.getRatingSum()) < 1e-6
+				&& current.getWatchlistSize() == expected.getWatchlistSize()
+				&& current.getWatchedCount() == expected.getWatchedCount()
+				&& nonZero(current.getDistribution()).equals(nonZero(expected.getDistribution()));
+	}
+
+	private static Map<String, Integer> nonZero(Map<String, Integer> distribution) {
+		return distribution == null ? Map.of()
+				: distribution.entrySet().stream()
+						.filter(entry -> !Objects.equals(entry.getValue(), 0))
+						.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+	}
+
+	private static String bucket(double rating) {
+		return Integer.toString((int) Math.floor(rating));
+	}
+
+}
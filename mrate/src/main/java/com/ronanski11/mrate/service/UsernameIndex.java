@@ -0,0 +1,222 @@
+package com.ronanski11.mrate.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.model.dto.UserSummary;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory username index for prefix search. Entries are kept in a skip list
+ * ordered by lower-cased username, so a lookup is a lock-free range scan. The
+ * index is loaded from a projected cursor after startup and kept current from
+ * the User save and delete mapping events, on other instances through the
+ * {@link CacheInvalidationBus}: they read the user again, and load everything
+ * again when invalidations were missed. Users saved or deleted while a load
+ * runs are remembered, and the cursor's possibly older copy of them is skipped.
+ */
+@Slf4j
+@Component
+public class UsernameIndex extends AbstractMongoEventListener<User> {
+
+	private static final String CACHE = "usernames";
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	CacheInvalidationBus invalidations;
+
+	private final ConcurrentSkipListMap<String, UserSummary> byKey = new ConcurrentSkipListMap<>();
+
+	private final Map<String, String> keysById = new ConcurrentHashMap<>();
+
+	// Ids saved or deleted while a load is running, guarded by this like all writes
+	private final Set<String> changedDuringLoad = new HashSet<>();
+
+	private int loaders;
+
+	// Ids matched by a delete, from before to after the delete on the same thread
+	private final ThreadLocal<List<String>> deleting = new ThreadLocal<>();
+
+	@PostConstruct
+	void init() {
+		invalidations.register(CACHE, this::refresh, this::reload);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void load() {
+		Thread loader = new Thread(() -> {
+			Query query = new Query();
+			query.fields().include("username", "profilePicId");
+			load(() -> mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(User.class)));
+		}, "username-index-loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	// Counts as running before the cursor opens, so every later change is either read by it or remembered
+	void load(Supplier<Stream<Document>> cursor) {
+		synchronized (this) {
+			loaders++;
+		}
+		long started = System.currentTimeMillis();
+		try (Stream<Document> users = cursor.get()) {
+			users.forEach(user -> {
+				String id = user.get("_id").toString();
+				UserSummary summary = new UserSummary(id, user.getString("username"), user.getString("profilePicId"));
+				synchronized (this) {
+					if (!changedDuringLoad.contains(id)) {
+						put(summary);
+					}
+				}
+			});
+			log.info("Loaded username index with {} users in {} ms", keysById.size(), System.currentTimeMillis() - started);
+		} catch (RuntimeException e) {
+			log.warn("Could not load username index: {}", e.getMessage());
+		} finally {
+			synchronized (this) {
+				if (--loaders == 0) {
+					changedDuringLoad.clear();
+				}
+			}
+		}
+	}
+
+	private void reload() {
+		synchronized (this) {
+			byKey.clear();
+			keysById.clear();
+		}
+		load();
+	}
+
+	@Override
+	public void onAfterSave(AfterSaveEvent<User> event) {
+		User user = event.getSource();
+		synchronized (this) {
+			changed(user.getId());
+			put(new UserSummary(user.getId(), user.getUsername(), user.getProfilePicId()));
+		}
+		invalidations.publish(CACHE, user.getId());
+	}
+
+	@Override
+	public void onBeforeDelete(BeforeDeleteEvent<User> event) {
+		// The delete only carries its query, so the ids are looked up while the users still exist
+		Query query = new BasicQuery(event.getSource());
+		query.fields().include("_id");
+		deleting.set(mongoTemplate.find(query, User.class).stream().map(User::getId).toList());
+	}
+
+	@Override
+	public void onAfterDelete(AfterDeleteEvent<User> event) {
+		List<String> deleted = deleting.get();
+		deleting.remove();
+		if (deleted == null) {
+			reload();
+			return;
+		}
+		for (String id : deleted) {
+			synchronized (this) {
+				changed(id);
+				remove(id);
+			}
+			invalidations.publish(CACHE, id);
+		}
+	}
+
+	/**
+	 * Reads the user again after a write, usually on another instance. A user
+	 * that no longer exists is dropped.
+	 */
+	void refresh(String id) {
+		Query query = new Query(Criteria.where("id").is(id));
+		query.fields().include("username", "profilePicId");
+		try {
+			synchronized (this) {
+				changed(id);
+				User user = mongoTemplate.findOne(query, User.class);
+				if (user == null) {
+					remove(id);
+				} else {
+					put(new UserSummary(user.getId(), user.getUsername(), user.getProfilePicId()));
+				}
+			}
+		} catch (RuntimeException e) {
+			log.warn("Could not refresh user {} in the username index: {}", id, e.getMessage());
+		}
+	}
+
+	private void changed(String id) {
+		if (loaders > 0 && id != null) {
+			changedDuringLoad.add(id);
+		}
+	}
+
+	void put(UserSummary user) {
+		if (user.getId() == null || user.getUsername() == null) {
+			return;
+		}
+		String key = key(user.getUsername(), user.getId());
+		String previous = keysById.put(user.getId(), key);
+		byKey.put(key, user);
+		if (previous != null && !previous.equals(key)) {
+			byKey.remove(previous);
+		}
+	}
+
+	void remove(String id) {
+		String key = keysById.remove(id);
+		if (key != null) {
+			byKey.remove(key);
+		}
+	}
+
+	public List<UserSummary> search(String prefix, int limit) {
+		String from = prefix.toLowerCase(Locale.ROOT);
+		List<UserSummary> result = new ArrayList<>(limit);
+		for (Map.Entry<String, UserSummary> entry : byKey.tailMap(from).entrySet()) {
+			if (!entry.getKey().startsWith(from) || result.size() == limit) {
+				break;
+			}
+			result.add(entry.getValue());
+		}
+		return result;
+	}
+
+	int size() {
+		return keysById.size();
+	}
+
+	// The id suffix keeps entries distinct when usernames differ only in case
+	private static String key(String username, String id) {
+		return username.toLowerCase(Locale.ROOT) + '\u0000' + id;
+	}
+
+}
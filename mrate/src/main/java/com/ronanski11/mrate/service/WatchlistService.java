@@ -1,33 +1,66 @@
 package com.ronanski11.mrate.service;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import com.ronanski11.mrate.model.Rating;
 import com.ronanski11.mrate.model.Watchlist;
 import com.ronanski11.mrate.model.WatchlistEntry;
-import com.ronanski11.mrate.repository.RatingRepository;
+import com.ronanski11.mrate.model.dto.SyncDelta;
 import com.ronanski11.mrate.repository.WatchlistRepository;
+import com.ronanski11.mrate.util.FieldSelection;
 
 @Service
 public class WatchlistService {
 
+	static final String CACHE = "watchlist";
+
 	@Autowired
 	WatchlistRepository repo;
 
 	@Autowired
-	RatingRepository rRepo;
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	DeltaSyncService deltaSync;
+
+	@Autowired
+	UserStatsService userStats;
+
+	@Autowired
+	StaleFallback stale;
+
+	@Autowired
+	CacheInvalidationBus invalidations;
 
 	public Map<String, WatchlistEntry> getWatchlist(String id) {
-		Watchlist result = repo.findByUserId(id);
-		return result == null ? new HashMap<String, WatchlistEntry>() : result.getMovies();
+		return stale.read(CACHE, id, () -> {
+			Watchlist result = repo.findByUserId(id);
+			return result == null ? new HashMap<String, WatchlistEntry>() : result.getMovies();
+		});
 	}
 
 	public void changeWatchlistEntry(String imdbId, String id) {
+		changeWatchlistEntries(List.of(imdbId), id);
+	}
+
+	/**
+	 * Toggles each movie in order, with one read and one write of the watchlist
+	 * however many movies are toggled.
+	 */
+	public void changeWatchlistEntries(List<String> imdbIds, String id) {
 		Watchlist w = repo.findByUserId(id);
 
 		if (w == null) {
@@ -36,20 +69,60 @@ public class WatchlistService {
 			w.setMovies(new HashMap<String, WatchlistEntry>());
 		}
 
-		if (w.getMovies().containsKey(imdbId)) {
-			w.getMovies().remove(imdbId);
-		} else {
-			WatchlistEntry we = new WatchlistEntry();
-			we.setAddedDate(LocalDateTime.now());
-			we.setWatched(false);
-			Rating rating = rRepo.findByUserIdAndImdbId(id, imdbId);
-			if (rating != null) {
-				we.setRating(rating.getRating());
+		LocalDateTime now = LocalDateTime.now();
+		if (w.getRemovedMovies() == null) {
+			w.setRemovedMovies(new HashMap<String, LocalDateTime>());
+		}
+		DeltaSyncService.pruneTombstones(w.getRemovedMovies(), now);
+
+		// Movies that end up being added at some point need the user's current rating
+		Map<String, WatchlistEntry> movies = w.getMovies();
+		Set<String> added = imdbIds.stream()
+				.filter(imdbId -> !movies.containsKey(imdbId) || Collections.frequency(imdbIds, imdbId) > 1)
+				.collect(Collectors.toSet());
+		Map<String, Double> ratings = added.isEmpty() ? Map.of() : getRatings(id, added);
+
+		int sizeDelta = 0;
+		int watchedDelta = 0;
+		for (String imdbId : imdbIds) {
+			if (movies.containsKey(imdbId)) {
+				WatchlistEntry removed = movies.remove(imdbId);
+				w.getRemovedMovies().put(imdbId, now);
+				sizeDelta--;
+				if (removed != null && Boolean.TRUE.equals(removed.getWatched())) {
+					watchedDelta--;
+				}
+			} else {
+				WatchlistEntry we = new WatchlistEntry();
+				we.setAddedDate(now);
+				we.setLastModified(now);
+				we.setWatched(false);
+				we.setRating(ratings.get(imdbId));
+				movies.put(imdbId, we);
+				w.getRemovedMovies().remove(imdbId);
+				sizeDelta++;
 			}
-			w.getMovies().put(imdbId, we);
 		}
 
 		repo.save(w);
+		invalidations.publish(CACHE, id);
+		userStats.recordWatchlistChange(id, sizeDelta, watchedDelta);
+	}
+
+	private Map<String, Double> getRatings(String id, Collection<String> imdbIds) {
+		Query query = new Query(Criteria.where("userId").is(id).and("imdbId").in(imdbIds));
+		query.fields().include("imdbId", "rating");
+		Map<String, Double> ratings = new HashMap<>();
+		for (Rating rating : mongoTemplate.find(query, Rating.class)) {
+			if (rating.getRating() != null) {
+				ratings.put(rating.getImdbId(), rating.getRating());
+			}
+		}
+		return ratings;
+	}
+
+	public SyncDelta<WatchlistEntry> syncWatchlist(String id, String since) {
+		return deltaSync.sync(Criteria.where("userId").is(id), Watchlist.class, WatchlistEntry.class, since);
 	}
 
 	public Boolean isPresent(String id, String imdbId) {
@@ -62,4 +135,11 @@ public class WatchlistService {
 		return repo.findByUserId(id);
 	}
 
+	public Watchlist getFullWatchlist(String id, FieldSelection fields) {
+		if (fields.isAll()) {
+			return getFullWatchlist(id);
+		}
+		return mongoTemplate.findOne(fields.applyTo(new Query(Criteria.where("userId").is(id))), Watchlist.class);
+	}
+
 }
@@ -0,0 +1,68 @@
+package com.ronanski11.mrate.service.migration;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.SharedWatchlistBucket;
+
+/**
+ * Same backfill as {@link BackfillSharedWatchlistAggregates} for entries that
+ * were copied into buckets. Buckets do not carry the member list, so it is
+ * looked up per batch and passed in as a literal.
+ */
+@Component
+public class BackfillBucketAggregates implements Migration {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Override
+	public int version() {
+		return 2;
+	}
+
+	@Override
+	public String description() {
+		return "Backfill shared watchlist bucket entry aggregates";
+	}
+
+	@Override
+	public String collection() {
+		return mongoTemplate.getCollectionName(SharedWatchlistBucket.class);
+	}
+
+	@Override
+	public Document projection() {
+		return new Document("watchlistId", 1);
+	}
+
+	@Override
+	public List<WriteModel<Document>> migrate(List<Document> batch) {
+		Query parents = new Query(Criteria.where("id").in(batch.stream().map(bucket -> bucket.getString("watchlistId")).distinct().toList()));
+		parents.fields().include("userIds");
+		Map<String, List<String>> members = new HashMap<>();
+		for (SharedWatchlist watchlist : mongoTemplate.find(parents, SharedWatchlist.class)) {
+			members.put(watchlist.getId(), watchlist.getUserIds());
+		}
+
+		return batch.stream()
+				.filter(bucket -> members.containsKey(bucket.getString("watchlistId")))
+				.<WriteModel<Document>>map(bucket -> new UpdateOneModel<>(Filters.eq("_id", bucket.get("_id")), List.of(
+						new Document("$set", new Document("movies",
+								BackfillSharedWatchlistAggregates.entries(members.get(bucket.getString("watchlistId"))))))))
+				.toList();
+	}
+
+}
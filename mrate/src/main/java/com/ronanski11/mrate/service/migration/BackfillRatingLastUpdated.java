@@ -0,0 +1,60 @@
+package com.ronanski11.mrate.service.migration;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.ronanski11.mrate.model.Rating;
+
+/**
+ * Sets {@code lastUpdated} on ratings that never had one from the creation
+ * time in their ObjectId, so they show up in the feed and incremental
+ * recommendation updates.
+ */
+@Component
+public class BackfillRatingLastUpdated implements Migration {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Override
+	public int version() {
+		return 4;
+	}
+
+	@Override
+	public String description() {
+		return "Backfill rating lastUpdated from the ObjectId timestamp";
+	}
+
+	@Override
+	public String collection() {
+		return mongoTemplate.getCollectionName(Rating.class);
+	}
+
+	@Override
+	public Document filter() {
+		return new Document("lastUpdated", null).append("_id", new Document("$type", "objectId"));
+	}
+
+	@Override
+	public Document projection() {
+		return new Document("_id", 1);
+	}
+
+	@Override
+	public List<WriteModel<Document>> migrate(List<Document> batch) {
+		List<Document> pipeline = List.of(new Document("$set", new Document("lastUpdated", new Document("$toDate", "$_id"))));
+		return batch.stream()
+				.<WriteModel<Document>>map(document -> new UpdateOneModel<>(
+						Filters.and(Filters.eq("_id", document.get("_id")), Filters.eq("lastUpdated", null)), pipeline))
+				.toList();
+	}
+
+}
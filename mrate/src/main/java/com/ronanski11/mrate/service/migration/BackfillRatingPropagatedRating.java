@@ -0,0 +1,60 @@
+package com.ronanski11.mrate.service.migration;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.ronanski11.mrate.model.Rating;
+
+/**
+ * Marks ratings written before user stats existed as already counted, so a
+ * later change to one of them adjusts the stats instead of adding a rating.
+ * Ratings still waiting for propagation are left to the outbox dispatcher.
+ */
+@Component
+public class BackfillRatingPropagatedRating implements Migration {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Override
+	public int version() {
+		return 5;
+	}
+
+	@Override
+	public String description() {
+		return "Backfill rating propagatedRating for user stats";
+	}
+
+	@Override
+	public String collection() {
+		return mongoTemplate.getCollectionName(Rating.class);
+	}
+
+	@Override
+	public Document filter() {
+		return new Document("propagatedRating", null).append("propagationPending", null);
+	}
+
+	@Override
+	public Document projection() {
+		return new Document("_id", 1);
+	}
+
+	@Override
+	public List<WriteModel<Document>> migrate(List<Document> batch) {
+		List<Document> pipeline = List.of(new Document("$set", new Document("propagatedRating", "$rating")));
+		return batch.stream()
+				.<WriteModel<Document>>map(document -> new UpdateOneModel<>(Filters.and(Filters.eq("_id", document.get("_id")),
+						Filters.eq("propagatedRating", null), Filters.eq("propagationPending", null)), pipeline))
+				.toList();
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.ronanski11.mrate.service.migration;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.StorageMode;
+import com.ronanski11.mrate.service.SharedWatchlistEntryUpdates;
+
+/**
+ * Computes the group aggregates, {@code lastModified} and {@code movieCount}
+ * for embedded shared watchlists written before they were maintained.
+ */
+@Component
+public class BackfillSharedWatchlistAggregates implements Migration {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Override
+	public int version() {
+		return 1;
+	}
+
+	@Override
+	public String description() {
+		return "Backfill shared watchlist entry aggregates and movie counts";
+	}
+
+	@Override
+	public String collection() {
+		return mongoTemplate.getCollectionName(SharedWatchlist.class);
+	}
+
+	@Override
+	public Document filter() {
+		return new Document("storageMode", new Document("$ne", StorageMode.BUCKETED.name()));
+	}
+
+	@Override
+	public Document projection() {
+		return new Document("_id", 1);
+	}
+
+	@Override
+	public List<WriteModel<Document>> migrate(List<Document> batch) {
+		List<Document> pipeline = List.of(
+				new Document("$set", new Document("movies", entries("$userIds"))),
+				new Document("$set", new Document("movieCount",
+						new Document("$size", new Document("$objectToArray", "$movies")))));
+		return batch.stream()
+				// A list converted to buckets since the batch was read would have its movie count reset
+				.<WriteModel<Document>>map(document -> new UpdateOneModel<>(Filters.and(Filters.eq("_id", document.get("_id")),
+						Filters.ne("storageMode", StorageMode.BUCKETED.name())), pipeline))
+				.toList();
+	}
+
+	/**
+	 * Expression rebuilding the movies map with every entry's aggregates
+	 * recomputed and a missing {@code lastModified} taken from when it was added.
+	 */
+	static Document entries(Object members) {
+		Document lastModified = new Document("lastModified", new Document("$ifNull", List.of("$$this.v.lastModified",
+				new Document("$ifNull", List.of("$$this.v.addedDate", "$lastUpdated")))));
+		Document entry = new Document("$mergeObjects", List.of(SharedWatchlistEntryUpdates.aggregated("$$this.v", members), lastModified));
+		return new Document("$arrayToObject", new Document("$map", new Document("input",
+				new Document("$objectToArray", new Document("$ifNull", List.of("$movies", new Document()))))
+				.append("in", new Document("k", "$$this.k").append("v", entry))));
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.ronanski11.mrate.service.migration;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.ronanski11.mrate.model.Watchlist;
+
+/**
+ * Gives personal watchlist entries written before delta sync a
+ * {@code lastModified}, taken from when they were added.
+ */
+@Component
+public class BackfillWatchlistLastModified implements Migration {
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Override
+	public int version() {
+		return 3;
+	}
+
+	@Override
+	public String description() {
+		return "Backfill watchlist entry lastModified";
+	}
+
+	@Override
+	public String collection() {
+		return mongoTemplate.getCollectionName(Watchlist.class);
+	}
+
+	@Override
+	public Document projection() {
+		return new Document("_id", 1);
+	}
+
+	@Override
+	public List<WriteModel<Document>> migrate(List<Document> batch) {
+		Document lastModified = new Document("lastModified", new Document("$ifNull", List.of("$$this.v.lastModified",
+				new Document("$ifNull", List.of("$$this.v.addedDate", "$$NOW")))));
+		Document movies = new Document("$arrayToObject", new Document("$map", new Document("input",
+				new Document("$objectToArray", new Document("$ifNull", List.of("$movies", new Document()))))
+				.append("in", new Document("k", "$$this.k")
+						.append("v", new Document("$mergeObjects", List.of("$$this.v", lastModified))))));
+		List<Document> pipeline = List.of(new Document("$set", new Document("movies", movies)));
+		return batch.stream()
+				.<WriteModel<Document>>map(document -> new UpdateOneModel<>(Filters.eq("_id", document.get("_id")), pipeline))
+				.toList();
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.ronanski11.mrate.service.migration;
+
+import java.util.List;
+
+import org.bson.Document;
+
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * A numbered data migration over one collection. The runner visits the
+ * documents matching {@link #filter()} in {@code _id} order, in batches, and
+ * bulk-writes whatever {@link #migrate(List)} returns for each batch.
+ * <p>
+ * A batch can be applied more than once after a crash between its writes and
+ * the checkpoint, so the writes must be idempotent.
+ */
+public interface Migration {
+
+	int version();
+
+	String description();
+
+	String collection();
+
+	default Document filter() {
+		return new Document();
+	}
+
+	/**
+	 * Fields to load per document, or null for the whole document.
+	 */
+	default Document projection() {
+		return null;
+	}
+
+	List<WriteModel<Document>> migrate(List<Document> batch);
+
+}
@@ -0,0 +1,205 @@
+package com.ronanski11.mrate.service.migration;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
+import com.ronanski11.mrate.model.MigrationState;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Applies {@link Migration}s in version order while the application serves
+ * traffic. Work is done in {@code _id}-ordered batches; after each batch the
+ * checkpoint is advanced and the lease renewed, so a crashed node's migration is
+ * resumed from the last checkpoint by whichever node takes the lease next. Each
+ * batch is followed by a pause proportional to its duration to keep the load
+ * on the database at the configured duty cycle.
+ */
+@Slf4j
+@Service
+public class MigrationRunner {
+
+	private final String owner = UUID.randomUUID().toString();
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	@Autowired
+	List<Migration> migrations;
+
+	@Value("${mrate.migrations.enabled:true}")
+	boolean enabled;
+
+	@Value("${mrate.migrations.batch-size:500}")
+	int batchSize;
+
+	@Value("${mrate.migrations.duty-cycle:0.5}")
+	double dutyCycle;
+
+	@Value("${mrate.migrations.lease:PT2M}")
+	Duration lease;
+
+	@Scheduled(initialDelayString = "${mrate.migrations.initial-delay:PT1M}", fixedDelayString = "${mrate.migrations.check-interval:PT5M}")
+	public void runPending() {
+		if (!enabled) {
+			return;
+		}
+		List<Migration> ordered = new ArrayList<>(migrations);
+		ordered.sort(Comparator.comparingInt(Migration::version));
+		for (Migration migration : ordered) {
+			MigrationState state = mongoTemplate.findById(migration.version(), MigrationState.class);
+			if (state != null && MigrationState.COMPLETED.equals(state.getStatus())) {
+				continue;
+			}
+			// Later migrations may depend on earlier ones, so stop at the first that cannot run here
+			if (!acquire(migration) || !run(migration)) {
+				return;
+			}
+		}
+	}
+
+	public List<MigrationState> getStates() {
+		return mongoTemplate.find(new Query().with(Sort.by("version")), MigrationState.class);
+	}
+
+	private boolean acquire(Migration migration) {
+		LocalDateTime now = LocalDateTime.now();
+		Query available = new Query(Criteria.where("version").is(migration.version())
+				.and("status").ne(MigrationState.COMPLETED)
+				.orOperator(
+						Criteria.where("owner").is(owner),
+						Criteria.where("leaseUntil").lt(now),
+						Criteria.where("leaseUntil").exists(false)));
+		Update take = new Update()
+				.set("owner", owner)
+				.set("leaseUntil", now.plus(lease))
+				.set("status", MigrationState.RUNNING)
+				.set("description", migration.description())
+				.set("collection", migration.collection())
+				.setOnInsert("startedAt", now);
+		try {
+			return mongoTemplate.findAndModify(available, take, FindAndModifyOptions.options().upsert(true).returnNew(true),
+					MigrationState.class) != null;
+		} catch (DuplicateKeyException e) {
+			// Another node holds the lease
+			return false;
+		}
+	}
+
+	private boolean run(Migration migration) {
+		MigrationState state = mongoTemplate.findById(migration.version(), MigrationState.class);
+		MongoCollection<Document> collection = mongoTemplate.getCollection(migration.collection());
+		if (state.getEstimatedTotal() == null) {
+			mongoTemplate.updateFirst(new Query(Criteria.where("version").is(migration.version())),
+					new Update().set("estimatedTotal", collection.estimatedDocumentCount()), MigrationState.class);
+		}
+		log.info("Running migration {} ({}) from {}", migration.version(), migration.description(),
+				state.getLastId() == null ? "the start" : state.getLastId());
+
+		Timer batchTimer = meterRegistry.timer("mrate.migration.batch", "version", Integer.toString(migration.version()));
+		Counter documents = meterRegistry.counter("mrate.migration.documents", "version", Integer.toString(migration.version()));
+		Object lastId = state.getLastId();
+		try {
+			while (true) {
+				long started = System.nanoTime();
+				List<Document> batch = collection
+						.find(lastId == null ? migration.filter() : Filters.and(migration.filter(), Filters.gt("_id", lastId)))
+						.projection(migration.projection())
+						.sort(Sorts.ascending("_id"))
+						.limit(batchSize)
+						.into(new ArrayList<>());
+				if (batch.isEmpty()) {
+					complete(migration);
+					return true;
+				}
+
+				List<WriteModel<Document>> writes = migration.migrate(batch);
+				long modified = writes.isEmpty() ? 0
+						: collection.bulkWrite(writes, new BulkWriteOptions().ordered(false)).getModifiedCount();
+				lastId = batch.get(batch.size() - 1).get("_id");
+				long elapsed = System.nanoTime() - started;
+				batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+				documents.increment(batch.size());
+
+				if (!checkpoint(migration, lastId, batch.size(), modified, elapsed)) {
+					log.warn("Lost the lease on migration {}, stopping", migration.version());
+					return false;
+				}
+				pauseAfter(elapsed);
+			}
+		} catch (RuntimeException e) {
+			log.error("Migration {} failed at {}", migration.version(), lastId, e);
+			mongoTemplate.updateFirst(owned(migration),
+					new Update().set("status", MigrationState.FAILED).set("lastError", e.getMessage()).unset("leaseUntil"),
+					MigrationState.class);
+			return false;
+		}
+	}
+
+	private boolean checkpoint(Migration migration, Object lastId, int processed, long modified, long elapsedNanos) {
+		Update update = new Update()
+				.set("lastId", lastId)
+				.inc("processed", processed)
+				.inc("modified", modified)
+				.inc("batches", 1)
+				.set("lastBatchMillis", elapsedNanos / 1_000_000.0)
+				.set("leaseUntil", LocalDateTime.now().plus(lease));
+		return mongoTemplate.updateFirst(owned(migration), update, MigrationState.class).getMatchedCount() > 0;
+	}
+
+	private void complete(Migration migration) {
+		mongoTemplate.updateFirst(owned(migration), new Update()
+				.set("status", MigrationState.COMPLETED)
+				.set("completedAt", LocalDateTime.now())
+				.unset("leaseUntil")
+				.unset("lastError"), MigrationState.class);
+		log.info("Completed migration {} ({})", migration.version(), migration.description());
+	}
+
+	private Query owned(Migration migration) {
+		return new Query(Criteria.where("version").is(migration.version()).and("owner").is(owner));
+	}
+
+	private void pauseAfter(long elapsedNanos) {
+		if (dutyCycle >= 1) {
+			return;
+		}
+		long pauseNanos = (long) (elapsedNanos * (1 - dutyCycle) / Math.max(dutyCycle, 0.01));
+		try {
+			TimeUnit.NANOSECONDS.sleep(pauseNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.ronanski11.mrate.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.ser.PropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+/**
+ * Top-level fields requested through a {@code fields=} parameter. The same
+ * selection limits the Mongo projection and the Jackson output of documents
+ * annotated with {@code @JsonFilter(FieldSelection.FILTER)}.
+ */
+public class FieldSelection {
+
+	public static final String FILTER = "fieldSelection";
+
+	private static final FieldSelection ALL = new FieldSelection(Collections.emptySet());
+
+	private final Set<String> fields;
+
+	private FieldSelection(Set<String> fields) {
+		this.fields = fields;
+	}
+
+	public static FieldSelection all() {
+		return ALL;
+	}
+
+	public static FieldSelection parse(String fields, Class<?> type) {
+		if (fields == null || fields.isBlank()) {
+			return ALL;
+		}
+
+		Set<String> allowed = Arrays.stream(type.getDeclaredFields())
+				.filter(f -> !Modifier.isStatic(f.getModifiers()))
+				.map(Field::getName)
+				.collect(Collectors.toSet());
+
+		Set<String> selected = new LinkedHashSet<>();
+		selected.add("id");
+		for (String field : fields.split(",")) {
+			String name = field.trim();
+			if (name.isEmpty()) {
+				continue;
+			}
+			if (!allowed.contains(name)) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown field: " + name);
+			}
+			selected.add(name);
+		}
+		return new FieldSelection(selected);
+	}
+
+	public boolean isAll() {
+		return fields.isEmpty();
+	}
+
+	public boolean includes(String field) {
+		return isAll() || fields.contains(field);
+	}
+
+	public Query applyTo(Query query) {
+		fields.forEach(field -> query.fields().include(field));
+		return query;
+	}
+
+	public MappingJacksonValue wrap(Object body) {
+		PropertyFilter filter = isAll() ? SimpleBeanPropertyFilter.serializeAll()
+				: SimpleBeanPropertyFilter.filterOutAllExcept(fields);
+		MappingJacksonValue value = new MappingJacksonValue(body);
+		value.setFilters(new SimpleFilterProvider().addFilter(FILTER, filter));
+		return value;
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.ronanski11.mrate.util;
+
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * The shape of an IMDb id. Ids become field names in watchlist updates, so
+ * anything else is rejected before it is written.
+ */
+public final class ImdbIds {
+
+	private static final Pattern PATTERN = Pattern.compile("tt\\d{5,10}");
+
+	private ImdbIds() {
+	}
+
+	public static boolean isValid(String imdbId) {
+		return imdbId != null && PATTERN.matcher(imdbId).matches();
+	}
+
+	public static String require(String imdbId) {
+		if (!isValid(imdbId)) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid imdbId: " + imdbId);
+		}
+		return imdbId;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.ronanski11.mrate.util;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Small bounded cache with least-recently-used eviction and an optional
+ * time-to-live per entry. The bound is a number of entries, or a total weight
+ * when the values differ widely in size.
+ */
+public class LruCache<K, V> {
+
+	private final long ttlMillis;
+
+	private final long maxWeight;
+
+	private final ToIntFunction<? super V> weigher;
+
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long weight;
+
+	public LruCache(int maxSize) {
+		this(maxSize, null);
+	}
+
+	public LruCache(int maxSize, Duration ttl) {
+		this(maxSize, ttl, value -> 1);
+	}
+
+	/**
+	 * @param maxWeight the total weight of the values kept; a single value
+	 *                  weighing more is not kept at all
+	 * @param weigher   the weight of a value, at least 1
+	 */
+	public LruCache(long maxWeight, Duration ttl, ToIntFunction<? super V> weigher) {
+		this.ttlMillis = ttl == null ? 0 : ttl.toMillis();
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	public synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (ttlMillis > 0 && System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+			remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		remove(key);
+		int valueWeight = Math.max(1, weigher.applyAsInt(value));
+		if (valueWeight > maxWeight) {
+			return;
+		}
+		entries.put(key, new Entry<>(value, System.currentTimeMillis(), valueWeight));
+		weight += valueWeight;
+		// The value just put is the most recent and fits on its own, so eviction stops before it
+		Iterator<Entry<V>> eldest = entries.values().iterator();
+		while (weight > maxWeight) {
+			weight -= eldest.next().weight;
+			eldest.remove();
+		}
+	}
+
+	public synchronized void remove(K key) {
+		Entry<V> entry = entries.remove(key);
+		if (entry != null) {
+			weight -= entry.weight;
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long weight() {
+		return weight;
+	}
+
+	private record Entry<V>(V value, long createdAt, int weight) {
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.ronanski11.mrate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.ronanski11.mrate.security.AuthenticationService;
+import com.ronanski11.mrate.security.configuration.DatabaseAccountingFilter;
+import com.ronanski11.mrate.security.model.AuthenticationResponse;
+import com.ronanski11.mrate.security.model.RegisterRequest;
+
+/**
+ * Budgets for the number of Mongo commands hot endpoints may issue, counting
+ * the security filters' user lookups. A failure here means an endpoint gained
+ * a round trip; raise the budget only together with the reason. Needs Docker
+ * and runs in the integration-test phase ({@code mvn verify}), where it fails
+ * rather than being skipped when Docker is missing.
+ */
+@SpringBootTest(properties = {
+		"jwt.secret.key=dGVzdC1vbmx5LXRlc3Qtb25seS10ZXN0LW9ubHktdGVzdC1vbmx5",
+		"mrate.db-accounting.header=true"
+})
+@AutoConfigureMockMvc
+@Testcontainers
+class DatabaseRoundTripIT {
+
+	@Container
+	@ServiceConnection
+	static MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	AuthenticationService authService;
+
+	String token;
+
+	@BeforeEach
+	void register() {
+		String username = "budget-" + System.nanoTime();
+		AuthenticationResponse response = (AuthenticationResponse) authService
+				.register(RegisterRequest.builder().username(username).password("password").build()).getBody();
+		token = response.getToken();
+	}
+
+	@Test
+	void createRating() throws Exception {
+		assertCommandsAtMost(3, post("/api/rating").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"imdbId\": \"tt0111161\", \"rating\": 8.5}"));
+	}
+
+	@Test
+	void getRating() throws Exception {
+		assertCommandsAtMost(3, get("/api/rating").param("imdbId", "tt0111161"));
+	}
+
+	@Test
+	void getCurrentUser() throws Exception {
+		assertCommandsAtMost(3, get("/api/users/me"));
+	}
+
+	@Test
+	void getWatchlist() throws Exception {
+		assertCommandsAtMost(3, get("/api/watchlist"));
+	}
+
+	private void assertCommandsAtMost(int budget, MockHttpServletRequestBuilder request) throws Exception {
+		RequestBuilder authenticated = request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+		MvcResult result = mockMvc.perform(authenticated).andExpect(status().is2xxSuccessful()).andReturn();
+		String commands = result.getResponse().getHeader(DatabaseAccountingFilter.COMMANDS_HEADER);
+		assertThat(commands).isNotNull();
+		assertThat(Integer.parseInt(commands)).as("Mongo commands issued").isLessThanOrEqualTo(budget);
+	}
+
+}
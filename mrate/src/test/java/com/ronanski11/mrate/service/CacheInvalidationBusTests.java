@@ -0,0 +1,116 @@
+package com.ronanski11.mrate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.unit.DataSize;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.ronanski11.mrate.model.CacheInvalidation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Invalidations between instances: keys evicted in order, duplicates from a
+ * re-read skipped, and a full flush when an instance's events went missing.
+ */
+class CacheInvalidationBusTests {
+
+	private final List<String> evicted = new CopyOnWriteArrayList<>();
+
+	private final AtomicInteger flushes = new AtomicInteger();
+
+	@Test
+	void flushesWhenAnInstanceSkippedEvents() {
+		CacheInvalidationBus bus = bus(false, null);
+
+		bus.receive(new CacheInvalidation(null, "a", 7, "users", "u1"));
+		bus.receive(new CacheInvalidation(null, "a", 8, "users", "u2"));
+		// Read again after reconnecting
+		bus.receive(new CacheInvalidation(null, "a", 8, "users", "u2"));
+		bus.receive(new CacheInvalidation(null, "b", 1, "unknown", "x"));
+		assertThat(evicted).containsExactly("u1", "u2");
+		assertThat(flushes).hasValue(0);
+
+		bus.receive(new CacheInvalidation(null, "a", 10, "users", "u3"));
+		assertThat(flushes).hasValue(1);
+		bus.receive(new CacheInvalidation(null, "a", 11, null, null));
+		bus.receive(new CacheInvalidation(null, "a", 12, "users", "u4"));
+		assertThat(evicted).containsExactly("u1", "u2", "u4");
+		assertThat(flushes).hasValue(1);
+	}
+
+	@Test
+	void evictsLocallyWhenPublishing() {
+		bus(false, null).publish("users", "u1");
+		assertThat(evicted).containsExactly("u1");
+	}
+
+	private CacheInvalidationBus bus(boolean enabled, MongoTemplate mongoTemplate) {
+		CacheInvalidationBus bus = new CacheInvalidationBus(enabled, 100, DataSize.ofMegabytes(1), Duration.ofMillis(200),
+				Duration.ofMillis(200), mongoTemplate, new SimpleMeterRegistry());
+		bus.register("users", evicted::add, flushes::incrementAndGet);
+		return bus;
+	}
+
+	/**
+	 * Two instances sharing one database, as in the docker-compose setup.
+	 */
+	@Nested
+	@Testcontainers(disabledWithoutDocker = true)
+	class TwoInstances {
+
+		@Container
+		static MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+		private MongoClient client;
+
+		private CacheInvalidationBus first;
+
+		private CacheInvalidationBus second;
+
+		@AfterEach
+		void stop() {
+			first.stop();
+			second.stop();
+			client.close();
+		}
+
+		@Test
+		void deliversToTheOtherInstance() throws Exception {
+			client = MongoClients.create(mongo.getConnectionString());
+			MongoTemplate mongoTemplate = new MongoTemplate(client, "invalidation-" + System.nanoTime());
+			first = new CacheInvalidationBus(true, 100, DataSize.ofMegabytes(1), Duration.ofMillis(200),
+					Duration.ofMillis(200), mongoTemplate, new SimpleMeterRegistry());
+			List<String> firstEvicted = new CopyOnWriteArrayList<>();
+			first.register("users", firstEvicted::add, () -> {});
+			second = bus(true, mongoTemplate);
+			first.start();
+			second.start();
+
+			first.publish("users", "u1");
+			first.publish("users", "u2");
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (evicted.size() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertThat(evicted).containsExactly("u1", "u2");
+			assertThat(firstEvicted).containsExactly("u1", "u2");
+			assertThat(flushes).hasValue(0);
+		}
+
+	}
+
+}
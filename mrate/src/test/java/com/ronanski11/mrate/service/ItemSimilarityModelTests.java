@@ -0,0 +1,141 @@
+package com.ronanski11.mrate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ronanski11.mrate.model.Rating;
+
+/**
+ * Neighbour selection, incremental updates and snapshots of the item-item
+ * model, on a small random but reproducible set of ratings.
+ */
+class ItemSimilarityModelTests {
+
+	private static final int USERS = 40;
+
+	private static final int ITEMS = 15;
+
+	private final ForkJoinPool pool = new ForkJoinPool(2);
+
+	@AfterEach
+	void stop() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	void keepsTheStrongestNeighboursInOrder() {
+		List<Rating> ratings = ratings(new Random(7));
+		ItemSimilarityModel all = ItemSimilarityModel.build(ratings.iterator(), ITEMS, 2, pool);
+		ItemSimilarityModel top = ItemSimilarityModel.build(ratings.iterator(), 3, 2, pool);
+
+		int truncated = 0;
+		for (int i = 0; i < ITEMS; i++) {
+			float[] scores = all.similarities[i];
+			for (int n = 1; n < scores.length; n++) {
+				assertThat(scores[n]).isLessThanOrEqualTo(scores[n - 1]);
+			}
+			int expected = Math.min(3, scores.length);
+			assertThat(top.similarities[i]).containsExactly(Arrays.copyOf(scores, expected));
+			assertThat(top.neighbours[i]).containsExactly(Arrays.copyOf(all.neighbours[i], expected));
+			if (scores.length > 3) {
+				truncated++;
+			}
+		}
+		assertThat(truncated).isPositive();
+	}
+
+	@Test
+	void updatesLeaveTheOriginalUntouched() {
+		ItemSimilarityModel model = ItemSimilarityModel.build(ratings(new Random(11)).iterator(), 4, 2, pool);
+		int[][] neighbours = deepCopy(model.neighbours);
+		float[][] similarities = deepCopy(model.similarities);
+		float[][] userRatings = deepCopy(model.userRatings);
+		Map<String, Float> before = model.ratingsOf("u0");
+
+		ItemSimilarityModel updated = model.withRatings(Map.of(
+				"u0", Map.of("tt0000001", 1f, "tt0000002", 10f),
+				"newcomer", Map.of("tt0000001", 9f, "tt9999999", 8f)), pool);
+
+		assertThat(model.neighbours).isDeepEqualTo(neighbours);
+		assertThat(model.similarities).isDeepEqualTo(similarities);
+		assertThat(model.userRatings).isDeepEqualTo(userRatings);
+		assertThat(model.ratingsOf("u0")).isEqualTo(before);
+		assertThat(model.ratingsOf("newcomer")).isEmpty();
+		assertThat(model.size()).isEqualTo(ITEMS);
+
+		assertThat(updated.ratingsOf("u0")).containsEntry("tt0000001", 1f).containsEntry("tt0000002", 10f);
+		assertThat(updated.ratingsOf("newcomer")).containsOnlyKeys("tt0000001", "tt9999999");
+		assertThat(updated.size()).isEqualTo(ITEMS + 1);
+		for (int i = 0; i < updated.size(); i++) {
+			assertThat(updated.neighbours[i].length).isLessThanOrEqualTo(4);
+		}
+	}
+
+	@Test
+	void snapshotRestoresTheSameModel() throws Exception {
+		ItemSimilarityModel model = ItemSimilarityModel.build(ratings(new Random(23)).iterator(), 5, 2, pool);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			model.writeTo(out);
+		}
+		ItemSimilarityModel restored;
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			restored = ItemSimilarityModel.readFrom(in);
+		}
+
+		assertThat(restored.builtAt).isEqualTo(model.builtAt);
+		assertThat(restored.itemIds).containsExactly(model.itemIds);
+		assertThat(restored.neighbours).isDeepEqualTo(model.neighbours);
+		assertThat(restored.similarities).isDeepEqualTo(model.similarities);
+		assertThat(restored.userMeans).containsExactly(model.userMeans);
+		assertThat(restored.itemNorms).containsExactly(model.itemNorms);
+		Map<String, Float> ratings = model.ratingsOf("u3");
+		assertThat(restored.ratingsOf("u3")).isEqualTo(ratings);
+		assertThat(restored.recommend(ratings, ratings.keySet(), 5)).isEqualTo(model.recommend(ratings, ratings.keySet(), 5));
+	}
+
+	/**
+	 * Users lean towards one of two groups of items, so that similarities
+	 * within a group are positive and some items have many neighbours.
+	 */
+	private static List<Rating> ratings(Random random) {
+		List<Rating> ratings = new ArrayList<>();
+		for (int u = 0; u < USERS; u++) {
+			int liked = u % 2;
+			for (int i = 0; i < ITEMS; i++) {
+				if (random.nextInt(3) == 0) {
+					continue;
+				}
+				double base = i % 2 == liked ? 8 : 4;
+				Rating rating = new Rating();
+				rating.setUserId("u" + u);
+				rating.setImdbId(String.format("tt%07d", i));
+				rating.setRating(Math.max(1, Math.min(10, base + random.nextInt(5) - 2)));
+				ratings.add(rating);
+			}
+		}
+		return ratings;
+	}
+
+	private static int[][] deepCopy(int[][] rows) {
+		return Arrays.stream(rows).map(int[]::clone).toArray(int[][]::new);
+	}
+
+	private static float[][] deepCopy(float[][] rows) {
+		return Arrays.stream(rows).map(float[]::clone).toArray(float[][]::new);
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.ronanski11.mrate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import com.ronanski11.mrate.model.Role;
+import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.model.Watchlist;
+import com.ronanski11.mrate.model.WatchlistEntry;
+import com.ronanski11.mrate.repository.UserRepository;
+import com.ronanski11.mrate.security.JwtService;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import de.bwaldvogel.mongo.bson.Document;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.Channel;
+
+/**
+ * Chaos check for the breaker and stale reads, against an in-process Mongo
+ * that can be made to answer slowly: once commands take longer than the
+ * request budget, requests must degrade to fast stale answers and 503s
+ * instead of holding every caller for the full delay, and recover once the
+ * database is fast again.
+ */
+@SpringBootTest(properties = {
+		"jwt.secret.key=dGVzdC1vbmx5LXRlc3Qtb25seS10ZXN0LW9ubHktdGVzdC1vbmx5",
+		"mrate.mongo.request-timeout=PT0.3S",
+		"mrate.mongo.breaker.window=10",
+		"mrate.mongo.breaker.minimum-calls=5",
+		"mrate.mongo.breaker.open-duration=PT3S",
+		"mrate.invalidation.enabled=false",
+		"mrate.outbox.initial-delay=PT1H",
+		"mrate.db-accounting.header=false",
+		"mrate.slow-queries.explain=false"
+})
+@AutoConfigureMockMvc
+class MongoResilienceTests {
+
+	private static final long BUDGET_MILLIS = 300;
+
+	private static final long DELAY_MILLIS = 3000;
+
+	private static final SlowBackend database = new SlowBackend();
+
+	private static final MongoServer server = new MongoServer(database);
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	MongoCircuitBreaker breaker;
+
+	@Autowired
+	UserRepository users;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
+	@Autowired
+	JwtService jwtService;
+
+	@DynamicPropertySource
+	static void mongo(DynamicPropertyRegistry registry) {
+		InetSocketAddress address = server.bind();
+		registry.add("spring.data.mongodb.uri", () -> "mongodb://localhost:" + address.getPort() + "/mrate");
+	}
+
+	@AfterEach
+	void restore() {
+		database.delayMillis = 0;
+	}
+
+	@AfterAll
+	static void stop() {
+		server.shutdownNow();
+	}
+
+	@Test
+	void slowDatabaseDegradesToStaleReadsAndRecovers() throws Exception {
+		User user = users.save(User.builder().username("chaos").password("-").role(Role.USER).sharedWatchlists(List.of()).build());
+		Watchlist watchlist = new Watchlist();
+		watchlist.setUserId(user.getId());
+		WatchlistEntry entry = new WatchlistEntry();
+		entry.setAddedDate(LocalDateTime.now());
+		watchlist.getMovies().put("tt0111161", entry);
+		mongoTemplate.save(watchlist);
+		String token = "Bearer " + jwtService.generateToken(user, user.getId());
+
+		watchlist(token).andExpect(status().isOk())
+				.andExpect(header().doesNotExist(HttpHeaders.WARNING))
+				.andExpect(jsonPath("$.tt0111161").exists());
+
+		// Every command gives up after the budget, and the last watchlist is served meanwhile
+		database.delayMillis = DELAY_MILLIS;
+		for (int i = 0; i < 10 && breaker.getState() != MongoCircuitBreaker.State.OPEN; i++) {
+			long started = System.nanoTime();
+			watchlist(token).andExpect(status().isOk())
+					.andExpect(header().string(HttpHeaders.WARNING, StaleFallback.STALE_WARNING))
+					.andExpect(jsonPath("$.tt0111161").exists());
+			assertThat(millisSince(started)).isLessThan(DELAY_MILLIS / 2);
+		}
+		assertThat(breaker.getState()).isEqualTo(MongoCircuitBreaker.State.OPEN);
+
+		// Open: answered without waiting for the database at all, which would take the whole budget
+		for (int i = 0; i < 20; i++) {
+			long started = System.nanoTime();
+			watchlist(token).andExpect(status().isOk())
+					.andExpect(header().string(HttpHeaders.WARNING, StaleFallback.STALE_WARNING));
+			assertThat(millisSince(started)).isLessThan(BUDGET_MILLIS);
+		}
+		long started = System.nanoTime();
+		mockMvc.perform(get("/api/rating/all").header(HttpHeaders.AUTHORIZATION, token))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"));
+		assertThat(millisSince(started)).isLessThan(BUDGET_MILLIS);
+
+		database.delayMillis = 0;
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (breaker.getState() != MongoCircuitBreaker.State.CLOSED && System.currentTimeMillis() < deadline) {
+			Thread.sleep(200);
+			watchlist(token);
+		}
+		watchlist(token).andExpect(status().isOk())
+				.andExpect(header().doesNotExist(HttpHeaders.WARNING));
+		assertThat(breaker.getState()).isEqualTo(MongoCircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	void isolatedFailuresDoNotOpenTheBreaker() {
+		MongoCircuitBreaker breaker = new MongoCircuitBreaker(0.5, 10, 5, Duration.ofMillis(300), Duration.ofMillis(50),
+				new SimpleMeterRegistry());
+		for (int i = 0; i < 20; i++) {
+			breaker.record(true);
+		}
+		for (int i = 0; i < 4; i++) {
+			breaker.record(false);
+		}
+		assertThat(breaker.getState()).isEqualTo(MongoCircuitBreaker.State.CLOSED);
+	}
+
+	private ResultActions watchlist(String token) throws Exception {
+		return mockMvc.perform(get("/api/watchlist").header(HttpHeaders.AUTHORIZATION, token));
+	}
+
+	private static long millisSince(long started) {
+		return (System.nanoTime() - started) / 1_000_000;
+	}
+
+	/**
+	 * Delays every command but the driver's monitoring handshakes.
+	 */
+	private static class SlowBackend extends MemoryBackend {
+
+		private static final Set<String> HANDSHAKES = Set.of("hello", "isMaster", "ismaster", "buildInfo", "buildinfo");
+
+		volatile long delayMillis;
+
+		@Override
+		public Document handleCommand(Channel channel, String databaseName, String command, Document query) {
+			if (delayMillis > 0 && !HANDSHAKES.contains(command)) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return super.handleCommand(channel, databaseName, command, query);
+		}
+
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.ronanski11.mrate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.ronanski11.mrate.model.MovieMetadata;
+import com.ronanski11.mrate.repository.MovieMetadataRepository;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * Metadata lookups against the bundled fixtures: misses of a batch go
+ * upstream in one call, and are then answered from the LRU or, on another
+ * instance, from the collection.
+ */
+class MovieMetadataServiceTests {
+
+	private final List<List<String>> upstreamCalls = new ArrayList<>();
+
+	private MongoServer server;
+
+	private MongoClient client;
+
+	private MovieMetadataRepository repo;
+
+	@BeforeEach
+	void start() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = MongoClients.create("mongodb://localhost:" + address.getPort());
+		repo = new MongoRepositoryFactory(new MongoTemplate(client, "metadata"))
+				.getRepository(MovieMetadataRepository.class);
+	}
+
+	@AfterEach
+	void stop() {
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	void fetchesMissesInOneBatchAndCachesThem() {
+		MovieMetadataService service = service();
+
+		Map<String, MovieMetadata> first = service.getMetadata(List.of("tt0111161", "tt0068646", "tt9999999"));
+		assertThat(first.keySet()).containsExactly("tt0111161", "tt0068646");
+		assertThat(first.get("tt0111161").getTitle()).isEqualTo("The Shawshank Redemption");
+		assertThat(upstreamCalls).containsExactly(List.of("tt0111161", "tt0068646", "tt9999999"));
+
+		// Only the id not seen yet goes upstream, the unknown one is asked for again
+		Map<String, MovieMetadata> second = service.getMetadata(List.of("tt0068646", "tt0111161", "tt0133093", "tt9999999"));
+		assertThat(second.keySet()).containsExactly("tt0068646", "tt0111161", "tt0133093");
+		assertThat(upstreamCalls).last().isEqualTo(List.of("tt0133093", "tt9999999"));
+		assertThat(upstreamCalls).hasSize(2);
+	}
+
+	@Test
+	void readsWhatAnotherInstanceStored() {
+		service().getMetadata(List.of("tt0468569", "tt1375666"));
+		upstreamCalls.clear();
+
+		Map<String, MovieMetadata> stored = service().getMetadata(List.of("tt1375666", "tt0468569"));
+		assertThat(stored.keySet()).containsExactly("tt1375666", "tt0468569");
+		assertThat(stored.get("tt0468569").getFetchedAt()).isNotNull();
+		assertThat(upstreamCalls).isEmpty();
+	}
+
+	@Test
+	void refetchesAfterTheTtl() {
+		MovieMetadataService service = service();
+		service.ttl = Duration.ZERO;
+		service.getMetadata(List.of("tt0111161"));
+		assertThat(service.getMetadata(List.of("tt0111161"))).containsKey("tt0111161");
+		assertThat(upstreamCalls).hasSize(2);
+	}
+
+	@Test
+	void leavesTheFixturesUntouched() {
+		FixtureMetadataProvider fixtures = fixtures();
+		MovieMetadata fetched = fixtures.fetch(List.of("tt0133093")).get("tt0133093");
+		fetched.setFetchedAt(LocalDateTime.now());
+		fetched.setTitle("changed");
+
+		MovieMetadata again = fixtures.fetch(List.of("tt0133093")).get("tt0133093");
+		assertThat(again).isNotSameAs(fetched);
+		assertThat(again.getTitle()).isEqualTo("The Matrix");
+		assertThat(again.getFetchedAt()).isNull();
+	}
+
+	@Test
+	void rejectsInvalidAndOversizedBatches() {
+		MovieMetadataService service = service();
+		assertThatThrownBy(() -> service.getMetadata(List.of("tt0111161", "0111161")))
+				.isInstanceOf(ResponseStatusException.class);
+		List<String> tooMany = IntStream.range(0, MovieMetadataService.MAX_BATCH_SIZE + 1)
+				.mapToObj(i -> String.format("tt%07d", i))
+				.toList();
+		assertThatThrownBy(() -> service.getMetadata(tooMany)).isInstanceOf(ResponseStatusException.class);
+		assertThat(upstreamCalls).isEmpty();
+	}
+
+	private MovieMetadataService service() {
+		FixtureMetadataProvider fixtures = fixtures();
+		MovieMetadataService service = new MovieMetadataService();
+		service.repo = repo;
+		service.provider = (Collection<String> ids) -> {
+			upstreamCalls.add(List.copyOf(ids));
+			return fixtures.fetch(ids);
+		};
+		service.ttl = Duration.ofDays(7);
+		service.cacheSize = 100;
+		service.upstreamTimeout = Duration.ofSeconds(1);
+		service.init();
+		return service;
+	}
+
+	private static FixtureMetadataProvider fixtures() {
+		return new FixtureMetadataProvider(new ClassPathResource("movie-metadata.json"), new ObjectMapper());
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.ronanski11.mrate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.time.Duration;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ronanski11.mrate.model.CacheInvalidation;
+import com.ronanski11.mrate.model.dto.SharedWatchlistEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Streams of members: a removed member's stream ends, and events published on
+ * another instance arrive through the invalidation bus, with ids that only the
+ * instance that numbered them resumes from.
+ */
+class SharedWatchlistEventBroadcasterTests {
+
+	private static final Duration WAIT = Duration.ofSeconds(5);
+
+	private final CacheInvalidationBus bus = bus();
+
+	private final SharedWatchlistEventBroadcaster broadcaster = broadcaster(bus);
+
+	private final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new Events(broadcaster)).build();
+
+	@AfterEach
+	void stop() {
+		broadcaster.shutdown();
+	}
+
+	@Test
+	void endsTheStreamsOfRemovedMembers() throws Exception {
+		MockHttpServletResponse alice = subscribe("alice", null);
+		MockHttpServletResponse bob = subscribe("bob", null);
+
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, "tt0111161", null, null));
+		await(alice, body -> body.contains("tt0111161"));
+		await(bob, body -> body.contains("tt0111161"));
+
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MEMBER_REMOVED, null, "bob", null));
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, "tt0068646", null, null));
+		await(alice, body -> body.contains("tt0068646"));
+		assertThat(bob.getContentAsString()).doesNotContain("tt0068646");
+
+		// Reconnecting after the access check passed, but before the removal arrived
+		MockHttpServletResponse again = subscribe("bob", null);
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, "tt0133093", null, null));
+		await(alice, body -> body.contains("tt0133093"));
+		assertThat(again.getContentAsString()).isEmpty();
+
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MEMBER_ADDED, null, "bob", null));
+		MockHttpServletResponse readded = subscribe("bob", null);
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, "tt0468569", null, null));
+		await(readded, body -> body.contains("tt0468569"));
+	}
+
+	@Test
+	void deliversEventsFromAnotherInstance() throws Exception {
+		MockHttpServletResponse alice = subscribe("alice", null);
+		bus.receive(new CacheInvalidation(null, "other", 1, "shared-watchlist-events",
+				"{\"watchlistId\":\"w1\",\"type\":\"movie-rated\",\"event\":{\"imdbId\":\"tt0111161\",\"userId\":\"bob\",\"rating\":8.0}}"));
+		await(alice, body -> body.contains("event:movie-rated") && body.contains("\"rating\":8.0"));
+
+		String lastEventId = lastEventId(alice);
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, "tt0068646", null, null));
+		await(subscribe("alice", lastEventId), body -> body.contains("tt0068646") && !body.contains("resync"));
+
+		// The other instance numbers its events on its own, so its ids cannot be resumed from here
+		SharedWatchlistEventBroadcaster other = broadcaster(bus());
+		try {
+			MockHttpServletResponse elsewhere = subscribe(MockMvcBuilders.standaloneSetup(new Events(other)).build(), "alice", lastEventId);
+			await(elsewhere, body -> body.contains("event:resync"));
+		} finally {
+			other.shutdown();
+		}
+	}
+
+	@Test
+	void resyncsWhenEventsWentMissing() throws Exception {
+		MockHttpServletResponse alice = subscribe("alice", null);
+		broadcaster.publish("w1", SharedWatchlistEvent.of(SharedWatchlistEvent.MOVIE_ADDED, "tt0111161", null, null));
+		await(alice, body -> body.contains("tt0111161"));
+		String lastEventId = lastEventId(alice);
+
+		bus.receive(new CacheInvalidation(null, "other", 1, null, null));
+		bus.receive(new CacheInvalidation(null, "other", 3, null, null));
+		await(alice, body -> body.contains("event:resync"));
+		await(subscribe("alice", lastEventId), body -> body.contains("event:resync"));
+	}
+
+	private MockHttpServletResponse subscribe(String userId, String lastEventId) throws Exception {
+		return subscribe(mockMvc, userId, lastEventId);
+	}
+
+	private static MockHttpServletResponse subscribe(MockMvc mockMvc, String userId, String lastEventId) throws Exception {
+		return mockMvc.perform(get("/events").param("userId", userId)
+				.header("Last-Event-ID", lastEventId == null ? "" : lastEventId))
+				.andReturn().getResponse();
+	}
+
+	private static String lastEventId(MockHttpServletResponse response) throws Exception {
+		String body = response.getContentAsString();
+		int start = body.lastIndexOf("id:") + 3;
+		return body.substring(start, body.indexOf('\n', start));
+	}
+
+	private static void await(MockHttpServletResponse response, Predicate<String> condition) throws Exception {
+		long deadline = System.nanoTime() + WAIT.toNanos();
+		while (!condition.test(response.getContentAsString())) {
+			if (System.nanoTime() > deadline) {
+				throw new AssertionError("Timed out waiting for the stream, got: " + response.getContentAsString());
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static CacheInvalidationBus bus() {
+		return new CacheInvalidationBus(false, 100, DataSize.ofMegabytes(1), Duration.ofMillis(200), Duration.ofMillis(200),
+				null, new SimpleMeterRegistry());
+	}
+
+	private static SharedWatchlistEventBroadcaster broadcaster(CacheInvalidationBus bus) {
+		SharedWatchlistEventBroadcaster broadcaster = new SharedWatchlistEventBroadcaster();
+		ReflectionTestUtils.setField(broadcaster, "replaySize", 256);
+		ReflectionTestUtils.setField(broadcaster, "queueSize", 512);
+		ReflectionTestUtils.setField(broadcaster, "senderCount", 2);
+		ReflectionTestUtils.setField(broadcaster, "timeout", Duration.ofMinutes(1));
+		ReflectionTestUtils.setField(broadcaster, "idleChannelTtl", Duration.ofMinutes(10));
+		ReflectionTestUtils.setField(broadcaster, "invalidations", bus);
+		ReflectionTestUtils.setField(broadcaster, "objectMapper", new ObjectMapper());
+		broadcaster.init();
+		return broadcaster;
+	}
+
+	@RestController
+	static class Events {
+
+		private final SharedWatchlistEventBroadcaster broadcaster;
+
+		Events(SharedWatchlistEventBroadcaster broadcaster) {
+			this.broadcaster = broadcaster;
+		}
+
+		@GetMapping("/events")
+		SseEmitter subscribe(@RequestParam String userId,
+				@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+			return broadcaster.subscribe("w1", userId, lastEventId);
+		}
+
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.ronanski11.mrate.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.SharedWatchlistBucket;
+import com.ronanski11.mrate.model.SharedWatchlistEntry;
+
+/**
+ * Compares the cost of rating one entry in an embedded shared watchlist with
+ * the same update against a bucketed one, at 100, 10k and 100k entries. Not
+ * part of the test suite; needs a MongoDB to write to and drops the benchmark
+ * collections afterwards:
+ *
+ * <pre>
+ * MONGODB_URI=mongodb://localhost:27017/mrate-bench java ... SharedWatchlistStorageBenchmark [updates]
+ * </pre>
+ */
+public class SharedWatchlistStorageBenchmark {
+
+	private static final int[] SIZES = { 100, 10_000, 100_000 };
+
+	private static final List<String> MEMBERS = List.of("u1", "u2", "u3", "u4", "u5");
+
+	public static void main(String[] args) {
+		String uri = System.getenv().getOrDefault("MONGODB_URI", "mongodb://localhost:27017/mrate-bench");
+		int updates = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+		try (MongoClient client = MongoClients.create(uri)) {
+			String database = new ConnectionString(uri).getDatabase();
+			MongoTemplate template = new MongoTemplate(client, database == null ? "mrate-bench" : database);
+			SharedWatchlistBucketStore buckets = new SharedWatchlistBucketStore();
+			buckets.mongoTemplate = template;
+
+			System.out.printf("%-8s %-9s %12s %10s %10s%n", "entries", "mode", "doc bytes", "mean us", "p99 us");
+			for (int size : SIZES) {
+				Map<String, SharedWatchlistEntry> movies = entries(size);
+				runEmbedded(template, movies, updates);
+				runBucketed(template, buckets, movies, updates);
+			}
+			template.dropCollection(SharedWatchlist.class);
+			template.dropCollection(SharedWatchlistBucket.class);
+		}
+	}
+
+	private static void runEmbedded(MongoTemplate template, Map<String, SharedWatchlistEntry> movies, int updates) {
+		template.dropCollection(SharedWatchlist.class);
+		SharedWatchlist watchlist = new SharedWatchlist();
+		watchlist.setId("bench");
+		watchlist.setUserIds(new ArrayList<>(MEMBERS));
+		watchlist.setMovies(movies);
+		watchlist.setMovieCount(movies.size());
+		try {
+			template.insert(watchlist);
+		} catch (RuntimeException e) {
+			System.out.printf("%-8d %-9s %12s  (%s)%n", movies.size(), "embedded", "-", "exceeds document size limit");
+			return;
+		}
+
+		List<String> ids = new ArrayList<>(movies.keySet());
+		Random random = new Random(7);
+		long[] latencies = new long[updates];
+		for (int i = 0; i < updates; i++) {
+			String imdbId = ids.get(random.nextInt(ids.size()));
+			long start = System.nanoTime();
+			template.updateFirst(new Query(Criteria.where("id").is("bench").and("movies." + imdbId).exists(true)),
+					SharedWatchlistEntryUpdates.rate("movies", imdbId, MEMBERS.get(i % MEMBERS.size()), (i % 100) / 10.0, "$userIds", LocalDateTime.now()),
+					SharedWatchlist.class);
+			latencies[i] = System.nanoTime() - start;
+		}
+		print(movies.size(), "embedded", size(template, "sharedWatchlist", "bench"), latencies);
+	}
+
+	private static void runBucketed(MongoTemplate template, SharedWatchlistBucketStore buckets,
+			Map<String, SharedWatchlistEntry> movies, int updates) {
+		template.dropCollection(SharedWatchlistBucket.class);
+		int bucketCount = 64;
+		buckets.write("bench", bucketCount, movies, Map.of(), LocalDateTime.now());
+		SharedWatchlist watchlist = new SharedWatchlist();
+		watchlist.setId("bench");
+		watchlist.setUserIds(new ArrayList<>(MEMBERS));
+		watchlist.setBucketCount(bucketCount);
+
+		List<String> ids = new ArrayList<>(movies.keySet());
+		Random random = new Random(7);
+		long[] latencies = new long[updates];
+		for (int i = 0; i < updates; i++) {
+			String imdbId = ids.get(random.nextInt(ids.size()));
+			long start = System.nanoTime();
+			buckets.rate(watchlist, imdbId, MEMBERS.get(i % MEMBERS.size()), (i % 100) / 10.0, LocalDateTime.now());
+			latencies[i] = System.nanoTime() - start;
+		}
+		print(movies.size(), "bucketed", size(template, "sharedWatchlistBucket", SharedWatchlistBucket.id("bench", 0)), latencies);
+	}
+
+	private static Map<String, SharedWatchlistEntry> entries(int size) {
+		Random random = new Random(size);
+		Map<String, SharedWatchlistEntry> movies = new HashMap<>();
+		LocalDateTime now = LocalDateTime.now();
+		for (int i = 0; i < size; i++) {
+			SharedWatchlistEntry entry = new SharedWatchlistEntry();
+			entry.setAddedDate(now);
+			entry.setAddedByUsername("bench");
+			entry.setLastModified(now);
+			for (String member : MEMBERS) {
+				if (random.nextBoolean()) {
+					entry.getRatings().put(member, random.nextInt(101) / 10.0);
+				}
+			}
+			movies.put(String.format("tt%07d", i), entry);
+		}
+		return movies;
+	}
+
+	private static int size(MongoTemplate template, String collection, String id) {
+		RawBsonDocument document = template.getCollection(collection).withDocumentClass(RawBsonDocument.class)
+				.find(new Document("_id", id)).first();
+		return document == null ? 0 : document.getByteBuffer().remaining();
+	}
+
+	private static void print(int entries, String mode, int bytes, long[] latencies) {
+		Arrays.sort(latencies);
+		double mean = Arrays.stream(latencies).average().orElse(0) / 1000.0;
+		System.out.printf("%-8d %-9s %12d %10.1f %10.1f%n", entries, mode, bytes, mean,
+				latencies[(int) (latencies.length * 0.99)] / 1000.0);
+	}
+
+}
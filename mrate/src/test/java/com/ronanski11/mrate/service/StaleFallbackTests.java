@@ -0,0 +1,71 @@
+package com.ronanski11.mrate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import com.ronanski11.mrate.model.SharedWatchlist;
+import com.ronanski11.mrate.model.SharedWatchlistEntry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Stale answers are bounded by what they hold: a large shared watchlist pushes
+ * out several small values, and one heavier than the whole bound is not kept.
+ */
+class StaleFallbackTests {
+
+	private static final Supplier<Object> UNAVAILABLE = () -> {
+		throw new DatabaseUnavailableException();
+	};
+
+	@Test
+	void evictsByWeightRatherThanCount() {
+		StaleFallback stale = stale(100);
+		for (int i = 0; i < 50; i++) {
+			String id = "u" + i;
+			stale.read("user", id, () -> id);
+		}
+		assertThat(stale.read("user", "u0", UNAVAILABLE)).isEqualTo("u0");
+
+		SharedWatchlist watchlist = watchlist(80);
+		stale.read("watchlist", "w1", () -> watchlist);
+		assertThat(stale.read("watchlist", "w1", UNAVAILABLE)).isSameAs(watchlist);
+		// u0 was read most recently and survives with the watchlist, the others made room for it
+		assertThat(stale.read("user", "u0", UNAVAILABLE)).isEqualTo("u0");
+		assertThatThrownBy(() -> stale.read("user", "u1", UNAVAILABLE)).isInstanceOf(DatabaseUnavailableException.class);
+		assertThat(stale.read("user", "u49", UNAVAILABLE)).isEqualTo("u49");
+	}
+
+	@Test
+	void keepsNothingOfAValueHeavierThanTheBound() {
+		StaleFallback stale = stale(100);
+		stale.read("user", "u0", () -> "u0");
+		stale.read("watchlists", "u0", () -> List.of(watchlist(60), watchlist(60)));
+
+		assertThatThrownBy(() -> stale.read("watchlists", "u0", UNAVAILABLE))
+				.isInstanceOf(DatabaseUnavailableException.class);
+		assertThat(stale.read("user", "u0", UNAVAILABLE)).isEqualTo("u0");
+	}
+
+	private static StaleFallback stale(long maxWeight) {
+		CacheInvalidationBus bus = new CacheInvalidationBus(false, 100, DataSize.ofMegabytes(1), Duration.ofMillis(200),
+				Duration.ofMillis(200), null, new SimpleMeterRegistry());
+		return new StaleFallback(maxWeight, new SimpleMeterRegistry(), bus);
+	}
+
+	private static SharedWatchlist watchlist(int movies) {
+		SharedWatchlist watchlist = new SharedWatchlist();
+		for (int i = 0; i < movies; i++) {
+			watchlist.getMovies().put(String.format("tt%07d", i), new SharedWatchlistEntry());
+		}
+		return watchlist;
+	}
+
+}
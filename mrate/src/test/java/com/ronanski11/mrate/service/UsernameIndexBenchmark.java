@@ -0,0 +1,59 @@
+package com.ronanski11.mrate.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.ronanski11.mrate.model.dto.UserSummary;
+
+/**
+ * Latency check for {@link UsernameIndex#search}. Not part of the test suite,
+ * run it directly: loads a million random usernames and prints percentiles for
+ * random one to three character prefixes.
+ */
+public class UsernameIndexBenchmark {
+
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789_";
+
+	public static void main(String[] args) {
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+		Random random = new Random(42);
+
+		UsernameIndex index = new UsernameIndex();
+		long started = System.nanoTime();
+		for (int i = 0; i < users; i++) {
+			index.put(new UserSummary(Integer.toHexString(i), randomName(random, 4 + random.nextInt(12)), null));
+		}
+		System.out.printf("Indexed %d users in %d ms%n", index.size(), (System.nanoTime() - started) / 1_000_000);
+
+		// Warm up so the JIT has compiled the search path before measuring
+		for (int i = 0; i < queries; i++) {
+			index.search(randomName(random, 1 + random.nextInt(3)), 10);
+		}
+
+		long[] latencies = new long[queries];
+		long found = 0;
+		for (int i = 0; i < queries; i++) {
+			String prefix = randomName(random, 1 + random.nextInt(3));
+			long start = System.nanoTime();
+			found += index.search(prefix, 10).size();
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		System.out.printf("%d queries, %d results%n", queries, found);
+		System.out.printf("p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+				latencies[queries / 2] / 1000.0,
+				latencies[(int) (queries * 0.99)] / 1000.0,
+				latencies[(int) (queries * 0.999)] / 1000.0,
+				latencies[queries - 1] / 1000.0);
+	}
+
+	private static String randomName(Random random, int length) {
+		StringBuilder name = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			name.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return name.toString();
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.ronanski11.mrate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.util.unit.DataSize;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.ronanski11.mrate.model.CacheInvalidation;
+import com.ronanski11.mrate.model.User;
+import com.ronanski11.mrate.model.dto.UserSummary;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Prefix search, and the index kept current from user writes: on this
+ * instance through the mapping events, on another one through the
+ * invalidation bus, and while the initial load is still running.
+ */
+class UsernameIndexTests {
+
+	private MongoServer server;
+
+	private MongoClient client;
+
+	private MongoTemplate mongoTemplate;
+
+	private CacheInvalidationBus bus;
+
+	private UsernameIndex index;
+
+	private StaticApplicationContext context;
+
+	@BeforeEach
+	void start() {
+		server = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = server.bind();
+		client = MongoClients.create("mongodb://localhost:" + address.getPort());
+		mongoTemplate = new MongoTemplate(client, "users");
+		bus = bus();
+		index = index(mongoTemplate, bus);
+		// Delivers the template's mapping events to the index
+		context = new StaticApplicationContext();
+		context.addApplicationListener(index);
+		context.refresh();
+		mongoTemplate.setApplicationContext(context);
+	}
+
+	@AfterEach
+	void stop() {
+		context.close();
+		client.close();
+		server.shutdownNow();
+	}
+
+	@Test
+	void findsUsernamesByPrefixIgnoringCase() {
+		index.put(new UserSummary("1", "alice", null));
+		index.put(new UserSummary("2", "Alfred", "pic"));
+		index.put(new UserSummary("3", "ALINA", null));
+		index.put(new UserSummary("4", "bob", null));
+		index.put(new UserSummary("5", "al", null));
+
+		assertThat(usernames(index.search("AL", 10))).containsExactly("al", "Alfred", "alice", "ALINA");
+		assertThat(usernames(index.search("ali", 10))).containsExactly("alice", "ALINA");
+		assertThat(usernames(index.search("al", 2))).containsExactly("al", "Alfred");
+		assertThat(index.search("c", 10)).isEmpty();
+		assertThat(index.search("alf", 10)).singleElement().satisfies(user -> {
+			assertThat(user.getId()).isEqualTo("2");
+			assertThat(user.getProfilePicId()).isEqualTo("pic");
+		});
+	}
+
+	@Test
+	void followsRenamesAndDeletes() {
+		User alice = mongoTemplate.save(user("alice"));
+		mongoTemplate.save(user("alfred"));
+		assertThat(usernames(index.search("al", 10))).containsExactly("alfred", "alice");
+
+		alice.setUsername("zoe");
+		mongoTemplate.save(alice);
+		assertThat(usernames(index.search("al", 10))).containsExactly("alfred");
+		assertThat(usernames(index.search("z", 10))).containsExactly("zoe");
+		assertThat(index.size()).isEqualTo(2);
+
+		mongoTemplate.remove(new Query(Criteria.where("id").is(alice.getId())), User.class);
+		assertThat(index.search("z", 10)).isEmpty();
+		mongoTemplate.remove(new Query(Criteria.where("username").regex("^al")), User.class);
+		assertThat(index.size()).isZero();
+	}
+
+	@Test
+	void appliesWritesFromAnotherInstance() {
+		CacheInvalidationBus otherBus = bus();
+		UsernameIndex other = index(mongoTemplate, otherBus);
+		User alice = mongoTemplate.save(user("alice"));
+		otherBus.receive(new CacheInvalidation(null, "first", 1, "usernames", alice.getId()));
+		assertThat(usernames(other.search("a", 10))).containsExactly("alice");
+
+		alice.setUsername("zoe");
+		mongoTemplate.save(alice);
+		otherBus.receive(new CacheInvalidation(null, "first", 2, "usernames", alice.getId()));
+		assertThat(usernames(other.search("", 10))).containsExactly("zoe");
+
+		mongoTemplate.remove(alice);
+		otherBus.receive(new CacheInvalidation(null, "first", 3, "usernames", alice.getId()));
+		assertThat(other.size()).isZero();
+	}
+
+	@Test
+	void keepsChangesMadeWhileLoading() {
+		User renamed = mongoTemplate.save(user("alice"));
+		User deleted = mongoTemplate.save(user("bob"));
+		Document oldRenamed = summary(renamed);
+		Document oldDeleted = summary(deleted);
+		Document untouched = summary(mongoTemplate.save(user("carol")));
+
+		// The cursor has read the users before they changed and hands them out afterwards
+		index.load(() -> Stream.of(untouched, oldRenamed, oldDeleted).peek(user -> {
+			if (user == oldRenamed) {
+				renamed.setUsername("zoe");
+				mongoTemplate.save(renamed);
+				mongoTemplate.remove(deleted);
+			}
+		}));
+
+		assertThat(usernames(index.search("", 10))).containsExactly("carol", "zoe");
+
+		// Once the load is over, a later load applies whatever it reads
+		index.load(() -> Stream.of(oldRenamed));
+		assertThat(usernames(index.search("", 10))).containsExactly("alice", "carol");
+	}
+
+	private static CacheInvalidationBus bus() {
+		return new CacheInvalidationBus(false, 100, DataSize.ofMegabytes(1), Duration.ofMillis(200), Duration.ofMillis(200),
+				null, new SimpleMeterRegistry());
+	}
+
+	private static UsernameIndex index(MongoTemplate mongoTemplate, CacheInvalidationBus bus) {
+		UsernameIndex index = new UsernameIndex();
+		index.mongoTemplate = mongoTemplate;
+		index.invalidations = bus;
+		index.init();
+		return index;
+	}
+
+	private static User user(String username) {
+		return User.builder().username(username).password("secret").build();
+	}
+
+	private static Document summary(User user) {
+		return new Document("_id", user.getId()).append("username", user.getUsername());
+	}
+
+	private static List<String> usernames(List<UserSummary> users) {
+		return users.stream().map(UserSummary::getUsername).toList();
+	}
+
+}
@@ -0,0 +1,68 @@
+#!/bin/bash
+# Startup benchmark: for each mode, starts the app RUNS times and records the time
+# until the first /api/auth/authenticate request gets an answer, then the resident
+# memory after IDLE seconds. Requires a jar built with ./mvnw -Pprod package, a
+# reachable MONGODB_URI and JWT_SECRET_KEY. Set BENCH_USERNAME/BENCH_PASSWORD to an
+# existing account to require a successful login rather than any non-5xx answer.
+#
+#   ./startup-benchmark.sh [runs]
+set -e
+
+RUNS=${1:-5}
+IDLE=${IDLE:-10}
+PORT=${PORT:-18080}
+JAR=target/mrate-0.0.1-SNAPSHOT.jar
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+: "${MONGODB_URI:?MONGODB_URI must be set}"
+: "${JWT_SECRET_KEY:?JWT_SECRET_KEY must be set}"
+
+# CDS needs an unpacked jar and a training run with the same JVM and flags
+java -Djarmode=tools -jar "$JAR" extract --destination "$WORK/app" > /dev/null
+APP="$WORK/app/$(basename "$JAR")"
+java -XX:ArchiveClassesAtExit="$WORK/app.jsa" -Dspring.context.exit=onRefresh \
+    -Dspring.aot.enabled=true -Dspring.profiles.active=prod -jar "$APP" > /dev/null 2>&1
+
+declare -A MODES=(
+    [baseline]="-jar $JAR"
+    [aot-lazy]="-Dspring.aot.enabled=true -Dspring.profiles.active=prod -jar $APP"
+    [aot-lazy-cds]="-XX:SharedArchiveFile=$WORK/app.jsa -Dspring.aot.enabled=true -Dspring.profiles.active=prod -jar $APP"
+)
+
+BODY="{\"username\":\"${BENCH_USERNAME:-startup-benchmark}\",\"password\":\"${BENCH_PASSWORD:-startup-benchmark}\"}"
+
+ready() {
+    local code
+    code=$(curl -s -o /dev/null -w '%{http_code}' --max-time 2 -X POST "http://localhost:$PORT/api/auth/authenticate" \
+        -H 'Content-Type: application/json' -d "$BODY" || true)
+    if [ -n "$BENCH_USERNAME" ]; then
+        [ "$code" = "200" ]
+    else
+        [ "$code" != "000" ] && [ "$code" -lt 500 ]
+    fi
+}
+
+printf '%-14s %6s %12s %10s\n' mode run first_ms rss_mb
+for mode in baseline aot-lazy aot-lazy-cds; do
+    for run in $(seq 1 "$RUNS"); do
+        start=$(date +%s%N)
+        # shellcheck disable=SC2086
+        java ${MODES[$mode]} --server.port="$PORT" > "$WORK/$mode-$run.log" 2>&1 &
+        pid=$!
+        until ready; do
+            if ! kill -0 "$pid" 2> /dev/null; then
+                echo "$mode run $run exited, see log:" >&2
+                tail -20 "$WORK/$mode-$run.log" >&2
+                exit 1
+            fi
+            sleep 0.05
+        done
+        first_ms=$(( ($(date +%s%N) - start) / 1000000 ))
+        sleep "$IDLE"
+        rss_kb=$(ps -o rss= -p "$pid")
+        kill "$pid"
+        wait "$pid" 2> /dev/null || true
+        printf '%-14s %6d %12d %10d\n' "$mode" "$run" "$first_ms" $(( rss_kb / 1024 ))
+    done
+done